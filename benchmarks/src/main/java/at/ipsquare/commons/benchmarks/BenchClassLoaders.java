@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ipsquare.commons.core.util.ClassLoaders;
+
+/**
+ * Benchmarks for {@link ClassLoaders}, with and without concurrent modifications of the registry.
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchClassLoaders
+{
+    private final ClassLoader loader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+    
+    @TearDown
+    public void tearDown()
+    {
+        ClassLoaders.unregister(loader);
+    }
+    
+    @Benchmark
+    public Set<ClassLoader> get()
+    {
+        return ClassLoaders.get();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Set<ClassLoader> getContended()
+    {
+        return ClassLoaders.get();
+    }
+    
+    @Benchmark
+    @Group("getWhileModified")
+    @GroupThreads(3)
+    public Set<ClassLoader> getWhileModifiedReaders()
+    {
+        return ClassLoaders.get();
+    }
+    
+    @Benchmark
+    @Group("getWhileModified")
+    @GroupThreads(1)
+    public boolean getWhileModifiedWriter()
+    {
+        ClassLoaders.register(loader);
+        return ClassLoaders.unregister(loader);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ipsquare.commons.core.util.Classes;
+
+/**
+ * Benchmarks for {@link Classes}.
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchClasses
+{
+    private static final String EXISTING_CLASS = BenchClasses.class.getName();
+    private static final String MISSING_CLASS = BenchClasses.class.getName() + "Missing";
+    
+    @Benchmark
+    public Class<?> forName() throws ClassNotFoundException
+    {
+        return Classes.forName(EXISTING_CLASS);
+    }
+    
+    @Benchmark
+    public Class<?> forNameWithType() throws ClassNotFoundException
+    {
+        return Classes.forName(EXISTING_CLASS, Object.class);
+    }
+    
+    @Benchmark
+    public Object forNameMissing()
+    {
+        try
+        {
+            return Classes.forName(MISSING_CLASS);
+        }
+        catch(ClassNotFoundException e)
+        {
+            return e;
+        }
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Class<?> forNameContended() throws ClassNotFoundException
+    {
+        return Classes.forName(EXISTING_CLASS);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ipsquare.commons.core.util.DefaultPerformanceLogFormatter;
+
+/**
+ * Benchmarks for {@link DefaultPerformanceLogFormatter}, covering all combinations of call sites it distinguishes.
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchDefaultPerformanceLogFormatter
+{
+    public enum CallSites
+    {
+        SAME_LINE(elem(BenchDefaultPerformanceLogFormatter.class, "format", 42), elem(BenchDefaultPerformanceLogFormatter.class, "format", 42)),
+        SAME_METHOD(elem(BenchDefaultPerformanceLogFormatter.class, "format", 42), elem(BenchDefaultPerformanceLogFormatter.class, "format", 47)),
+        SAME_CLASS(elem(BenchDefaultPerformanceLogFormatter.class, "format", 42), elem(BenchDefaultPerformanceLogFormatter.class, "setup", 13)),
+        DIFFERENT_CLASSES(elem(BenchDefaultPerformanceLogFormatter.class, "format", 42), elem(String.class, "valueOf", 2994)),
+        UNKNOWN(null, elem(String.class, "valueOf", 2994));
+        
+        final StackTraceElement from;
+        final StackTraceElement to;
+        
+        private CallSites(StackTraceElement from, StackTraceElement to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+        
+        private static StackTraceElement elem(Class<?> clazz, String method, int line)
+        {
+            return new StackTraceElement(clazz.getName(), method, clazz.getSimpleName() + ".java", line);
+        }
+    }
+    
+    @Param
+    public CallSites callSites;
+    
+    @Param({ "", "a typical message" })
+    public String message;
+    
+    private final DefaultPerformanceLogFormatter formatter = new DefaultPerformanceLogFormatter();
+    private final StringBuilder sb = new StringBuilder();
+    private String msg;
+    
+    @Setup
+    public void setup()
+    {
+        msg = message.isEmpty() ? null : message;
+    }
+    
+    @Benchmark
+    public String format()
+    {
+        return formatter.format(callSites.from, callSites.to, 123, msg);
+    }
+    
+    @Benchmark
+    public String formatNanos() throws IOException
+    {
+        StringBuilder out = new StringBuilder(64);
+        formatter.formatNanosTo(out, callSites.from, callSites.to, 123456, msg);
+        return out.toString();
+    }
+    
+    @Benchmark
+    public StringBuilder appendTo()
+    {
+        sb.setLength(0);
+        return formatter.appendTo(sb, callSites.from, callSites.to, 123, msg);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public String formatContended()
+    {
+        return formatter.format(callSites.from, callSites.to, 123, msg);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ipsquare.commons.core.util.LocalResources;
+
+/**
+ * Benchmarks for {@link LocalResources}.
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchLocalResources
+{
+    private static final String EXISTING_RESOURCE = "at/ipsquare/commons/benchmarks/resource.txt";
+    private static final String MISSING_RESOURCE = "at/ipsquare/commons/benchmarks/missing.txt";
+    private static final List<String> RESOURCES = Arrays.asList(EXISTING_RESOURCE, "logback.xml");
+    
+    @Benchmark
+    public URL getUrl() throws IOException
+    {
+        return LocalResources.getUrl(EXISTING_RESOURCE);
+    }
+    
+    @Benchmark
+    public Object getUrlMissing()
+    {
+        try
+        {
+            return LocalResources.getUrl(MISSING_RESOURCE);
+        }
+        catch(IOException e)
+        {
+            return e;
+        }
+    }
+    
+    @Benchmark
+    public Map<String, URL> getUrls() throws IOException
+    {
+        return LocalResources.getUrls(RESOURCES);
+    }
+    
+    @Benchmark
+    public ByteBuffer getByteBuffer() throws IOException
+    {
+        return LocalResources.getByteBuffer(EXISTING_RESOURCE);
+    }
+    
+    @Benchmark
+    public Object getUrlUncached() throws IOException
+    {
+        LocalResources.invalidateCache();
+        return LocalResources.getUrl(EXISTING_RESOURCE);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public URL getUrlContended() throws IOException
+    {
+        return LocalResources.getUrl(EXISTING_RESOURCE);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ipsquare.commons.core.util.PerformanceLogger;
+import at.ipsquare.commons.core.util.PerformanceTimer;
+
+/**
+ * Benchmarks for {@link PerformanceLogger}; output is formatted, but discarded by the logback configuration of this module.
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchPerformanceLogger
+{
+    @Benchmark
+    public void timedExecBelowThreshold()
+    {
+        PerformanceLogger.timedExec(100, () -> { });
+    }
+    
+    @Benchmark
+    public void timedExecAboveThreshold()
+    {
+        PerformanceLogger.timedExec(0, () -> { });
+    }
+    
+    @Benchmark
+    public void loggerBelowThreshold()
+    {
+        new PerformanceLogger(100).logElapsed();
+    }
+    
+    @Benchmark
+    public void loggerAboveThreshold()
+    {
+        new PerformanceLogger(0).logElapsed();
+    }
+    
+    @Benchmark
+    public void timerAboveThreshold()
+    {
+        PerformanceTimer.start().stop();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void timedExecAboveThresholdContended()
+    {
+        PerformanceLogger.timedExec(0, () -> { });
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ipsquare.commons.core.util.StackTrace;
+
+/**
+ * Benchmarks for {@link StackTrace}, at different stack depths.
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchStackTrace
+{
+    @Param({ "1", "16", "128" })
+    public int depth;
+    
+    private enum Operation
+    {
+        GET
+        {
+            @Override
+            Object run()
+            {
+                return StackTrace.get();
+            }
+        },
+        
+        FIRST_ELEMENT_BELOW_CLASS
+        {
+            @Override
+            Object run()
+            {
+                return StackTrace.firstElementBelowClass();
+            }
+        },
+        
+        CAPTURE_FIRST_ELEMENT_BELOW_CLASS
+        {
+            @Override
+            Object run()
+            {
+                return StackTrace.captureFirstElementBelowClass();
+            }
+        },
+        
+        CAPTURE_AND_RESOLVE_FIRST_ELEMENT_BELOW_CLASS
+        {
+            @Override
+            Object run()
+            {
+                return StackTrace.captureFirstElementBelowClass().get();
+            }
+        };
+        
+        abstract Object run();
+    }
+    
+    private static Object atDepth(int depth, Operation op)
+    {
+        if(depth <= 1)
+            return op.run();
+        return atDepth(depth - 1, op);
+    }
+    
+    @Benchmark
+    public Object get()
+    {
+        return atDepth(depth, Operation.GET);
+    }
+    
+    @Benchmark
+    public Object firstElementBelowClass()
+    {
+        return atDepth(depth, Operation.FIRST_ELEMENT_BELOW_CLASS);
+    }
+    
+    @Benchmark
+    public Object captureFirstElementBelowClass()
+    {
+        return atDepth(depth, Operation.CAPTURE_FIRST_ELEMENT_BELOW_CLASS);
+    }
+    
+    @Benchmark
+    public Object captureAndResolveFirstElementBelowClass()
+    {
+        return atDepth(depth, Operation.CAPTURE_AND_RESOLVE_FIRST_ELEMENT_BELOW_CLASS);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Object firstElementBelowClassContended()
+    {
+        return atDepth(depth, Operation.FIRST_ELEMENT_BELOW_CLASS);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks in this module with the {@link GCProfiler} enabled, so that allocation rates are reported along with the timings.
+ * 
+ * <p>
+ *  All command line options of JMH are supported; for example {@code java -jar target/benchmarks.jar BenchStackTrace -t 4} runs
+ *  the stack trace benchmarks with four threads.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+public final class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class);
+        
+        if(cmdOptions.getIncludes().isEmpty())
+            builder.include(BenchmarkRunner.class.getPackage().getName());
+        
+        new Runner(builder.build()).run();
+    }
+    
+    private BenchmarkRunner()
+    {
+        
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.interfaces;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An API for executing {@link UnitOfWork} instances asynchronously.
+ * 
+ * @see UnitOfWorkExecutor
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+public interface AsyncUnitOfWorkExecutor
+{
+    /**
+     * Submits the given {@link UnitOfWork} for execution in an implementation defined context; this method must not block.
+     * 
+     * <p>
+     *  Cancelling the returned future removes the {@link UnitOfWork} from the queue if it has not been started yet; implementations may
+     *  also interrupt units that are already running.
+     * </p>
+     * 
+     * @param work a unit of work.
+     * @return a future that completes with the value returned by the given {@link UnitOfWork}, or exceptionally with an {@link ExecutionError}
+     *  if {@link UnitOfWork#execute()} threw an exception, or with a {@link RejectedExecutionException} if the executor is saturated or closed.
+     */
+    <T> CompletableFuture<T> submit(UnitOfWork<T> work);
+}
@@ -15,6 +15,9 @@
  */
 package at.ipsquare.commons.core.interfaces;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An API for executing {@link UnitOfWork} instances.
  * 
@@ -31,4 +34,26 @@ public interface UnitOfWorkExecutor
      * @throws ExecutionError if {@link UnitOfWork#execute()} threw an exception.
      */
     <T> T executeUnitOfWork(UnitOfWork<T> work);
+    
+    /**
+     * Executes the given {@link UnitOfWork}s one after another and returns their results.
+     * 
+     * <p>
+     *  The default implementation simply calls {@link #executeUnitOfWork(UnitOfWork)} for each {@link UnitOfWork}; implementations
+     *  may override this method to execute all of them in a shared context, which is typically much cheaper for many small units.
+     *  Execution stops at the first {@link UnitOfWork} that fails.
+     * </p>
+     * 
+     * @param units the units of work that should be executed; they are consumed lazily.
+     * @return the values returned by the given units, in order.
+     * @throws ExecutionError if {@link UnitOfWork#execute()} threw an exception for one of the given units.
+     * @since 3.1.0
+     */
+    default <T> List<T> executeUnitsOfWork(Iterable<? extends UnitOfWork<? extends T>> units)
+    {
+        List<T> ret = new ArrayList<>();
+        for(UnitOfWork<? extends T> work : units)
+            ret.add(executeUnitOfWork(work));
+        return ret;
+    }
 }
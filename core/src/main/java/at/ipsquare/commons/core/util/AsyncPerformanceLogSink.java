@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ipsquare.commons.core.util.PerformanceLogger.OverflowPolicy;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Moves formatting and writing of {@link PerformanceLogger} output to a background thread.
+ * 
+ * <p>
+ *  Measurements are queued in their raw form in a bounded {@link MpscRingBuffer}; call sites are captured as
+ *  {@link LazyStackTraceElement}s, so even resolving them happens on the background thread. The background thread drains the
+ *  buffer in batches, formats each measurement into a reused buffer and writes it using SLF4J. What happens if the buffer is
+ *  full is controlled by the {@link OverflowPolicy}.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class AsyncPerformanceLogSink
+{
+    private static final class Event
+    {
+        final LazyStackTraceElement from;
+        final LazyStackTraceElement to;
+        final long nanos;
+        final String message;
+        final PerformanceLogFormatter formatter;
+        
+        Event(LazyStackTraceElement from, LazyStackTraceElement to, long nanos, String message, PerformanceLogFormatter formatter)
+        {
+            this.from = from;
+            this.to = to;
+            this.nanos = nanos;
+            this.message = message;
+            this.formatter = formatter;
+        }
+    }
+    
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long SHUTDOWN_FLUSH_TIMEOUT_MILLIS = 1000;
+    
+    private static final Logger log = LoggerFactory.getLogger(PerformanceLogger.class);
+    private static final LongAdder droppedEvents = new LongAdder();
+    private static volatile AsyncPerformanceLogSink current;
+    
+    @GuardedBy("AsyncPerformanceLogSink.class")
+    private static boolean shutdownHookInstalled;
+    
+    private final int capacity;
+    private final MpscRingBuffer<Event> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final AtomicLong overflows = new AtomicLong();
+    private final Thread consumer;
+    private volatile boolean idle;
+    private volatile boolean stopped;
+    private volatile boolean terminated;
+    private volatile long writtenCount;
+    
+    private AsyncPerformanceLogSink(int capacity, OverflowPolicy overflowPolicy, int sampleRate)
+    {
+        this.capacity = capacity;
+        this.buffer = new MpscRingBuffer<Event>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.consumer = new Thread(this::consume, "performance-logger-async");
+        this.consumer.setDaemon(true);
+    }
+    
+    /**
+     * (Re)configures the sink that is returned by {@link #current()}.
+     * 
+     * @param capacity the capacity of the buffer; a value &lt;= 0 disables asynchronous logging.
+     * @param overflowPolicy what to do if the buffer is full.
+     * @param sampleRate for {@link OverflowPolicy#SAMPLE}, every n-th overflowing event waits for space.
+     */
+    static synchronized void configure(int capacity, OverflowPolicy overflowPolicy, int sampleRate)
+    {
+        AsyncPerformanceLogSink old = current;
+        if(old != null && old.capacity == capacity && old.overflowPolicy == overflowPolicy && old.sampleRate == Math.max(1, sampleRate))
+            return;
+        if(old == null && capacity <= 0)
+            return;
+        
+        if(capacity > 0)
+        {
+            AsyncPerformanceLogSink sink = new AsyncPerformanceLogSink(capacity, overflowPolicy, sampleRate);
+            sink.consumer.start();
+            current = sink;
+            installShutdownHook();
+        }
+        else
+        {
+            current = null;
+        }
+        
+        if(old != null)
+            old.stop();
+    }
+    
+    @GuardedBy("AsyncPerformanceLogSink.class")
+    private static void installShutdownHook()
+    {
+        if(shutdownHookInstalled)
+            return;
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), "performance-logger-flush"));
+        shutdownHookInstalled = true;
+    }
+    
+    /**
+     * @return the sink to use, or null if asynchronous logging is disabled.
+     */
+    static AsyncPerformanceLogSink current()
+    {
+        return current;
+    }
+    
+    /**
+     * @return the number of events that have been dropped because the buffer was full.
+     */
+    static long droppedEvents()
+    {
+        return droppedEvents.sum();
+    }
+    
+    /**
+     * Waits until all events that have been submitted so far are written.
+     * 
+     * @return false if the timeout elapsed first.
+     */
+    static boolean flush(long timeout, TimeUnit unit)
+    {
+        AsyncPerformanceLogSink sink = current;
+        return (sink == null) || sink.awaitWritten(sink.buffer.producedCount(), unit.toNanos(timeout));
+    }
+    
+    /**
+     * Queues a measurement for writing.
+     * 
+     * <p>
+     *  Callers obtain the sink using {@link #current()}, so it might have been replaced and stopped in the meantime.
+     *  Events that arrive after the consumer has exited are handed over to the sink that replaced this one.
+     * </p>
+     */
+    void submit(LazyStackTraceElement from, LazyStackTraceElement to, long nanos, String message, PerformanceLogFormatter formatter)
+    {
+        submit(new Event(from, to, nanos, message, formatter));
+    }
+    
+    private void submit(Event event)
+    {
+        if(!buffer.offer(event) && !handleOverflow(event))
+        {
+            if(stopped)
+                reroute(event);
+            else
+                droppedEvents.increment();
+            return;
+        }
+        
+        /*
+         * The consumer sets this flag before draining the buffer one last time, so either it sees our event, or we see the flag.
+         */
+        if(terminated)
+            drainRemaining();
+        else if(idle)
+            LockSupport.unpark(consumer);
+    }
+    
+    private boolean handleOverflow(Event event)
+    {
+        if(overflowPolicy == OverflowPolicy.DROP)
+            return false;
+        if(overflowPolicy == OverflowPolicy.SAMPLE && overflows.incrementAndGet() % sampleRate != 0)
+            return false;
+        
+        while(!buffer.offer(event))
+        {
+            if(stopped)
+                return false;
+            
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+        }
+        return true;
+    }
+    
+    private void stop()
+    {
+        stopped = true;
+        LockSupport.unpark(consumer);
+    }
+    
+    private synchronized void drainRemaining()
+    {
+        while(!buffer.isEmpty())
+        {
+            Event event = buffer.poll();
+            if(event != null)
+                reroute(event);
+            else
+                Thread.yield();
+        }
+    }
+    
+    private void reroute(Event event)
+    {
+        AsyncPerformanceLogSink sink = current;
+        if(sink != null && sink != this)
+            sink.submit(event);
+        else
+            write(event, new StringBuilder(128));
+    }
+    
+    private boolean awaitWritten(long count, long timeoutNanos)
+    {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while(writtenCount < count)
+        {
+            if(System.nanoTime() - deadline >= 0)
+                return false;
+            
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+        }
+        return true;
+    }
+    
+    private void consume()
+    {
+        Event[] batch = new Event[BATCH_SIZE];
+        StringBuilder sb = new StringBuilder(128);
+        while(true)
+        {
+            int count = buffer.drainTo(batch);
+            if(count > 0)
+            {
+                write(batch, count, sb);
+                continue;
+            }
+            
+            if(stopped && buffer.isEmpty())
+            {
+                terminated = true;
+                drainRemaining();
+                return;
+            }
+            
+            idle = true;
+            if(buffer.isEmpty() && !stopped)
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            idle = false;
+        }
+    }
+    
+    private void write(Event[] batch, int count, StringBuilder sb)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            write(batch[i], sb);
+            batch[i] = null;
+        }
+        writtenCount += count;
+    }
+    
+    private static void write(Event event, StringBuilder sb)
+    {
+        try
+        {
+            sb.setLength(0);
+            event.formatter.formatNanosTo(sb, event.from.get(), event.to.get(), event.nanos, event.message);
+            log.debug(sb.toString());
+        }
+        catch(Exception e)
+        {
+            log.warn("Error writing performance log message.", e);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import at.ipsquare.commons.core.interfaces.AsyncUnitOfWorkExecutor;
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+import at.ipsquare.commons.core.interfaces.UnitOfWorkExecutor;
+
+/**
+ * An {@link AsyncUnitOfWorkExecutor} that executes units of work using a blocking {@link UnitOfWorkExecutor} on a bounded number
+ * of threads.
+ * 
+ * <p>
+ *  The number of threads should match the capacity of the underlying resource, like the size of a connection pool. Units that cannot be
+ *  started right away are queued, and if the queue is full, {@link #submit(UnitOfWork)} fails fast instead of blocking the caller, so that
+ *  callers can shed load. The time units spend in the queue is recorded into a {@link LatencyHistogram}.
+ * </p>
+ * 
+ * <p>
+ *  Cancelling a future returned by {@link #submit(UnitOfWork)} removes the unit from the queue, or interrupts the thread executing it.
+ *  Note that units that wait for the results of other units submitted to the same executor might cause deadlocks.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+public final class BoundedUnitOfWorkExecutor implements AsyncUnitOfWorkExecutor, Closeable
+{
+    private static final long KEEP_ALIVE_SECS = 60;
+    
+    private final UnitOfWorkExecutor delegate;
+    private final ThreadPoolExecutor pool;
+    private final LatencyHistogram queueWaits = new LatencyHistogram();
+    private final AtomicLong rejected = new AtomicLong();
+    
+    /**
+     * Creates a new executor; threads are started on demand, and terminate after being idle for a minute.
+     * 
+     * @param delegate the executor that is used to execute units of work on the worker threads.
+     * @param threads the maximum number of units that are executed concurrently.
+     * @param queueCapacity the maximum number of units that wait for execution.
+     * @param name a name that is used for naming the worker threads.
+     * @throws IllegalArgumentException if threads or queueCapacity are not positive.
+     */
+    public BoundedUnitOfWorkExecutor(UnitOfWorkExecutor delegate, int threads, int queueCapacity, final String name)
+    {
+        if(delegate == null || name == null)
+            throw new NullPointerException();
+        if(threads < 1)
+            throw new IllegalArgumentException("Not a legal number of threads: " + threads);
+        if(queueCapacity < 1)
+            throw new IllegalArgumentException("Not a legal queue capacity: " + queueCapacity);
+        
+        this.delegate = delegate;
+        this.pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread ret = new Thread(r, name + "-" + count.incrementAndGet());
+                ret.setDaemon(true);
+                return ret;
+            }
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+    
+    private final class Task<T> implements Runnable
+    {
+        final UnitOfWork<T> work;
+        final long submittedNanos = System.nanoTime();
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        
+        @GuardedBy("this")
+        Thread runner;
+        
+        Task(UnitOfWork<T> work)
+        {
+            this.work = work;
+            future.whenComplete((result, th) -> {
+                if(future.isCancelled())
+                    cancel();
+            });
+        }
+        
+        @Override
+        public void run()
+        {
+            queueWaits.record(System.nanoTime() - submittedNanos);
+            synchronized(this)
+            {
+                if(future.isDone())
+                    return;
+                runner = Thread.currentThread();
+            }
+            
+            try
+            {
+                future.complete(delegate.executeUnitOfWork(work));
+            }
+            catch(Throwable th)
+            {
+                future.completeExceptionally(th);
+            }
+            finally
+            {
+                synchronized(this)
+                {
+                    runner = null;
+                    Thread.interrupted();
+                }
+            }
+        }
+        
+        void cancel()
+        {
+            pool.remove(this);
+            synchronized(this)
+            {
+                if(runner != null)
+                    runner.interrupt();
+            }
+        }
+    }
+    
+    @Override
+    public <T> CompletableFuture<T> submit(UnitOfWork<T> work)
+    {
+        if(work == null)
+            throw new NullPointerException();
+        
+        Task<T> task = new Task<T>(work);
+        try
+        {
+            pool.execute(task);
+        }
+        catch(RejectedExecutionException e)
+        {
+            rejected.incrementAndGet();
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+    
+    /**
+     * Returns a snapshot of the times units have been waiting in the queue before being started.
+     */
+    public LatencyHistogram.Snapshot queueWaitTimes()
+    {
+        return queueWaits.snapshot();
+    }
+    
+    /**
+     * Returns the number of units that have been rejected, because the queue was full or the executor was closed.
+     */
+    public long rejectedCount()
+    {
+        return rejected.get();
+    }
+    
+    /**
+     * Returns the number of units that are currently waiting for execution.
+     */
+    public int queuedCount()
+    {
+        return pool.getQueue().size();
+    }
+    
+    /**
+     * Returns the number of units that are currently executing.
+     */
+    public int activeCount()
+    {
+        return pool.getActiveCount();
+    }
+    
+    /**
+     * Stops accepting new units; units that have already been submitted are still executed.
+     */
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+    
+    /**
+     * Stops accepting new units, fails all units that are still queued with a {@link RejectedExecutionException}, and interrupts
+     * the threads executing units.
+     */
+    public void closeNow()
+    {
+        for(Runnable runnable : pool.shutdownNow())
+        {
+            rejected.incrementAndGet();
+            ((Task<?>) runnable).future.completeExceptionally(new RejectedExecutionException("The executor has been closed."));
+        }
+    }
+    
+    /**
+     * Waits until all submitted units have been executed after {@link #close()} has been called.
+     * 
+     * @return true if all units have been executed, false if the timeout elapsed first.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return pool.awaitTermination(timeout, unit);
+    }
+}
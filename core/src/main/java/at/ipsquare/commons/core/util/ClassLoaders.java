@@ -15,17 +15,29 @@
  */
 package at.ipsquare.commons.core.util;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.Collections;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
-import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 
 /**
  * A global registry for class loaders that is used throughout all IP SQUARE commons components.
  * 
+ * <p>
+ *  Reading from the registry is lock free: modifications publish an immutable snapshot of the registered loaders, and
+ *  {@link #get()} returns a cached view of the current snapshot. Loaders that have been garbage collected are removed
+ *  lazily, using a {@link ReferenceQueue}.
+ * </p>
+ * 
  * @since 2.1.0
  * @author Matthias Langer
  */
@@ -33,8 +45,147 @@ public final class ClassLoaders
 {
     private static final Object lock = new Object();
     
-    @GuardedBy("lock")
-    private static Set<WeakReference<ClassLoader>> clRefs = Collections.emptySet();
+    private static final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<ClassLoader>();
+    
+    /**
+     * Only written while holding {@link #lock}, but read without locking.
+     */
+    private static volatile Registry registry = new Registry(new Registry.Entry[0], 0);
+    
+    /**
+     * An immutable snapshot of the registered {@link ClassLoader}s.
+     */
+    @Immutable
+    private static final class Registry
+    {
+        static final class Entry extends WeakReference<ClassLoader>
+        {
+            Entry(ClassLoader cl)
+            {
+                super(cl, collected);
+            }
+        }
+        
+        final Entry[] entries;
+        final long version;
+        
+        /**
+         * The most recently returned view; races only lead to superfluous views.
+         */
+        volatile View lastView;
+        
+        /**
+         * Views for other context loaders, so that {@link ClassLoaders#get()} returns the same view for the same
+         * snapshot and context loader, which allows callers to use it as a cache key.
+         */
+        final ConcurrentMap<ClassLoader, View> viewsByContext = new MapMaker().weakKeys().makeMap();
+        volatile View viewWithoutContext;
+        
+        Registry(Entry[] entries, long version)
+        {
+            this.entries = entries;
+            this.version = version;
+        }
+        
+        boolean contains(ClassLoader cl)
+        {
+            for(Entry entry : entries)
+            {
+                if(entry.get() == cl)
+                    return true;
+            }
+            return false;
+        }
+        
+        /**
+         * @return a new registry without collected loaders, and with the given loader added or removed.
+         */
+        Registry with(ClassLoader add, ClassLoader remove)
+        {
+            Set<Entry> ret = Sets.newLinkedHashSetWithExpectedSize(entries.length + 1);
+            for(Entry entry : entries)
+            {
+                ClassLoader cl = entry.get();
+                if(cl != null && cl != remove)
+                    ret.add(entry);
+            }
+            
+            if(add != null)
+                ret.add(new Entry(add));
+            return new Registry(ret.toArray(new Entry[ret.size()]), version + 1);
+        }
+    }
+    
+    /**
+     * An unmodifiable view of a {@link Registry}, followed by the {@link ClassLoader} that loaded this class and a
+     * context {@link ClassLoader}. Only weak references are held, so that cached views do not prevent loaders from being collected.
+     */
+    private static final class View extends AbstractSet<ClassLoader>
+    {
+        private static final ClassLoader OWN_LOADER = ClassLoaders.class.getClassLoader();
+        
+        final Registry registry;
+        final WeakReference<ClassLoader> contextRef;
+        final boolean includeOwn;
+        final boolean includeContext;
+        
+        View(Registry registry, ClassLoader context)
+        {
+            this.registry = registry;
+            this.contextRef = (context == null) ? null : new WeakReference<ClassLoader>(context);
+            this.includeOwn = !registry.contains(OWN_LOADER);
+            this.includeContext = context != null && context != OWN_LOADER && !registry.contains(context);
+        }
+        
+        ClassLoader context()
+        {
+            return (contextRef == null) ? null : contextRef.get();
+        }
+        
+        @Override
+        public Iterator<ClassLoader> iterator()
+        {
+            return new AbstractIterator<ClassLoader>()
+            {
+                private final Registry.Entry[] entries = registry.entries;
+                private int index;
+                
+                @Override
+                protected ClassLoader computeNext()
+                {
+                    while(index < entries.length)
+                    {
+                        ClassLoader cl = entries[index++].get();
+                        if(cl != null)
+                            return cl;
+                    }
+                    
+                    int extra = index++ - entries.length;
+                    if(extra == 0 && includeOwn)
+                        return OWN_LOADER;
+                    
+                    if(extra <= 1 && includeContext)
+                    {
+                        index = entries.length + 2;
+                        ClassLoader cl = context();
+                        if(cl != null)
+                            return cl;
+                    }
+                    
+                    return endOfData();
+                }
+            };
+        }
+        
+        @Override
+        public int size()
+        {
+            int ret = 0;
+            for(Iterator<ClassLoader> iter = iterator(); iter.hasNext(); iter.next())
+                ++ret;
+            return ret;
+        }
+    }
     
     /**
      * Registers a {@link ClassLoader}.
@@ -55,11 +206,11 @@ public final class ClassLoaders
         
         synchronized(lock)
         {
-            Set<ClassLoader> cls = resolveWeakReferences(clRefs);
-            boolean ret = cls.add(cl);
-            if(ret)
-                clRefs = toWeakReferences(cls);
-            return ret;
+            if(registry.contains(cl))
+                return false;
+            
+            registry = registry.with(cl, null);
+            return true;
         }
     }
     
@@ -77,11 +228,11 @@ public final class ClassLoaders
         
         synchronized(lock)
         {
-            Set<ClassLoader> resolved = resolveWeakReferences(clRefs);
-            boolean ret = resolved.remove(cl);
-            if(ret)
-                clRefs = toWeakReferences(resolved);
-            return ret;
+            if(!registry.contains(cl))
+                return false;
+            
+            registry = registry.with(null, cl);
+            return true;
         }
     }
     
@@ -95,7 +246,7 @@ public final class ClassLoaders
     {
         synchronized(lock)
         {
-            clRefs = Collections.emptySet();
+            registry = new Registry(new Registry.Entry[0], registry.version + 1);
         }
     }
     
@@ -107,51 +258,85 @@ public final class ClassLoaders
      */
     public static Set<ClassLoader> registered()
     {
-        synchronized(lock)
+        Registry current = currentRegistry();
+        Set<ClassLoader> ret = Sets.newLinkedHashSetWithExpectedSize(current.entries.length);
+        for(Registry.Entry entry : current.entries)
         {
-            return resolveWeakReferences(clRefs);
+            ClassLoader cl = entry.get();
+            if(cl != null)
+                ret.add(cl);
         }
+        return ret;
     }
     
     /**
      * Returns a set of all explicitly registered {@link ClassLoader}s as well as the {@link ClassLoader} that 
      * loaded this class and the current context class loader if set.
      * 
-     * @return the previously registered {@link ClassLoader}s in the order the have been registered, followed by the {@link ClassLoader}
+     * <p>
+     *  This method neither locks nor allocates, unless the registry or the context class loader have changed since the last call.
+     *  As long as the registry does not change, the same instance is returned for the same context class loader.
+     * </p>
+     * 
+     * @return an unmodifiable snapshot of the previously registered {@link ClassLoader}s in the order the have been registered, followed by the {@link ClassLoader}
      *  that loaded this class and the context {@link ClassLoader} if set.
      */
     public static Set<ClassLoader> get()
     {
-        synchronized(lock)
+        Registry current = currentRegistry();
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        
+        View view = current.lastView;
+        if(view != null && view.context() == context)
+            return view;
+        
+        view = (context == null) ? current.viewWithoutContext : current.viewsByContext.get(context);
+        if(view == null)
         {
-            Set<ClassLoader> ret = resolveWeakReferences(clRefs);
-            ret.add(ClassLoaders.class.getClassLoader());
-            
-            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
-            if(contextClassLoader != null)
-                ret.add(contextClassLoader);
-            return ret;
+            view = new View(current, context);
+            if(context == null)
+                current.viewWithoutContext = view;
+            else
+            {
+                View existing = current.viewsByContext.putIfAbsent(context, view);
+                if(existing != null)
+                    view = existing;
+            }
         }
+        
+        current.lastView = view;
+        return view;
     }
     
-    private static Set<WeakReference<ClassLoader>> toWeakReferences(Set<ClassLoader> cls)
+    /**
+     * Returns a number that changes whenever the set of registered {@link ClassLoader}s changes; this number can be
+     * used to invalidate caches that depend on this registry.
+     */
+    static long version()
     {
-        Set<WeakReference<ClassLoader>> ret = Sets.newLinkedHashSetWithExpectedSize(cls.size());
-        for(ClassLoader cl : cls)
-            ret.add(new WeakReference<ClassLoader>(cl));
-        return ret;
+        return currentRegistry().version;
     }
-
-    private static Set<ClassLoader> resolveWeakReferences(Set<WeakReference<ClassLoader>> cls)
+    
+    private static Registry currentRegistry()
     {
-        Set<ClassLoader> ret = Sets.newLinkedHashSetWithExpectedSize(cls.size() + 2);
-        for(WeakReference<ClassLoader> clRef : cls)
+        if(collected.poll() != null)
+            expungeCollected();
+        return registry;
+    }
+    
+    private static void expungeCollected()
+    {
+        synchronized(lock)
         {
-            ClassLoader cl = clRef.get();
-            if(cl != null)
-                ret.add(cl);
+            Reference<? extends ClassLoader> ref;
+            do
+            {
+                ref = collected.poll();
+            }
+            while(ref != null);
+            
+            registry = registry.with(null, null);
         }
-        return ret;
     }
 
     private ClassLoaders()
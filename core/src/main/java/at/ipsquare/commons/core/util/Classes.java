@@ -15,6 +15,13 @@
  */
 package at.ipsquare.commons.core.util;
 
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
 /**
  * Utility methods around {@link Class}.
  * 
@@ -23,12 +30,39 @@ package at.ipsquare.commons.core.util;
  */
 public final class Classes
 {
+    /**
+     * Lookup results by class name, per snapshot returned by {@link ClassLoaders#get()}; snapshots are compared by identity and
+     * replaced whenever the registry changes, so that outdated results are dropped together with their snapshot.
+     */
+    private static final ConcurrentMap<Set<ClassLoader>, ConcurrentMap<String, Object>> lookups = new MapMaker().weakKeys().makeMap();
+    
+    /**
+     * Marks names that could not be resolved.
+     */
+    private static final Object NOT_FOUND = new Object();
+    
+    /**
+     * A resolved class; only weakly referenced, so that the cache does not prevent class loaders from being collected.
+     */
+    private static final class Found extends WeakReference<Class<?>>
+    {
+        volatile boolean initialized;
+        
+        Found(Class<?> clazz, boolean initialized)
+        {
+            super(clazz);
+            this.initialized = initialized;
+        }
+    }
+    
     /**
      * A version of {@link Class#forName(String, boolean, ClassLoader)} that uses the {@link ClassLoader}s obtained by {@link ClassLoaders#get()}.
      * 
      * <p>
      *  This method iterates through the {@link ClassLoaders} returned by {@link ClassLoaders#get()}
-     *  and tries to load the desired class.
+     *  and tries to load the desired class. Both hits and misses are cached, until the registry is modified
+     *  or the context class loader changes; note that this means that classes that are defined later on by one of these loaders
+     *  might not be found.
      * </p>
      * 
      * @param name the fully qualified name of the desired class.
@@ -38,11 +72,42 @@ public final class Classes
      */
     public static Class<?> forName(String name, boolean initialize) throws ClassNotFoundException
     {
-        for(ClassLoader cl : ClassLoaders.get())
+        Set<ClassLoader> loaders = ClassLoaders.get();
+        ConcurrentMap<String, Object> cache = lookups.get(loaders);
+        if(cache == null)
+        {
+            cache = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Object> existing = lookups.putIfAbsent(loaders, cache);
+            if(existing != null)
+                cache = existing;
+        }
+        
+        Object cached = cache.get(name);
+        if(cached == NOT_FOUND)
+            throw new ClassNotFoundException(name);
+        
+        if(cached != null)
+        {
+            Found found = (Found) cached;
+            Class<?> clazz = found.get();
+            if(clazz != null)
+            {
+                if(initialize && !found.initialized)
+                {
+                    clazz = Class.forName(name, true, clazz.getClassLoader());
+                    found.initialized = true;
+                }
+                return clazz;
+            }
+        }
+        
+        for(ClassLoader cl : loaders)
         {
             try
             {
-                return Class.forName(name, initialize, cl);
+                Class<?> clazz = Class.forName(name, initialize, cl);
+                cache.put(name, new Found(clazz, initialize));
+                return clazz;
             }
             catch(ClassNotFoundException e)
             {
@@ -50,6 +115,7 @@ public final class Classes
             }
         }
         
+        cache.put(name, NOT_FOUND);
         throw new ClassNotFoundException(name);
     }
     
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.MapMaker;
+
+/**
+ * An index from resource paths to the classpath elements that contain them, used by {@link LocalResources}.
+ * 
+ * <p>
+ *  Only {@link URLClassLoader}s and the system class loader are indexed, and only if all their ancestors, up to the loader that
+ *  loads the JDK classes, are of this kind as well, and all their URLs point to local directories or JAR files. Other loaders are
+ *  not covered by the index, and neither are JAR files referenced by <code>Class-Path</code> manifest entries, nor the resources
+ *  of the JDK itself. Thus, the index is only authoritative for the paths that it contains.
+ * </p>
+ * 
+ * <p>
+ *  Indexes for JAR files can be persisted using {@link #write(File)}, and loaded again using {@link #read(File)}. JAR files that
+ *  have been modified in the meantime are indexed again, while directories are always indexed lazily.
+ * </p>
+ * 
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class ClasspathIndex
+{
+    private static final int MAGIC = 0x69704349;
+    private static final int FORMAT_VERSION = 1;
+    
+    private static final ClassLoader JDK_LOADER = jdkLoader();
+    
+    /**
+     * Paths that contain other characters are not looked up in the index, as the resulting URLs would need to be encoded.
+     */
+    private static final String PLAIN_PATH_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789/._-$+!*'(),~=:;@&";
+    
+    private final ConcurrentMap<String, Root> roots = new ConcurrentHashMap<String, Root>();
+    private final ConcurrentMap<ClassLoader, Optional<LoaderIndex>> loaderIndexes = new MapMaker().weakKeys().makeMap();
+    
+    /**
+     * An indexed classpath element; like {@link URLClassLoader}, URLs that end with a '/' are treated as directories, and everything else as JAR files.
+     */
+    @Immutable
+    private static final class Root
+    {
+        final String url;
+        final File file;
+        final boolean jar;
+        final long lastModified;
+        final long length;
+        final Set<String> entries;
+        
+        Root(String url, long lastModified, long length, Set<String> entries) throws IOException
+        {
+            this.url = url;
+            this.file = toFile(url);
+            this.jar = !url.endsWith("/");
+            this.lastModified = lastModified;
+            this.length = length;
+            this.entries = entries;
+        }
+        
+        static Root index(String url) throws IOException
+        {
+            File file = toFile(url);
+            Set<String> entries = new HashSet<String>();
+            if(url.endsWith("/"))
+            {
+                indexDirectory(file, "", entries);
+                return new Root(url, 0, 0, entries);
+            }
+            
+            long lastModified = file.lastModified();
+            long length = file.length();
+            if(file.isFile())
+            {
+                try(JarFile jarFile = new JarFile(file))
+                {
+                    for(Enumeration<JarEntry> jarEntries = jarFile.entries(); jarEntries.hasMoreElements(); )
+                        entries.add(jarEntries.nextElement().getName());
+                }
+            }
+            return new Root(url, lastModified, length, entries);
+        }
+        
+        private static File toFile(String url) throws IOException
+        {
+            try
+            {
+                return new File(new URL(url).toURI());
+            }
+            catch(URISyntaxException | IllegalArgumentException e)
+            {
+                throw new IOException("Cannot index '" + url + "'.", e);
+            }
+        }
+        
+        private static void indexDirectory(File dir, String prefix, Set<String> entries)
+        {
+            File[] files = dir.listFiles();
+            if(files == null)
+                return;
+            
+            for(File file : files)
+            {
+                String path = prefix + file.getName();
+                if(file.isDirectory())
+                    indexDirectory(file, path + "/", entries);
+                else
+                    entries.add(path);
+            }
+        }
+        
+        boolean upToDate()
+        {
+            return jar && file.lastModified() == lastModified && file.length() == length;
+        }
+        
+        /**
+         * Creates URLs just like {@link URLClassLoader} does, so that they can be compared to URLs returned by other loaders.
+         */
+        URL urlFor(String path) throws IOException
+        {
+            if(jar)
+                return new URL("jar:" + url + "!/" + path);
+            return new URL(url + path);
+        }
+    }
+    
+    /**
+     * The merged index for the classpath elements of a loader, in delegation order.
+     */
+    @Immutable
+    private static final class LoaderIndex
+    {
+        final Map<String, List<Root>> rootsByPath;
+        
+        LoaderIndex(List<Root> roots)
+        {
+            Map<String, List<Root>> rootsByPath = new HashMap<String, List<Root>>();
+            for(Root root : roots)
+            {
+                for(String entry : root.entries)
+                {
+                    List<Root> found = rootsByPath.get(entry);
+                    if(found == null)
+                        rootsByPath.put(entry, Collections.singletonList(root));
+                    else
+                    {
+                        if(found.size() == 1)
+                        {
+                            found = new ArrayList<Root>(found);
+                            rootsByPath.put(entry, found);
+                        }
+                        found.add(root);
+                    }
+                }
+            }
+            this.rootsByPath = rootsByPath;
+        }
+    }
+    
+    /**
+     * Looks up a path.
+     * 
+     * @param path a path relative to the classpath.
+     * @param cl the loader that should be used.
+     * @return the URLs of the path in the given loader, or null if the loader is not covered by the index or the path is not indexed.
+     * @throws IOException if the index could not be built.
+     */
+    List<URL> lookup(String path, ClassLoader cl) throws IOException
+    {
+        Optional<LoaderIndex> index = loaderIndexes.get(cl);
+        if(index == null)
+        {
+            List<String> urls = new ArrayList<String>();
+            index = collectClasspath(cl, urls) ? Optional.of(new LoaderIndex(rootsFor(urls))) : Optional.<LoaderIndex>absent();
+            loaderIndexes.put(cl, index);
+        }
+        
+        if(!index.isPresent() || !StringUtils.containsOnly(path, PLAIN_PATH_CHARS))
+            return null;
+        
+        List<Root> found = index.get().rootsByPath.get(path);
+        if(found == null)
+            return null;
+        
+        List<URL> ret = new ArrayList<URL>(found.size());
+        for(Root root : found)
+            ret.add(root.urlFor(path));
+        return ret;
+    }
+    
+    /**
+     * Indexes the classpath elements of the given loaders that are not indexed yet.
+     */
+    void indexAll(Iterable<ClassLoader> loaders) throws IOException
+    {
+        for(ClassLoader cl : loaders)
+            lookup("", cl);
+    }
+    
+    /**
+     * Writes the index for all JAR files that are indexed so far.
+     */
+    void write(File file) throws IOException
+    {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            List<Root> jars = new ArrayList<Root>();
+            for(Root root : roots.values())
+            {
+                if(root.jar)
+                    jars.add(root);
+            }
+            
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(jars.size());
+            for(Root root : jars)
+            {
+                out.writeUTF(root.url);
+                out.writeLong(root.lastModified);
+                out.writeLong(root.length);
+                out.writeInt(root.entries.size());
+                for(String entry : root.entries)
+                    out.writeUTF(entry);
+            }
+        }
+    }
+    
+    /**
+     * Reads an index that has been written by {@link #write(File)}, skipping JAR files that have changed since.
+     * 
+     * @throws IOException if the file cannot be read or is not an index written by {@link #write(File)}.
+     */
+    static ClasspathIndex read(File file) throws IOException
+    {
+        ClasspathIndex ret = new ClasspathIndex();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                throw new IOException("'" + file + "' is not a classpath index, or has been written by an incompatible version.");
+            
+            for(int roots = in.readInt(); roots > 0; roots--)
+            {
+                String url = in.readUTF();
+                long lastModified = in.readLong();
+                long length = in.readLong();
+                int size = in.readInt();
+                Set<String> entries = new HashSet<String>(size * 4 / 3 + 1);
+                for(int i = 0; i < size; i++)
+                    entries.add(in.readUTF());
+                
+                Root root = new Root(url, lastModified, length, entries);
+                if(root.upToDate())
+                    ret.roots.put(url, root);
+            }
+        }
+        return ret;
+    }
+    
+    private List<Root> rootsFor(List<String> urls) throws IOException
+    {
+        List<Root> ret = new ArrayList<Root>(urls.size());
+        for(String url : urls)
+        {
+            Root root = roots.get(url);
+            if(root == null)
+            {
+                root = Root.index(url);
+                Root existing = roots.putIfAbsent(url, root);
+                if(existing != null)
+                    root = existing;
+            }
+            ret.add(root);
+        }
+        return ret;
+    }
+    
+    /**
+     * Collects the classpath elements of the given loader in delegation order.
+     * 
+     * @return false if the loader cannot be indexed.
+     */
+    private static boolean collectClasspath(ClassLoader cl, List<String> accumulator)
+    {
+        if(cl == null || cl == JDK_LOADER)
+            return true;
+        
+        if(!collectClasspath(cl.getParent(), accumulator))
+            return false;
+        
+        if(cl == ClassLoader.getSystemClassLoader())
+        {
+            for(String element : StringUtils.split(System.getProperty("java.class.path", ""), File.pathSeparatorChar))
+            {
+                try
+                {
+                    accumulator.add(new File(element).getCanonicalFile().toURI().toURL().toExternalForm());
+                }
+                catch(IOException e)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        if(!(cl instanceof URLClassLoader))
+            return false;
+        
+        for(URL url : ((URLClassLoader) cl).getURLs())
+        {
+            if(!"file".equals(url.getProtocol()) || url.getQuery() != null || url.getRef() != null)
+                return false;
+            accumulator.add(url.toExternalForm());
+        }
+        return true;
+    }
+    
+    private static ClassLoader jdkLoader()
+    {
+        ClassLoader system = ClassLoader.getSystemClassLoader();
+        return (system == null) ? null : system.getParent();
+    }
+}
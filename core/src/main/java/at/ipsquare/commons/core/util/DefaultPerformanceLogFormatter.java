@@ -15,6 +15,7 @@
  */
 package at.ipsquare.commons.core.util;
 
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Deque;
 
@@ -23,18 +24,122 @@ import net.jcip.annotations.Immutable;
 /**
  * Default {@link PerformanceLogFormatter} implementation.
  *
+ * <p>
+ *  Besides {@link #format(StackTraceElement, StackTraceElement, long, String)}, this class offers
+ *  {@link #appendTo(StringBuilder, StackTraceElement, StackTraceElement, long, String)}, that writes
+ *  into a caller supplied buffer and does not allocate any memory in the common case. The same holds for
+ *  {@link #formatTo(Appendable, StackTraceElement, StackTraceElement, long, String)} if a {@link StringBuilder} is passed.
+ * </p>
+ * 
+ * <p>
+ *  Durations passed in milliseconds are always printed in milliseconds, while durations passed in nanoseconds (see 
+ *  {@link #formatNanosTo(Appendable, StackTraceElement, StackTraceElement, long, String)}) are printed with an adaptive
+ *  unit (ns, &micro;s, ms or s) and up to three significant digits, like <code>12.3&micro;s</code>.
+ * </p>
+ *
  * @author Matthias Langer
  * @since 2.1.0
  */
 @Immutable
 public final class DefaultPerformanceLogFormatter implements PerformanceLogFormatter
 {
+    private static final int MILLIS_WIDTH = 6;
+    private static final long NANOS_PER_MICRO = 1000L;
+    private static final long NANOS_PER_MILLI = 1000L * NANOS_PER_MICRO;
+    private static final long NANOS_PER_SECOND = 1000L * NANOS_PER_MILLI;
+    private static final ClassValue<String> classNames = new ClassValue<String>()
+    {
+        @Override
+        protected String computeValue(Class<?> type)
+        {
+            return className(type);
+        }
+    };
+
     @Override
     public String format(StackTraceElement from, StackTraceElement to, long millis, String message)
     {
-        StringBuilder sb = new StringBuilder()
-            .append(String.format("%6dms ", millis));
+        StringBuilder sb = ThreadLocalStringBuilders.acquire();
+        try
+        {
+            return appendTo(sb, from, to, millis, message).toString();
+        }
+        finally
+        {
+            ThreadLocalStringBuilders.release(sb);
+        }
+    }
+
+    @Override
+    public void formatTo(Appendable out, StackTraceElement from, StackTraceElement to, long millis, String message) throws IOException
+    {
+        if(out instanceof StringBuilder)
+        {
+            appendTo((StringBuilder) out, from, to, millis, message);
+            return;
+        }
 
+        StringBuilder sb = ThreadLocalStringBuilders.acquire();
+        try
+        {
+            out.append(appendTo(sb, from, to, millis, message));
+        }
+        finally
+        {
+            ThreadLocalStringBuilders.release(sb);
+        }
+    }
+
+    @Override
+    public void formatNanosTo(Appendable out, StackTraceElement from, StackTraceElement to, long nanos, String message) throws IOException
+    {
+        if(out instanceof StringBuilder)
+        {
+            appendNanosTo((StringBuilder) out, from, to, nanos, message);
+            return;
+        }
+
+        StringBuilder sb = ThreadLocalStringBuilders.acquire();
+        try
+        {
+            out.append(appendNanosTo(sb, from, to, nanos, message));
+        }
+        finally
+        {
+            ThreadLocalStringBuilders.release(sb);
+        }
+    }
+
+    /**
+     * Appends the same text that {@link #format(StackTraceElement, StackTraceElement, long, String)} would return to the given {@link StringBuilder}.
+     *
+     * @param sb the {@link StringBuilder} to append to.
+     * @return the given {@link StringBuilder}.
+     * @see #format(StackTraceElement, StackTraceElement, long, String)
+     * @since 3.1.0
+     */
+    public StringBuilder appendTo(StringBuilder sb, StackTraceElement from, StackTraceElement to, long millis, String message)
+    {
+        appendPadded(sb, millis, MILLIS_WIDTH).append("ms ");
+        return appendCallSites(sb, from, to, message);
+    }
+
+    /**
+     * Like {@link #appendTo(StringBuilder, StackTraceElement, StackTraceElement, long, String)}, but for a duration in nanoseconds,
+     * that is printed with an adaptive unit.
+     *
+     * @param sb the {@link StringBuilder} to append to.
+     * @return the given {@link StringBuilder}.
+     * @since 3.1.0
+     */
+    public StringBuilder appendNanosTo(StringBuilder sb, StackTraceElement from, StackTraceElement to, long nanos, String message)
+    {
+        appendDuration(sb, nanos, MILLIS_WIDTH).append(' ');
+        return appendCallSites(sb, from, to, message);
+    }
+
+    private static StringBuilder appendCallSites(StringBuilder sb, StackTraceElement from, StackTraceElement to, String message)
+    {
         if(from != null && to != null)
         {
             Class<?> fromClass = StackTrace.associatedClass(from);
@@ -42,80 +147,62 @@ public final class DefaultPerformanceLogFormatter implements PerformanceLogForma
 
             if(fromClass.equals(toClass))
             {
-                sb.append(className(fromClass));
+                sb.append(classNames.get(fromClass));
                 if(from.getMethodName().equals(to.getMethodName()))
                 {
-                    sb.append(".")
+                    sb.append('.')
                       .append(from.getMethodName())
-                      .append("[");
+                      .append('[');
 
                     if(from.getLineNumber() == to.getLineNumber())
                     {
-                        sb.append(lineNumberToString(to));
+                        appendLineNumber(sb, to);
                     }
                     else
                     {
-
-                      sb.append(lineNumberToString(from))
-                        .append("->")
-                        .append(lineNumberToString(to));
+                        appendLineNumber(sb, from).append("->");
+                        appendLineNumber(sb, to);
                     }
 
-                    sb.append("]");
+                    sb.append(']');
                 }
                 else
                 {
-                    sb.append("[")
+                    sb.append('[')
                       .append(from.getMethodName())
-                      .append(":")
-                      .append(lineNumberToString(from))
+                      .append(':');
+                    appendLineNumber(sb, from)
                       .append("->")
                       .append(to.getMethodName())
-                      .append(":")
-                      .append(lineNumberToString(to))
-                      .append("]");
+                      .append(':');
+                    appendLineNumber(sb, to)
+                      .append(']');
                 }
             }
             else
             {
-                sb.append("[")
-                  .append(className(fromClass))
-                  .append(".")
+                sb.append('[')
+                  .append(classNames.get(fromClass))
+                  .append('.')
                   .append(from.getMethodName())
-                  .append(":")
-                  .append(lineNumberToString(from))
+                  .append(':');
+                appendLineNumber(sb, from)
                   .append("->")
-                  .append(className(toClass))
-                  .append(".")
+                  .append(classNames.get(toClass))
+                  .append('.')
                   .append(to.getMethodName())
-                  .append(":")
-                  .append(lineNumberToString(to))
-                  .append("]");
+                  .append(':');
+                appendLineNumber(sb, to)
+                  .append(']');
             }
         }
         else
         {
-            sb.append("[");
-            StackTraceElement[] fromTo = { from, to };
-            for(int i = 0; i < 2; ++i)
-            {
-                StackTraceElement elem = fromTo[i];
-                if(elem == null)
-                    sb.append("???");
-                else
-                {
-                    Class<?> elemClass = StackTrace.associatedClass(elem);
-                    sb.append(className(elemClass))
-                      .append(".")
-                      .append(from.getMethodName())
-                      .append(":")
-                      .append(lineNumberToString(elem));
-                }
-
-                if(i == 0)
-                    sb.append("->");
-            }
-            sb.append("]");
+            sb.append('[');
+            appendElement(sb, from);
+            sb.append("->");
+            appendElement(sb, to);
+            sb.append(']');
         }
 
         if(message != null)
@@ -125,7 +212,93 @@ public final class DefaultPerformanceLogFormatter implements PerformanceLogForma
               .append(">>");
         }
 
-        return sb.toString();
+        return sb;
+    }
+
+    private static void appendElement(StringBuilder sb, StackTraceElement elem)
+    {
+        if(elem == null)
+        {
+            sb.append("???");
+            return;
+        }
+
+        Class<?> elemClass = StackTrace.associatedClass(elem);
+        sb.append(classNames.get(elemClass))
+          .append('.')
+          .append(elem.getMethodName())
+          .append(':');
+        appendLineNumber(sb, elem);
+    }
+
+    /**
+     * Appends the given number of nanoseconds with a unit that keeps the value below 1000 if possible, using up to three significant digits.
+     * The number is padded with spaces to the given width.
+     */
+    static StringBuilder appendDuration(StringBuilder sb, long nanos, int width)
+    {
+        if(nanos < NANOS_PER_MICRO)
+            return appendPadded(sb, nanos, width).append("ns");
+
+        long unit;
+        String unitName;
+        if(nanos < NANOS_PER_MILLI)
+        {
+            unit = NANOS_PER_MICRO;
+            unitName = "\u00b5s";
+        }
+        else if(nanos < NANOS_PER_SECOND)
+        {
+            unit = NANOS_PER_MILLI;
+            unitName = "ms";
+        }
+        else
+        {
+            unit = NANOS_PER_SECOND;
+            unitName = "s";
+        }
+
+        long whole = nanos / unit;
+        if(whole >= 100)
+            return appendPadded(sb, whole, width).append(unitName);
+
+        int decimals = (whole >= 10) ? 1 : 2;
+        long scale = (decimals == 1) ? 10 : 100;
+        long fraction = (nanos / (unit / scale)) % scale;
+
+        for(int i = numChars(whole) + 1 + decimals; i < width; ++i)
+            sb.append(' ');
+        sb.append(whole).append('.');
+        if(decimals == 2 && fraction < 10)
+            sb.append('0');
+        return sb.append(fraction).append(unitName);
+    }
+
+    /**
+     * Appends the given value padded with spaces to the given width, just like {@code String.format("%6d", value)} would do for a width of 6.
+     */
+    private static StringBuilder appendPadded(StringBuilder sb, long value, int width)
+    {
+        for(int i = numChars(value); i < width; ++i)
+            sb.append(' ');
+        return sb.append(value);
+    }
+
+    private static int numChars(long value)
+    {
+        if(value == Long.MIN_VALUE)
+            return 20;
+
+        int ret = 1;
+        if(value < 0)
+        {
+            ++ret;
+            value = -value;
+        }
+
+        for(; value >= 10; value /= 10)
+            ++ret;
+        return ret;
     }
 
     private static String className(Class<?> clazz)
@@ -151,9 +324,9 @@ public final class DefaultPerformanceLogFormatter implements PerformanceLogForma
         return sb.toString();
     }
 
-    private static String lineNumberToString(StackTraceElement elem)
+    private static StringBuilder appendLineNumber(StringBuilder sb, StackTraceElement elem)
     {
         int ln = elem.getLineNumber();
-        return (ln > 0 ? String.valueOf(ln) : "?");
+        return (ln > 0 ? sb.append(ln) : sb.append('?'));
     }
 }
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A lock free histogram for latencies in nanoseconds.
+ * 
+ * <p>
+ *  Like an <a href="http://hdrhistogram.org/">HDR histogram</a>, this class uses buckets that grow exponentially, with 64 linear sub buckets
+ *  for each power of two. Percentiles are therefore reported with a relative error below 2%, while recording is a single atomic
+ *  increment that never allocates. Values above about 4.8 hours are counted in the last bucket; the maximum is tracked exactly.
+ * </p>
+ * 
+ * @see PerformanceLogger#histogramSnapshots()
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+    private static final long MAX_TRACKABLE_VALUE = (1L << 44) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Records a single value.
+     * 
+     * @param nanos the value to record; negative values are treated like 0.
+     */
+    public void record(long nanos)
+    {
+        record(nanos, 1);
+    }
+    
+    /**
+     * Records the same value multiple times, which is useful for values that have been sampled.
+     * 
+     * @param nanos the value to record; negative values are treated like 0.
+     * @param count how often the value should be recorded (must be positive).
+     * @since 3.1.0
+     */
+    public void record(long nanos, long count)
+    {
+        if(count <= 0)
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        if(nanos < 0)
+            nanos = 0;
+        
+        counts.addAndGet(bucketIndex(Math.min(nanos, MAX_TRACKABLE_VALUE)), count);
+        sum.add(nanos * count);
+        
+        long currentMax = max.get();
+        while(nanos > currentMax && !max.compareAndSet(currentMax, nanos))
+            currentMax = max.get();
+    }
+    
+    /**
+     * Resets this histogram.
+     * 
+     * <p>
+     *  Values that are recorded while this method is running might partially survive the reset.
+     * </p>
+     */
+    public void reset()
+    {
+        for(int i = 0; i < BUCKET_COUNT; i++)
+            counts.set(i, 0);
+        sum.reset();
+        max.set(0);
+    }
+    
+    /**
+     * Creates a snapshot of this histogram.
+     * 
+     * <p>
+     *  Taking a snapshot does not block concurrent recording; values recorded in the meantime might therefore be reflected
+     *  in some, but not all statistics of the snapshot.
+     * </p>
+     * 
+     * @return a new snapshot.
+     */
+    public Snapshot snapshot()
+    {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, sum.sum(), max.get());
+    }
+    
+    static int bucketIndex(long value)
+    {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        if(bits <= SUB_BUCKET_BITS)
+            return (int) value;
+        
+        int shift = bits - SUB_BUCKET_BITS;
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+    
+    static long highestEquivalentValue(int index)
+    {
+        if(index < 2 * SUB_BUCKET_HALF_COUNT)
+            return index;
+        
+        int shift = (index >>> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+    
+    /**
+     * An immutable snapshot of a {@link LatencyHistogram}; all values are in nanoseconds.
+     * 
+     * @since 3.1.0
+     * @author Matthias Langer
+     */
+    @Immutable
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+        
+        Snapshot(long[] counts, long count, long sum, long max)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+        
+        /**
+         * @return the number of recorded values.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+        
+        /**
+         * @return the arithmetic mean of all recorded values, or 0 if there are none.
+         */
+        public double getMean()
+        {
+            return (count == 0) ? 0 : (double) sum / count;
+        }
+        
+        /**
+         * @return the largest recorded value, or 0 if there are none.
+         */
+        public long getMax()
+        {
+            return max;
+        }
+        
+        /**
+         * Looks up the value at the given percentile.
+         * 
+         * @param percentile a number between 0 and 100.
+         * @return the smallest value that is greater than or equal to the given percentage of all recorded values, or 0 if there are none.
+         */
+        public long getValueAtPercentile(double percentile)
+        {
+            if(percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Not a legal percentile: " + percentile);
+            
+            if(count == 0)
+                return 0;
+            
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if(seen >= rank)
+                    return Math.min(highestEquivalentValue(i), max);
+            }
+            return max;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "Snapshot [count=" + count + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50) + ", p90=" + getValueAtPercentile(90)
+                    + ", p99=" + getValueAtPercentile(99) + ", max=" + max + "]";
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link StackTraceElement} that is only resolved when it is actually needed.
+ * 
+ * <p>
+ *  Instances of this class are obtained from {@link StackTrace#captureFirstElementBelowClass()}. Capturing
+ *  the stack is cheap compared to converting it into {@link StackTraceElement}s, so this work is deferred until
+ *  {@link #get()} is called for the first time.
+ * </p>
+ * 
+ * @see StackTrace#captureFirstElementBelowClass()
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+public final class LazyStackTraceElement
+{
+    private final Throwable trace;
+    private volatile StackTraceElement resolved;
+    
+    LazyStackTraceElement(Throwable trace)
+    {
+        this.trace = trace;
+    }
+    
+    /**
+     * Resolves the captured call site.
+     * 
+     * @return the {@link StackTraceElement} that has been captured (can be null in theory).
+     */
+    public StackTraceElement get()
+    {
+        StackTraceElement ret = resolved;
+        if(ret == null)
+        {
+            ret = StackTrace.firstElementBelowCallerClass(trace.getStackTrace());
+            resolved = ret;
+        }
+        return ret;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.valueOf(get());
+    }
+}
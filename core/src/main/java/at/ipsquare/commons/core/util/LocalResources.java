@@ -22,23 +22,97 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.Immutable;
 
 import org.apache.commons.collections.EnumerationUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 
 /**
  * For loading local resources from the classpath.
  * 
+ * <p>
+ *  Resolved URLs, as well as paths that could not be resolved, are cached per snapshot returned by {@link ClassLoaders#get()},
+ *  so that changes to the registry are picked up automatically. Resources that are added or removed in the meantime are only noticed
+ *  after calling {@link #invalidateCache()}, or after the time span configured by {@link #setCacheTimeToLive(long, TimeUnit)} has passed.
+ * </p>
+ * 
  * @author Matthias Langer
  * @since 2.0.0
  */
 public final class LocalResources
 {
+  /**
+   * Resolutions by path, per snapshot returned by {@link ClassLoaders#get()}; snapshots are compared by identity.
+   */
+  private static final ConcurrentMap<Set<ClassLoader>, ConcurrentMap<String, Resolution>> resolutions = new MapMaker().weakKeys().makeMap();
+  
+  private static volatile long cacheTtlNanos;
+  
+  /**
+   * Buffers returned by {@link #getByteBuffer(String)} and {@link #getMappedBuffer(String)}; views of these buffers reference them,
+   * so they are only collected once all views are unreachable.
+   */
+  private static final ConcurrentMap<String, ByteBuffer> buffers = new MapMaker().weakValues().makeMap();
+  
+  /**
+   * The index that is consulted before asking class loaders, or null if indexing is disabled.
+   */
+  private static volatile ClasspathIndex index;
+  
+  /**
+   * The result of resolving a path, which is either an {@link URL} or an error message.
+   */
+  @Immutable
+  private static final class Resolution
+  {
+    final URL url;
+    final String error;
+    final boolean notFound;
+    final long resolvedAtNanos = System.nanoTime();
+    
+    Resolution(URL url, String error, boolean notFound)
+    {
+      this.url = url;
+      this.error = error;
+      this.notFound = notFound;
+    }
+    
+    boolean expired(long ttlNanos)
+    {
+      return ttlNanos > 0 && System.nanoTime() - resolvedAtNanos > ttlNanos;
+    }
+    
+    URL get() throws IOException
+    {
+      if(url != null)
+        return url;
+      if(notFound)
+        throw new FileNotFoundException(error);
+      throw new IOException(error);
+    }
+  }
+  
   /**
    * Returns a file object for the given path.
    * 
@@ -54,7 +128,7 @@ public final class LocalResources
     if("jar".equals(url.getProtocol()))
         throw new IOException(url + " points to a file that lies within a JAR file. Please use getUrl() or getStream() instead.");
     
-    File file = new File(URLDecoder.decode(url.getFile(), "UTF-8"));
+    File file = toFile(url);
     if(!file.canRead())
       throw new IOException("Not readable: '" + file + "'.");
     return file;
@@ -70,21 +144,296 @@ public final class LocalResources
     return getUrl(path).openStream();
   }
   
+  /**
+   * Returns a read-only view of a memory mapped file for the given path.
+   * 
+   * <p>
+   *  Mappings are shared: each call returns an independent view, with its own position and limit, of a cached mapping that is
+   *  released once all views are garbage collected. Files that have been modified are mapped again. Since views do not own the mapping,
+   *  they are returned as plain {@link ByteBuffer}s; methods like {@link java.nio.MappedByteBuffer#load()} are not available for them.
+   * </p>
+   * 
+   * <p>
+   *  Like {@link #getFile(String)}, this method does not work for resources that lie within JAR files; use {@link #getByteBuffer(String)} for these.
+   * </p>
+   * 
+   * @param path a path relative to the current classpath.
+   * @return a read-only buffer with the contents of the given resource.
+   * @since 3.1.0
+   */
+  public static ByteBuffer getMappedBuffer(String path) throws IOException
+  {
+    return getMappedBuffer(getFile(path));
+  }
+  
+  /**
+   * Returns a read-only {@link ByteBuffer} for the given path, without copying it onto the heap.
+   * 
+   * <p>
+   *  Plain files are mapped into memory like by {@link #getMappedBuffer(String)}, while resources within JAR files are read into a direct buffer.
+   *  In both cases, each call returns an independent view of a cached buffer; buffers for resources within JAR files are only read again
+   *  after calling {@link #invalidateCache()}.
+   * </p>
+   * 
+   * @param path a path relative to the current classpath.
+   * @return a read-only buffer with the contents of the given resource.
+   * @since 3.1.0
+   */
+  public static ByteBuffer getByteBuffer(String path) throws IOException
+  {
+    URL url = getUrl(path);
+    if("file".equals(url.getProtocol()))
+      return getMappedBuffer(toFile(url));
+    
+    String key = url.toExternalForm();
+    ByteBuffer buffer = buffers.get(key);
+    if(buffer == null)
+    {
+      buffer = readDirect(url);
+      ByteBuffer existing = buffers.putIfAbsent(key, buffer);
+      if(existing != null)
+        buffer = existing;
+    }
+    
+    /*
+     * Views of direct buffers reference the buffer that has been allocated, not the view they have been created from,
+     * so the cache must hold the allocated buffer itself:
+     */
+    return buffer.asReadOnlyBuffer();
+  }
+  
+  /**
+   * @return true if the buffer for the given resource within a JAR file is cached (see {@link #getByteBuffer(String)}).
+   */
+  static boolean isBufferCached(String path) throws IOException
+  {
+    return buffers.get(getUrl(path).toExternalForm()) != null;
+  }
+  
+  private static ByteBuffer getMappedBuffer(File file) throws IOException
+  {
+    String key = file.getPath() + "@" + file.lastModified() + ":" + file.length();
+    ByteBuffer buffer = buffers.get(key);
+    if(buffer == null)
+    {
+      try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      
+      ByteBuffer existing = buffers.putIfAbsent(key, buffer);
+      if(existing != null)
+        buffer = existing;
+    }
+    return buffer.duplicate();
+  }
+  
+  private static ByteBuffer readDirect(URL url) throws IOException
+  {
+    URLConnection connection = url.openConnection();
+    long length = connection.getContentLengthLong();
+    if(length > Integer.MAX_VALUE)
+      throw new IOException("'" + url + "' is too large to be read into a buffer.");
+    
+    try(InputStream in = connection.getInputStream())
+    {
+      ByteBuffer buffer;
+      if(length < 0)
+      {
+        byte[] bytes = IOUtils.toByteArray(in);
+        buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+      }
+      else
+      {
+        buffer = ByteBuffer.allocateDirect((int) length);
+        ReadableByteChannel channel = Channels.newChannel(in);
+        while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+        if(buffer.hasRemaining())
+          throw new IOException("Unexpected end of '" + url + "'.");
+      }
+      
+      buffer.flip();
+      return buffer;
+    }
+  }
+  
   /**
    * See {@link #getFile(String)} and {@link #getStream(String)}.
    */
   public static URL getUrl(String path) throws IOException
   {
     Set<ClassLoader> classLoaders = ClassLoaders.get();
-    Set<String> urls = new HashSet<String>(2);
+    ConcurrentMap<String, Resolution> cache = cacheFor(classLoaders);
+    long ttlNanos = cacheTtlNanos;
     
-    for(ClassLoader cl : classLoaders)
+    Resolution resolution = cache.get(path);
+    if(resolution == null || resolution.expired(ttlNanos))
     {
-      URL url = getUrl(path, cl);
-      if(url != null)
-        urls.add(url.toExternalForm());
+      Map<String, Map<String, URL>> found = Collections.<String, Map<String, URL>>singletonMap(path, new LinkedHashMap<String, URL>(2));
+      resolution = resolve(path, scan(found, classLoaders).get(path), classLoaders);
+      cache.put(path, resolution);
+    }
+    
+    return resolution.get();
+  }
+  
+  /**
+   * Resolves multiple paths at once, like {@link #getUrl(String)}.
+   * 
+   * <p>
+   *  Paths that are not cached yet are resolved using a single pass over the {@link ClassLoader}s returned by {@link ClassLoaders#get()},
+   *  which is considerably faster than resolving them one by one, if many paths are involved.
+   * </p>
+   * 
+   * @param paths paths relative to the current classpath.
+   * @return the resolved {@link URL}s by path, in iteration order of the given paths.
+   * @throws FileNotFoundException if at least one of the given paths could not be found.
+   * @throws IOException if at least one of the given paths is ambiguous.
+   * @since 3.1.0
+   */
+  public static Map<String, URL> getUrls(Collection<String> paths) throws IOException
+  {
+    Set<ClassLoader> classLoaders = ClassLoaders.get();
+    ConcurrentMap<String, Resolution> cache = cacheFor(classLoaders);
+    long ttlNanos = cacheTtlNanos;
+    
+    Map<String, Resolution> resolved = new LinkedHashMap<String, Resolution>();
+    Map<String, Map<String, URL>> found = Maps.newHashMapWithExpectedSize(paths.size());
+    for(String path : paths)
+    {
+      Resolution resolution = cache.get(path);
+      if(resolution == null || resolution.expired(ttlNanos))
+        found.put(path, new LinkedHashMap<String, URL>(2));
+      resolved.put(path, resolution);
     }
     
+    if(!found.isEmpty())
+    {
+      for(Map.Entry<String, Map<String, URL>> entry : scan(found, classLoaders).entrySet())
+      {
+        Resolution resolution = resolve(entry.getKey(), entry.getValue(), classLoaders);
+        cache.put(entry.getKey(), resolution);
+        resolved.put(entry.getKey(), resolution);
+      }
+    }
+    
+    Map<String, URL> ret = Maps.newLinkedHashMapWithExpectedSize(resolved.size());
+    for(Map.Entry<String, Resolution> entry : resolved.entrySet())
+      ret.put(entry.getKey(), entry.getValue().get());
+    return ret;
+  }
+  
+  /**
+   * Drops all cached resolutions and buffers, so that resources that have been added or removed since are noticed.
+   * 
+   * @since 3.1.0
+   */
+  public static void invalidateCache()
+  {
+    resolutions.clear();
+    buffers.clear();
+    if(index != null)
+      index = new ClasspathIndex();
+  }
+  
+  /**
+   * Enables or disables the classpath index.
+   * 
+   * <p>
+   *  If enabled, the directories and JAR files used by {@link URLClassLoader}s and the system class loader are indexed lazily, so that
+   *  paths can be resolved without asking each {@link ClassLoader} to search all of its JAR files. Paths that are not contained in the index,
+   *  as well as other {@link ClassLoader}s, are resolved like before. Note that resources of the JDK itself are not indexed, and therefore
+   *  do not cause ambiguities for paths that are found in the index. Indexing is disabled by default.
+   * </p>
+   * 
+   * @param enabled whether the index should be used.
+   * @see #loadIndex(File)
+   * @since 3.1.0
+   */
+  public static void setIndexEnabled(boolean enabled)
+  {
+    if(!enabled)
+      index = null;
+    else if(index == null)
+      index = new ClasspathIndex();
+  }
+  
+  /**
+   * Indexes all JAR files that are used by the {@link ClassLoader}s returned by {@link ClassLoaders#get()}, and writes the index to a file,
+   * which can be loaded at the next startup using {@link #loadIndex(File)}; this also enables the index.
+   * 
+   * @param file the file to write.
+   * @since 3.1.0
+   */
+  public static void saveIndex(File file) throws IOException
+  {
+    setIndexEnabled(true);
+    ClasspathIndex current = index;
+    current.indexAll(ClassLoaders.get());
+    current.write(file);
+  }
+  
+  /**
+   * Loads an index written by {@link #saveIndex(File)} and enables it; JAR files that have been modified since are indexed again when needed.
+   * 
+   * @param file the file to read.
+   * @throws IOException if the file cannot be read, or has not been written by {@link #saveIndex(File)}.
+   * @since 3.1.0
+   */
+  public static void loadIndex(File file) throws IOException
+  {
+    index = ClasspathIndex.read(file);
+  }
+  
+  /**
+   * Sets the time span after which cached resolutions are discarded.
+   * 
+   * @param duration the time span; 0 (the default) means that resolutions are cached until {@link #invalidateCache()} is called
+   *  or the registry of {@link ClassLoaders} changes.
+   * @param unit the unit of the given duration.
+   * @since 3.1.0
+   */
+  public static void setCacheTimeToLive(long duration, TimeUnit unit)
+  {
+    if(duration < 0)
+      throw new IllegalArgumentException("Negative time to live: " + duration);
+    cacheTtlNanos = unit.toNanos(duration);
+  }
+  
+  private static ConcurrentMap<String, Resolution> cacheFor(Set<ClassLoader> classLoaders)
+  {
+    ConcurrentMap<String, Resolution> cache = resolutions.get(classLoaders);
+    if(cache == null)
+    {
+      cache = new ConcurrentHashMap<String, Resolution>();
+      ConcurrentMap<String, Resolution> existing = resolutions.putIfAbsent(classLoaders, cache);
+      if(existing != null)
+        cache = existing;
+    }
+    return cache;
+  }
+  
+  /**
+   * Looks up all given paths using all given {@link ClassLoader}s, collecting the found {@link URL}s by external form, to
+   * avoid {@link URL#equals(Object)}.
+   */
+  private static Map<String, Map<String, URL>> scan(Map<String, Map<String, URL>> found, Set<ClassLoader> classLoaders) throws IOException
+  {
+    for(ClassLoader cl : classLoaders)
+    {
+      for(Map.Entry<String, Map<String, URL>> entry : found.entrySet())
+      {
+        URL url = getUrl(entry.getKey(), cl);
+        if(url != null)
+          entry.getValue().put(url.toExternalForm(), url);
+      }
+    }
+    return found;
+  }
+  
+  private static Resolution resolve(String path, Map<String, URL> urls, Set<ClassLoader> classLoaders)
+  {
     if(urls.isEmpty())
     {
       StringBuilder sb = new StringBuilder("'");
@@ -94,13 +443,13 @@ public final class LocalResources
         sb.append("; try ommiting the leading '/'.");
       
       sb.append("\n").append(classLoaderInfo(classLoaders));
-      throw new FileNotFoundException(sb.toString());
+      return new Resolution(null, sb.toString(), true);
     }
     
     if(urls.size() > 1)
-      throw new IOException("'" + path + "' : Ambiguous path.");
+      return new Resolution(null, "'" + path + "' : Ambiguous path.", false);
     
-    return new URL(urls.iterator().next());
+    return new Resolution(urls.values().iterator().next(), null, false);
   }
   
   private static String classLoaderInfo(Collection<ClassLoader> classLoaders)
@@ -128,8 +477,10 @@ public final class LocalResources
   
   private static URL getUrl(String path, ClassLoader cl) throws IOException
   {
-    @SuppressWarnings("unchecked")
-    List<URL> urls = EnumerationUtils.toList(cl.getResources(path));
+    ClasspathIndex currentIndex = index;
+    List<URL> urls = (currentIndex == null) ? null : currentIndex.lookup(path, cl);
+    if(urls == null)
+      urls = getResources(path, cl);
     
     if(urls.isEmpty())
       return null;
@@ -138,6 +489,17 @@ public final class LocalResources
     return urls.get(0);
   }
   
+  private static File toFile(URL url) throws IOException
+  {
+    return new File(URLDecoder.decode(url.getFile(), "UTF-8"));
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static List<URL> getResources(String path, ClassLoader cl) throws IOException
+  {
+    return EnumerationUtils.toList(cl.getResources(path));
+  }
+  
   private static Set<String> collectClassLoaderUrls(URLClassLoader cl)
   {
     Set<String> urls = new TreeSet<String>();
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A bounded, lock free ring buffer for multiple producers and a single consumer.
+ * 
+ * <p>
+ *  Producers claim slots by incrementing a shared index with CAS and publish their elements with an ordered write;
+ *  the consumer frees slots before advancing its own index, so a producer never overwrites an unconsumed element.
+ *  {@link #offer(Object)} may be called from any thread, while {@link #poll()} and {@link #drainTo(Object[])}
+ *  must only be called from a single consumer thread.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class MpscRingBuffer<E>
+{
+    static final int MAX_CAPACITY = 1 << 30;
+    
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    
+    /**
+     * Constructs a new ring buffer.
+     * 
+     * @param capacity the minimum capacity; this value is rounded up to the next power of two.
+     */
+    MpscRingBuffer(int capacity)
+    {
+        if(capacity <= 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Not a legal capacity: " + capacity);
+        
+        int actualCapacity = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<E>(actualCapacity);
+        this.mask = actualCapacity - 1;
+    }
+    
+    /**
+     * Tries to add an element without blocking.
+     * 
+     * @param elem the element to add (must not be null).
+     * @return false if the buffer is full.
+     */
+    boolean offer(E elem)
+    {
+        if(elem == null)
+            throw new NullPointerException();
+        
+        long capacity = mask + 1;
+        long consumer = consumerIndex.get();
+        while(true)
+        {
+            long producer = producerIndex.get();
+            if(producer - consumer >= capacity)
+            {
+                consumer = consumerIndex.get();
+                if(producer - consumer >= capacity)
+                    return false;
+            }
+            
+            if(producerIndex.compareAndSet(producer, producer + 1))
+            {
+                slots.lazySet(offset(producer), elem);
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Removes the next element; must only be called from the consumer thread.
+     * 
+     * @return the next element, or null if there is none yet.
+     */
+    E poll()
+    {
+        long consumer = consumerIndex.get();
+        int offset = offset(consumer);
+        E elem = slots.get(offset);
+        if(elem == null)
+            return null;
+        
+        slots.lazySet(offset, null);
+        consumerIndex.lazySet(consumer + 1);
+        return elem;
+    }
+    
+    /**
+     * Removes as many elements as possible into the given array; must only be called from the consumer thread.
+     * 
+     * @param batch the array to fill.
+     * @return the number of elements that have been removed.
+     */
+    int drainTo(E[] batch)
+    {
+        int count = 0;
+        while(count < batch.length)
+        {
+            E elem = poll();
+            if(elem == null)
+                break;
+            batch[count++] = elem;
+        }
+        return count;
+    }
+    
+    /**
+     * @return true if there are neither published nor claimed elements.
+     */
+    boolean isEmpty()
+    {
+        return consumerIndex.get() == producerIndex.get();
+    }
+    
+    /**
+     * @return the number of slots claimed by producers so far.
+     */
+    long producedCount()
+    {
+        return producerIndex.get();
+    }
+    
+    /**
+     * @return the capacity of this buffer.
+     */
+    int capacity()
+    {
+        return mask + 1;
+    }
+    
+    private int offset(long index)
+    {
+        return (int) index & mask;
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import at.ipsquare.commons.core.util.PerformanceLogger.CallSite;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The registry of {@link LatencyHistogram}s that backs {@link PerformanceLogger.Mode#AGGREGATE}.
+ * 
+ * <p>
+ *  Summaries are written periodically by a daemon thread that is only started if aggregation has been enabled.
+ * </p>
+ * 
+ * <p>
+ *  Measurements are first queued together with their {@link LazyStackTraceElement}s, so that the thread being measured
+ *  never has to resolve its call site or take a lock; the same daemon thread assigns them to their {@link CallSite}s in short
+ *  intervals, as do summaries and snapshots. Measurements that arrive while the queue is full are dropped and counted.
+ *  Call sites that have not seen any new measurements since the last summary are evicted when the next summary is written.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class PerformanceHistograms
+{
+    private static final class Measurement
+    {
+        final LazyStackTraceElement from;
+        final LazyStackTraceElement to;
+        final long nanos;
+        final long weight;
+        final PerformanceLogFormatter formatter;
+        
+        Measurement(LazyStackTraceElement from, LazyStackTraceElement to, long nanos, long weight, PerformanceLogFormatter formatter)
+        {
+            this.from = from;
+            this.to = to;
+            this.nanos = nanos;
+            this.weight = weight;
+            this.formatter = formatter;
+        }
+    }
+    
+    private static final class Entry
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final PerformanceLogFormatter formatter;
+        
+        @GuardedBy("PerformanceHistograms.class")
+        long reportedCount;
+        
+        Entry(PerformanceLogFormatter formatter)
+        {
+            this.formatter = formatter;
+        }
+    }
+    
+    private static final Logger log = LoggerFactory.getLogger(PerformanceLogger.class);
+    private static final int PENDING_CAPACITY = 4096;
+    private static final long DRAIN_INTERVAL_MILLIS = 25;
+    private static final ConcurrentMap<CallSite, Entry> entries = new ConcurrentHashMap<>();
+    private static final LongAdder droppedMeasurements = new LongAdder();
+    
+    /*
+     * Multiple producers, but only a single consumer at a time: the queue is only ever drained while holding the class lock.
+     */
+    private static final MpscRingBuffer<Measurement> pending = new MpscRingBuffer<>(PENDING_CAPACITY);
+    
+    @GuardedBy("PerformanceHistograms.class")
+    private static ScheduledExecutorService executor;
+    @GuardedBy("PerformanceHistograms.class")
+    private static ScheduledFuture<?> drainer;
+    @GuardedBy("PerformanceHistograms.class")
+    private static ScheduledFuture<?> reporter;
+    @GuardedBy("PerformanceHistograms.class")
+    private static long reportIntervalSecs;
+    @GuardedBy("PerformanceHistograms.class")
+    private static long reportedDrops;
+    
+    static void record(LazyStackTraceElement from, LazyStackTraceElement to, long nanos, long weight, PerformanceLogFormatter formatter)
+    {
+        if(!pending.offer(new Measurement(from, to, nanos, weight, formatter)))
+            droppedMeasurements.increment();
+    }
+    
+    /**
+     * @return the number of measurements that have been dropped because the queue was full.
+     */
+    static long droppedMeasurements()
+    {
+        return droppedMeasurements.sum();
+    }
+    
+    /**
+     * Assigns queued measurements to their call sites; stops after one queue length, so that producers cannot keep it busy forever.
+     */
+    @GuardedBy("PerformanceHistograms.class")
+    private static void drainPending()
+    {
+        Measurement measurement;
+        for(int i = 0; i < PENDING_CAPACITY && (measurement = pending.poll()) != null; i++)
+            add(measurement);
+    }
+    
+    private static void add(Measurement measurement)
+    {
+        CallSite callSite = new CallSite(measurement.from.get(), measurement.to.get());
+        Entry entry = entries.get(callSite);
+        if(entry == null)
+            entry = entries.computeIfAbsent(callSite, key -> new Entry(measurement.formatter));
+        entry.histogram.record(measurement.nanos, measurement.weight);
+    }
+    
+    static synchronized Map<CallSite, LatencyHistogram.Snapshot> snapshots()
+    {
+        drainPending();
+        Map<CallSite, LatencyHistogram.Snapshot> ret = new LinkedHashMap<>();
+        for(Map.Entry<CallSite, Entry> entry : entries.entrySet())
+            ret.put(entry.getKey(), entry.getValue().histogram.snapshot());
+        return Collections.unmodifiableMap(ret);
+    }
+    
+    static synchronized void reset()
+    {
+        while(pending.poll() != null)
+            continue;
+        entries.clear();
+    }
+    
+    /**
+     * (Re)schedules draining the queue of measurements and periodic summaries.
+     * 
+     * @param aggregating true if any measurements are aggregated; if false, the daemon thread stops doing anything.
+     * @param intervalSecs the interval in seconds; a value &lt;= 0 disables periodic summaries.
+     */
+    static synchronized void schedule(boolean aggregating, long intervalSecs)
+    {
+        if(!aggregating)
+            intervalSecs = 0;
+        
+        if(aggregating && drainer == null)
+        {
+            drainer = executor().scheduleWithFixedDelay(PerformanceHistograms::drainQuietly, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        else if(!aggregating && drainer != null)
+        {
+            drainer.cancel(false);
+            drainer = null;
+        }
+        
+        if(reporter != null && intervalSecs == reportIntervalSecs)
+            return;
+        
+        if(reporter != null)
+        {
+            reporter.cancel(false);
+            reporter = null;
+        }
+        
+        reportIntervalSecs = intervalSecs;
+        if(intervalSecs <= 0)
+            return;
+        
+        reporter = executor().scheduleAtFixedRate(PerformanceHistograms::reportQuietly, intervalSecs, intervalSecs, TimeUnit.SECONDS);
+    }
+    
+    @GuardedBy("PerformanceHistograms.class")
+    private static ScheduledExecutorService executor()
+    {
+        if(executor == null)
+        {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("performance-logger-histograms").build());
+        }
+        return executor;
+    }
+    
+    private static void drainQuietly()
+    {
+        try
+        {
+            synchronized(PerformanceHistograms.class)
+            {
+                drainPending();
+            }
+        }
+        catch(RuntimeException e)
+        {
+            log.warn("Error aggregating performance measurements.", e);
+        }
+    }
+    
+    private static void reportQuietly()
+    {
+        try
+        {
+            report();
+        }
+        catch(RuntimeException e)
+        {
+            log.warn("Error writing performance summaries.", e);
+        }
+    }
+    
+    /**
+     * Writes a summary for each call site that has seen new measurements since the last call, and evicts all others.
+     */
+    static synchronized void report()
+    {
+        drainPending();
+        long drops = droppedMeasurements.sum();
+        if(drops != reportedDrops)
+        {
+            log.warn("Dropped " + (drops - reportedDrops) + " performance measurements because aggregating them could not keep up.");
+            reportedDrops = drops;
+        }
+        
+        boolean debugEnabled = log.isDebugEnabled();
+        for(Iterator<Map.Entry<CallSite, Entry>> iter = entries.entrySet().iterator(); iter.hasNext();)
+        {
+            Map.Entry<CallSite, Entry> mapEntry = iter.next();
+            Entry entry = mapEntry.getValue();
+            LatencyHistogram.Snapshot snapshot = entry.histogram.snapshot();
+            if(snapshot.getCount() == entry.reportedCount)
+            {
+                iter.remove();
+                continue;
+            }
+            
+            entry.reportedCount = snapshot.getCount();
+            if(!debugEnabled)
+                continue;
+            
+            CallSite callSite = mapEntry.getKey();
+            long meanNanos = Math.round(snapshot.getMean());
+            log.debug(formatSummary(entry.formatter, callSite, meanNanos, summaryMessage(snapshot)));
+        }
+    }
+    
+    private static String formatSummary(PerformanceLogFormatter formatter, CallSite callSite, long nanos, String msg)
+    {
+        StringBuilder sb = ThreadLocalStringBuilders.acquire();
+        try
+        {
+            formatter.formatNanosTo(sb, callSite.getFrom(), callSite.getTo(), nanos, msg);
+            return sb.toString();
+        }
+        catch(IOException e)
+        {
+            throw new AssertionError("Should be impossible.", e);
+        }
+        finally
+        {
+            ThreadLocalStringBuilders.release(sb);
+        }
+    }
+    
+    static String summaryMessage(LatencyHistogram.Snapshot snapshot)
+    {
+        StringBuilder sb = new StringBuilder().append("count=").append(snapshot.getCount());
+        appendDuration(sb, ", mean=", Math.round(snapshot.getMean()));
+        appendDuration(sb, ", p50=", snapshot.getValueAtPercentile(50));
+        appendDuration(sb, ", p90=", snapshot.getValueAtPercentile(90));
+        appendDuration(sb, ", p99=", snapshot.getValueAtPercentile(99));
+        appendDuration(sb, ", max=", snapshot.getMax());
+        return sb.toString();
+    }
+    
+    private static void appendDuration(StringBuilder sb, String label, long nanos)
+    {
+        DefaultPerformanceLogFormatter.appendDuration(sb.append(label), nanos, 0);
+    }
+    
+    private PerformanceHistograms()
+    {
+        
+    }
+}
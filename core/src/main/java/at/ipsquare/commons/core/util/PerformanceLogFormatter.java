@@ -16,6 +16,9 @@
 
 package at.ipsquare.commons.core.util;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * An interface for formatting log messages.
  * 
@@ -35,4 +38,47 @@ public interface PerformanceLogFormatter
      * @return a string for logging.
      */
     String format(StackTraceElement from, StackTraceElement to, long millis, String message);
+    
+    /**
+     * Formats a log message according to the given input and appends it to the given {@link Appendable}.
+     * 
+     * <p>
+     *  The default implementation just appends the result of {@link #format(StackTraceElement, StackTraceElement, long, String)};
+     *  implementations that care about allocations should override it and write directly to the given {@link Appendable}.
+     * </p>
+     * 
+     * @param out where the log message should be appended to.
+     * @param from the point where performance logging was started (can be null in theory).
+     * @param to the point where performance logging was stopped (can be null in theory).
+     * @param millis the number of elapsed milliseconds.
+     * @param message an optional message.
+     * @throws IOException if appending to the given {@link Appendable} fails.
+     * @since 3.1.0
+     */
+    default void formatTo(Appendable out, StackTraceElement from, StackTraceElement to, long millis, String message) throws IOException
+    {
+        out.append(format(from, to, millis, message));
+    }
+    
+    /**
+     * Like {@link #formatTo(Appendable, StackTraceElement, StackTraceElement, long, String)}, but for a duration in nanoseconds.
+     * 
+     * <p>
+     *  {@link PerformanceLogger} always calls this method, passing a reusable buffer. The default implementation truncates the
+     *  duration to milliseconds and calls {@link #formatTo(Appendable, StackTraceElement, StackTraceElement, long, String)}, so
+     *  existing implementations keep working unchanged; override it to take advantage of the higher resolution.
+     * </p>
+     * 
+     * @param out where the log message should be appended to.
+     * @param from the point where performance logging was started (can be null in theory).
+     * @param to the point where performance logging was stopped (can be null in theory).
+     * @param nanos the number of elapsed nanoseconds.
+     * @param message an optional message.
+     * @throws IOException if appending to the given {@link Appendable} fails.
+     * @since 3.1.0
+     */
+    default void formatNanosTo(Appendable out, StackTraceElement from, StackTraceElement to, long nanos, String message) throws IOException
+    {
+        formatTo(out, from, to, TimeUnit.NANOSECONDS.toMillis(nanos), message);
+    }
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Decides which executions are timed by a {@link PerformanceLogger}.
+ * 
+ * <p>
+ *  A sampler combines probabilistic sampling (time a given fraction of all executions) with rate limiting (time at most
+ *  a given number of executions per second). Rate limits apply per sampler instance; {@link PerformanceLogger} uses one sampler
+ *  per class for its block based API (like {@link PerformanceLogger#timedExec(Runnable)}) and for loggers constructed with an owner class,
+ *  and shared samplers for its other constructors, one per package or class that overrides the sampling settings.
+ * </p>
+ * 
+ * <p>
+ *  {@link #sample()} returns a weight, which is the number of executions the sampled one stands for. This weight is used to scale
+ *  counts in aggregated statistics (see {@link PerformanceLogger.Mode#AGGREGATE}), so that they stay accurate.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+public final class PerformanceLogSampler
+{
+    /**
+     * A sampler that samples everything.
+     */
+    public static final PerformanceLogSampler ALWAYS = new PerformanceLogSampler(1.0, 0);
+    
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    
+    private final double rate;
+    private final long maxPerSecond;
+    private final long intervalNanos;
+    private final AtomicLong theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong skippedWeight = new AtomicLong();
+    
+    private PerformanceLogSampler(double rate, long maxPerSecond)
+    {
+        this.rate = rate;
+        this.maxPerSecond = maxPerSecond;
+        this.intervalNanos = (maxPerSecond > 0) ? Math.max(1, NANOS_PER_SECOND / maxPerSecond) : 0;
+    }
+    
+    /**
+     * Creates a new sampler.
+     * 
+     * @param rate the fraction of executions that should be timed, between 0 and 1.
+     * @param maxPerSecond the maximum number of executions per second that should be timed; 0 means unlimited.
+     * @return a new sampler, or {@link #ALWAYS} if the parameters do not restrict anything.
+     * @throws IllegalArgumentException if one of the parameters is out of range.
+     */
+    public static PerformanceLogSampler of(double rate, long maxPerSecond)
+    {
+        if(!(rate >= 0 && rate <= 1))
+            throw new IllegalArgumentException("Not a legal sampling rate: " + rate);
+        if(maxPerSecond < 0)
+            throw new IllegalArgumentException("Not a legal maximum number of samples per second: " + maxPerSecond);
+        
+        if(rate == 1 && maxPerSecond == 0)
+            return ALWAYS;
+        return new PerformanceLogSampler(rate, maxPerSecond);
+    }
+    
+    /**
+     * Decides if the current execution should be timed.
+     * 
+     * @return 0 if the execution should not be timed, and the number of executions it stands for otherwise.
+     */
+    public long sample()
+    {
+        if(this == ALWAYS)
+            return 1;
+        
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if(rate < 1 && random.nextDouble() >= rate)
+            return 0;
+        
+        long weight = 1;
+        if(rate < 1)
+        {
+            double exactWeight = 1 / rate;
+            weight = (long) exactWeight;
+            if(random.nextDouble() < exactWeight - weight)
+                ++weight;
+        }
+        
+        if(maxPerSecond > 0)
+        {
+            if(!tryAcquire())
+            {
+                skippedWeight.addAndGet(weight);
+                return 0;
+            }
+            weight += skippedWeight.getAndSet(0);
+        }
+        return weight;
+    }
+    
+    /**
+     * Rate limiting using the generic cell rate algorithm, which allows bursts of up to {@link #maxPerSecond} executions.
+     */
+    private boolean tryAcquire()
+    {
+        long now = System.nanoTime();
+        long burstTolerance = NANOS_PER_SECOND - intervalNanos;
+        while(true)
+        {
+            long tat = theoreticalArrivalNanos.get();
+            long start = (tat - now > 0) ? tat : now;
+            if(start - now > burstTolerance)
+                return false;
+            if(theoreticalArrivalNanos.compareAndSet(tat, start + intervalNanos))
+                return true;
+        }
+    }
+    
+    /**
+     * @return the fraction of executions that are timed, between 0 and 1.
+     */
+    public double getRate()
+    {
+        return rate;
+    }
+    
+    /**
+     * @return the maximum number of executions per second that are timed; 0 means unlimited.
+     */
+    public long getMaxPerSecond()
+    {
+        return maxPerSecond;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "PerformanceLogSampler [rate=" + rate + ", maxPerSecond=" + maxPerSecond + "]";
+    }
+}
@@ -15,20 +15,21 @@
  */
 package at.ipsquare.commons.core.util;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Stopwatch;
 
+import net.jcip.annotations.Immutable;
 import net.jcip.annotations.NotThreadSafe;
 
 /**
@@ -58,6 +59,11 @@ import net.jcip.annotations.NotThreadSafe;
  * For logging SLF4J with log level DEBUG is used; you can therefore disable
  * performance logging by simply setting the log level for this class accordingly.
  *
+ * <p>
+ * Instances of this class must not be shared between threads; use {@link PerformanceTimer}, {@link #timedAsync(long, String, Supplier)}
+ * or {@link #timedFuture(long, String, Supplier)} for timing work that spans multiple threads.
+ * </p>
+ *
  * @since 2.0.0
  * @author Matthias Langer
  */
@@ -91,110 +97,246 @@ public class PerformanceLogger
      */
     public static final String DEFAULT_THRESHOLD_KEY = "defaultThreshold";
     
-    private static final class DefaultSettings
-    {
-        final Class<? extends PerformanceLogFormatter> formatterClass;
-        final long threshold;
-        
-        DefaultSettings(Class<? extends PerformanceLogFormatter> formatterClass, long threshold)
-        {
-            this.formatterClass = formatterClass;
-            this.threshold = threshold;
-        }
-    }
+    /**
+     * The property key that specifies the default {@link Mode}.
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String DEFAULT_MODE_KEY = "defaultMode";
     
-    private static volatile DefaultSettings defaultSettings;
-
-    private static final Logger log = LoggerFactory.getLogger(PerformanceLogger.class);
+    /**
+     * The property key that specifies the interval in seconds, in which summaries are written in {@link Mode#AGGREGATE}.
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String AGGREGATION_INTERVAL_KEY = "aggregationInterval";
     
-    private final Stopwatch stopwatch;
-    private final long threshold;
-    private final PerformanceLogFormatter logFormatter;
-    private StackTraceElement from;
+    /**
+     * The property key that specifies the capacity of the queue that is used for asynchronous logging.
+     * 
+     * <p>
+     *  If this value is greater than 0, measurements are only queued by the thread that calls {@link #logElapsed(String)},
+     *  and formatted and written by a background thread. The default is 0, which means that messages are written synchronously.
+     * </p>
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String ASYNC_QUEUE_CAPACITY_KEY = "asyncQueueCapacity";
     
-    static
+    /**
+     * The property key that specifies the {@link OverflowPolicy} for asynchronous logging.
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String ASYNC_OVERFLOW_POLICY_KEY = "asyncOverflowPolicy";
+    
+    /**
+     * The property key that specifies the sample rate for {@link OverflowPolicy#SAMPLE}.
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String ASYNC_SAMPLE_RATE_KEY = "asyncSampleRate";
+    
+    /**
+     * The property key that specifies the fraction of executions that should be timed, between 0 and 1 (defaults to 1).
+     * 
+     * @see PerformanceLogSampler
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String SAMPLING_RATE_KEY = "samplingRate";
+    
+    /**
+     * The property key that specifies the maximum number of executions per second that should be timed (defaults to 0, meaning unlimited).
+     * 
+     * <p>
+     *  The limit is enforced per class for loggers constructed with {@link #PerformanceLogger(Class)}, and for the block based API,
+     *  where it applies to the class of the block (so every lambda has its own limit). All other loggers that are constructed without
+     *  an explicit {@link PerformanceLogSampler} share one limit per package or class that overrides the sampling settings, and a single
+     *  limit for all remaining call sites.
+     * </p>
+     * 
+     * @see PerformanceLogSampler
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String SAMPLING_MAX_PER_SECOND_KEY = "samplingMaxPerSecond";
+    
+    /**
+     * The property key that specifies if measurements are taken at all (defaults to true).
+     * 
+     * <p>
+     *  Like {@link #DEFAULT_THRESHOLD_KEY}, this key is usually suffixed with a package or class name, to disable measurements
+     *  for parts of an application. Note that it is not possible to enable logging if DEBUG is disabled for this class.
+     * </p>
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String ENABLED_KEY = "enabled";
+    
+    /**
+     * The property key that specifies the interval in seconds, in which {@link #DEFAULT_SETTINGS_PATH} is checked for changes.
+     * 
+     * <p>
+     *  If this value is greater than 0, changes are picked up at runtime: for plain files, a {@link java.nio.file.WatchService}
+     *  is used, while files within JAR files are polled. The default is 0, which means that settings are only loaded once.
+     * </p>
+     * 
+     * @see #DEFAULT_SETTINGS_PATH
+     * @since 3.1.0
+     */
+    public static final String RELOAD_INTERVAL_KEY = "reloadInterval";
+    
+    /**
+     * Threshold value that stands for the default threshold, that applies to the call site.
+     */
+    static final long DEFAULT_THRESHOLD = Long.MIN_VALUE;
+    
+    /**
+     * Controls what happens with measurements.
+     * 
+     * @since 3.1.0
+     */
+    public static enum Mode
     {
-       reloadDefaults();
+        /**
+         * Every measurement that is above the threshold is logged (the default).
+         */
+        LOG,
+        
+        /**
+         * All measurements are recorded into {@link LatencyHistogram}s, one per {@link CallSite}. Summaries are 
+         * written periodically using the configured {@link PerformanceLogFormatter}, and can be obtained programmatically
+         * using {@link PerformanceLogger#histogramSnapshots()}. Thresholds do not apply in this mode.
+         */
+        AGGREGATE;
     }
     
     /**
-     * This method reloads the default settings from {@link #DEFAULT_SETTINGS_PATH}.
+     * Controls what happens if the queue for asynchronous logging is full.
+     * 
+     * @see PerformanceLogger#ASYNC_QUEUE_CAPACITY_KEY
+     * @see PerformanceLogger#droppedLogEvents()
+     * @since 3.1.0
      */
-    static void reloadDefaults()
+    public static enum OverflowPolicy
     {
-        defaultSettings = loadDefaultSettings();
+        /**
+         * The message is dropped (the default).
+         */
+        DROP,
+        
+        /**
+         * The calling thread waits until there is space in the queue.
+         */
+        BLOCK,
+        
+        /**
+         * The calling thread waits for every n-th message that does not fit into the queue (see {@link PerformanceLogger#ASYNC_SAMPLE_RATE_KEY}),
+         * while all others are dropped.
+         */
+        SAMPLE;
     }
     
-    private static DefaultSettings loadDefaultSettings()
+    /**
+     * A pair of {@link StackTraceElement}s, that identifies where a measurement started and ended.
+     * 
+     * @since 3.1.0
+     */
+    @Immutable
+    public static final class CallSite
     {
-        Class<? extends PerformanceLogFormatter> logFormatterClass = null;
-        long threshold = 0;
+        private final StackTraceElement from;
+        private final StackTraceElement to;
         
-        try
+        CallSite(StackTraceElement from, StackTraceElement to)
         {
-            InputStream in = LocalResources.getStream(DEFAULT_SETTINGS_PATH);
-            try
-            {
-                Properties props = new Properties();
-                props.loadFromXML(in);
-                String formatterName = props.getProperty(DEFAULT_PERFORMANCE_LOG_FORMATTER_KEY);
-                logFormatterClass = loadFormatterClass(formatterName);
-                
-                String thresholdString = props.getProperty(DEFAULT_THRESHOLD_KEY);
-                if(StringUtils.isNotEmpty(thresholdString))
-                {
-                    try
-                    {
-                        threshold = Long.parseLong(thresholdString);
-                    }
-                    catch(NumberFormatException e)
-                    {
-                        log.warn("Not a legal default threshold value: '" + thresholdString + "'.", e);
-                    }
-                }
-            }
-            finally
-            {
-                IOUtils.closeQuietly(in);
-            }
+            this.from = from;
+            this.to = to;
         }
-        catch(FileNotFoundException e)
+        
+        /**
+         * @return where the measurement started (can be null in theory).
+         */
+        public StackTraceElement getFrom()
         {
-            // OK!
+            return from;
         }
-        catch(IOException e)
+        
+        /**
+         * @return where the measurement ended (can be null in theory).
+         */
+        public StackTraceElement getTo()
         {
-            log.warn("Error reading " + DEFAULT_SETTINGS_PATH + ".", e);
+            return to;
         }
         
-        if(logFormatterClass == null)
-            logFormatterClass = DefaultPerformanceLogFormatter.class;
-        
-        return new DefaultSettings(logFormatterClass, threshold);
-    }
-
-    private static Class<? extends PerformanceLogFormatter> loadFormatterClass(String name)
-    {
-        if(StringUtils.isEmpty(name))
-            return DefaultPerformanceLogFormatter.class;
-        
-        Class<? extends PerformanceLogFormatter> ret;
-        try
+        @Override
+        public int hashCode()
         {
-            ret = Classes.forName(name, PerformanceLogFormatter.class);
+            return 31 * Objects.hashCode(from) + Objects.hashCode(to);
         }
-        catch(ClassCastException e)
+        
+        @Override
+        public boolean equals(Object obj)
         {
-            log.warn(e.getMessage());
-            ret = DefaultPerformanceLogFormatter.class;
+            if(this == obj)
+                return true;
+            if(!(obj instanceof CallSite))
+                return false;
+            
+            CallSite other = (CallSite) obj;
+            return Objects.equals(from, other.from) && Objects.equals(to, other.to);
         }
-        catch(ClassNotFoundException e)
+        
+        @Override
+        public String toString()
         {
-            log.warn("Could not load default performance log formatter '" + name + "'.");
-            ret = DefaultPerformanceLogFormatter.class;
+            return from + " -> " + to;
         }
-        
-        return ret;
+    }
+    
+    private static final Logger log = LoggerFactory.getLogger(PerformanceLogger.class);
+    
+    private static volatile PerformanceLoggerSettings settings;
+    
+    private final PerformanceLoggerSettings loggerSettings;
+    private final PerformanceLoggerSettings.Scope scope;
+    private final long thresholdNanos;
+    private final PerformanceLogFormatter logFormatter;
+    private final PerformanceLogSampler sampler;
+    private LazyStackTraceElement from;
+    private long startNanos;
+    private long weight;
+    
+    static
+    {
+       reloadDefaults();
+    }
+    
+    /**
+     * This method reloads the default settings from {@link #DEFAULT_SETTINGS_PATH}.
+     * 
+     * <p>
+     *  The new settings are applied atomically, but only to loggers that are created afterwards. Note that this method is called
+     *  automatically if {@link #RELOAD_INTERVAL_KEY} is set.
+     * </p>
+     * 
+     * @since 3.1.0
+     */
+    public static synchronized void reloadDefaults()
+    {
+        PerformanceLoggerSettings newSettings = PerformanceLoggerSettings.load();
+        settings = newSettings;
+        PerformanceHistograms.schedule(newSettings.usesMode(Mode.AGGREGATE), newSettings.aggregationIntervalSecs);
+        AsyncPerformanceLogSink.configure(newSettings.asyncQueueCapacity, newSettings.asyncOverflowPolicy, newSettings.asyncSampleRate);
+        PerformanceLoggerSettingsWatcher.configure(newSettings.reloadIntervalSecs);
     }
     
     /**
@@ -202,7 +344,7 @@ public class PerformanceLogger
      */
     public PerformanceLogger()
     {
-        this(defaultSettings.threshold);
+        this(DEFAULT_THRESHOLD, TimeUnit.NANOSECONDS, null, null);
     }
     
     /**
@@ -212,7 +354,7 @@ public class PerformanceLogger
      */
     public PerformanceLogger(long threshold)
     {
-       this(threshold, getLogFormatter(null));
+       this(threshold, TimeUnit.MILLISECONDS, null, null);
     }
     
     /**
@@ -223,7 +365,7 @@ public class PerformanceLogger
      */
     public PerformanceLogger(PerformanceLogFormatter logFormatter)
     {
-        this(defaultSettings.threshold, logFormatter);
+        this(DEFAULT_THRESHOLD, TimeUnit.NANOSECONDS, logFormatter, null);
     }
     
     /**
@@ -235,40 +377,142 @@ public class PerformanceLogger
      */
     public PerformanceLogger(long threshold, PerformanceLogFormatter logFormatter)
     {
-        this.threshold = threshold;
-        this.logFormatter = getLogFormatter(logFormatter);
-
-        if (log.isDebugEnabled())
+        this(threshold, TimeUnit.MILLISECONDS, logFormatter);
+    }
+    
+    /**
+     * Constructs a new {@link PerformanceLogger} with a default {@link PerformanceLogFormatter} implementation.
+     * 
+     * @param threshold the threshold for which the logger should generate any output.
+     * @since 3.1.0
+     */
+    public PerformanceLogger(Duration threshold)
+    {
+        this(threshold.toNanos(), TimeUnit.NANOSECONDS, null);
+    }
+    
+    /**
+     * Constructs a new {@link PerformanceLogger} with a default {@link PerformanceLogFormatter} implementation.
+     * 
+     * @param threshold the threshold for which the logger should generate any output.
+     * @param unit the {@link TimeUnit} of the given threshold.
+     * @since 3.1.0
+     */
+    public PerformanceLogger(long threshold, TimeUnit unit)
+    {
+        this(threshold, unit, null);
+    }
+    
+    /**
+     * Constructs a new {@link PerformanceLogger}.
+     * 
+     * @param threshold the threshold for which the logger should generate any output.
+     * @param unit the {@link TimeUnit} of the given threshold.
+     * @param logFormatter optional {@link PerformanceLogFormatter}.
+     * @since 3.1.0
+     */
+    public PerformanceLogger(long threshold, TimeUnit unit, PerformanceLogFormatter logFormatter)
+    {
+        this(threshold, unit, logFormatter, null);
+    }
+    
+    /**
+     * Constructs a new {@link PerformanceLogger}.
+     * 
+     * <p>
+     *  The given {@link PerformanceLogSampler} is consulted by the constructor and by {@link #restart()}; if it decides
+     *  against sampling, neither the call site nor the time is captured, and nothing is logged.
+     * </p>
+     * 
+     * @param threshold the threshold for which the logger should generate any output.
+     * @param unit the {@link TimeUnit} of the given threshold.
+     * @param logFormatter optional {@link PerformanceLogFormatter}.
+     * @param sampler optional {@link PerformanceLogSampler}; if null, a sampler configured by {@link #SAMPLING_RATE_KEY}
+     *  and {@link #SAMPLING_MAX_PER_SECOND_KEY} is used, that is shared by all loggers constructed this way. Package or class
+     *  specific sampling settings are applied when the elapsed time is logged, since the call site is not known before.
+     * @since 3.1.0
+     */
+    public PerformanceLogger(long threshold, TimeUnit unit, PerformanceLogFormatter logFormatter, PerformanceLogSampler sampler)
+    {
+        this(settings, null, unit.toNanos(threshold), logFormatter, sampler);
+    }
+    
+    /**
+     * Constructs a new {@link PerformanceLogger} with the default settings for the given class.
+     * 
+     * <p>
+     *  Package and class specific settings usually apply to the class in which a measurement started, which is only known after
+     *  capturing the call site. Loggers constructed using this constructor use the settings of the given class instead, which are
+     *  resolved once per class; thus, if measurements are disabled for that class (see {@link #ENABLED_KEY}), this logger does
+     *  no work at all. The block based API, like {@link #timedExec(Runnable)}, uses the settings of the class that
+     *  contains the block in the same way.
+     * </p>
+     * 
+     * @param owner the class that uses this logger (typically {@code getClass()}).
+     * @since 3.1.0
+     */
+    public PerformanceLogger(Class<?> owner)
+    {
+        this(settings, owner, DEFAULT_THRESHOLD, null, null);
+    }
+    
+    private PerformanceLogger(PerformanceLoggerSettings loggerSettings, Class<?> owner, long thresholdNanos, PerformanceLogFormatter logFormatter, PerformanceLogSampler sampler)
+    {
+        this.loggerSettings = loggerSettings;
+        this.thresholdNanos = thresholdNanos;
+        this.logFormatter = logFormatter;
+        if(owner != null)
         {
-            this.from = StackTrace.firstElementBelowClass();
-            this.stopwatch = Stopwatch.createStarted();
+            this.scope = loggerSettings.scopeFor(owner);
+            this.sampler = (sampler != null) ? sampler : loggerSettings.samplerFor(owner);
         }
         else
         {
-            this.from = null;
-            this.stopwatch = Stopwatch.createUnstarted();
+            this.scope = loggerSettings.hasOverrides() ? null : loggerSettings.root;
+            this.sampler = (sampler != null) ? sampler : loggerSettings.rootSampler;
         }
+        start();
     }
     
-    private static PerformanceLogFormatter getLogFormatter(PerformanceLogFormatter logFormatter)
+    private void start()
     {
-        if(logFormatter != null)
-            return logFormatter;
-        return defaultPerformanceLogFormatter();
-    }
-
-    private static PerformanceLogFormatter defaultPerformanceLogFormatter()
-    {
-        Class<? extends PerformanceLogFormatter> clazz = defaultSettings.formatterClass;
-        try
+        weight = (log.isDebugEnabled() && (scope == null || scope.enabled())) ? sampler.sample() : 0;
+        if(weight == 0)
         {
-            return clazz.newInstance();
-        }
-        catch(Exception e)
-        {
-            log.warn("Cannot create a new instance of " + clazz.getName() + ".", e);
-            return new DefaultPerformanceLogFormatter();
+            from = null;
+            return;
         }
+        
+        from = StackTrace.captureFirstElementBelowClass();
+        startNanos = System.nanoTime();
+    }
+    
+    static boolean isEnabled()
+    {
+        return log.isDebugEnabled();
+    }
+    
+    /**
+     * Returns the current settings, which are replaced as a whole when they are reloaded.
+     */
+    static PerformanceLoggerSettings settings()
+    {
+        return settings;
+    }
+    
+    /**
+     * Decides if the given block should be timed, according to the settings of the class that contains it.
+     * 
+     * @return the weight of the sample, or 0 if the block should not be timed.
+     */
+    private static long sampleBlock(Object block)
+    {
+        if(!isEnabled())
+            return 0;
+        
+        PerformanceLoggerSettings currentSettings = settings;
+        Class<?> clazz = block.getClass();
+        return currentSettings.scopeFor(clazz).enabled() ? currentSettings.samplerFor(clazz).sample() : 0;
     }
 
     /**
@@ -294,14 +538,76 @@ public class PerformanceLogger
      */
     public void logElapsed(String msg)
     {
-        if(!log.isDebugEnabled() || !stopwatch.isRunning())
+        if(weight == 0 || !log.isDebugEnabled())
+            return;
+        
+        long nanos = System.nanoTime() - startNanos;
+        if(this.scope == null && !loggerSettings.aggregating)
+        {
+            /*
+             * Resolving the scope requires resolving the call site, which is not worth it if no scope would log this measurement anyway.
+             */
+            long minThresholdNanos = (thresholdNanos == DEFAULT_THRESHOLD) ? loggerSettings.minThresholdNanos : thresholdNanos;
+            if(nanos < minThresholdNanos)
+                return;
+        }
+        
+        PerformanceLoggerSettings.Scope scope = (this.scope != null) ? this.scope : loggerSettings.scopeFor(from);
+        if(!scope.enabled())
+            return;
+        
+        long threshold = (thresholdNanos == DEFAULT_THRESHOLD) ? scope.thresholdNanos() : thresholdNanos;
+        if(scope.mode() == Mode.AGGREGATE || nanos >= threshold)
+        {
+            long weight = this.weight;
+            PerformanceLogSampler callSiteSampler = (sampler == loggerSettings.rootSampler) ? loggerSettings.callSiteSamplerFor(scope) : null;
+            if(callSiteSampler != null)
+            {
+                long callSiteWeight = callSiteSampler.sample();
+                if(callSiteWeight == 0)
+                    return;
+                weight *= callSiteWeight;
+            }
+            
+            PerformanceLogFormatter formatter = (logFormatter != null) ? logFormatter : scope.formatter();
+            write(from, StackTrace.captureFirstElementBelowClass(), nanos, weight, scope.mode(), formatter, msg);
+        }
+    }
+    
+    /**
+     * Writes a measurement that has already passed the threshold check, according to the given {@link Mode}.
+     * The weight is the number of executions the measurement stands for (see {@link PerformanceLogSampler#sample()}).
+     */
+    static void write(LazyStackTraceElement from, LazyStackTraceElement to, long nanos, long weight, Mode mode, PerformanceLogFormatter formatter, String msg)
+    {
+        if(mode == Mode.AGGREGATE)
+        {
+            PerformanceHistograms.record(from, to, nanos, weight, formatter);
             return;
+        }
         
-        long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
-        if(elapsed >= threshold)
+        AsyncPerformanceLogSink sink = AsyncPerformanceLogSink.current();
+        if(sink != null)
+            sink.submit(from, to, nanos, msg, formatter);
+        else
+            log.debug(formatLogMessage(formatter, from.get(), to.get(), nanos, msg));
+    }
+    
+    private static String formatLogMessage(PerformanceLogFormatter formatter, StackTraceElement from, StackTraceElement to, long nanos, String msg)
+    {
+        StringBuilder sb = ThreadLocalStringBuilders.acquire();
+        try
+        {
+            formatter.formatNanosTo(sb, from, to, nanos, msg);
+            return sb.toString();
+        }
+        catch(IOException e)
         {
-            StackTraceElement to = StackTrace.firstElementBelowClass();
-            log.debug(logFormatter.format(from, to, elapsed, msg));
+            throw new AssertionError("Should be impossible.", e);
+        }
+        finally
+        {
+            ThreadLocalStringBuilders.release(sb);
         }
     }
     
@@ -324,10 +630,68 @@ public class PerformanceLogger
         if(!log.isDebugEnabled())
             return;
         
-        from = StackTrace.firstElementBelowClass();
-        stopwatch.reset().start();
+        start();
+    }
+    
+    /**
+     * Tells if the current measurement is timed at all; if not, {@link #logElapsed(String)} does nothing, so callers can skip
+     * building expensive messages.
+     * 
+     * @return false if the current measurement has not been sampled (see {@link PerformanceLogSampler}), or if logging is disabled.
+     * @since 3.1.0
+     */
+    public boolean isSampled()
+    {
+        return weight != 0 && log.isDebugEnabled();
+    }
+
+    /**
+     * Returns snapshots of all {@link LatencyHistogram}s that have been recorded in {@link Mode#AGGREGATE}.
+     * 
+     * <p>
+     *  Call sites that did not see any measurements between two periodic summaries are dropped when the
+     *  second summary is written.
+     * </p>
+     * 
+     * @return an unmodifiable map from {@link CallSite}s to {@link LatencyHistogram.Snapshot}s.
+     * @since 3.1.0
+     */
+    public static Map<CallSite, LatencyHistogram.Snapshot> histogramSnapshots()
+    {
+        return PerformanceHistograms.snapshots();
+    }
+    
+    /**
+     * Resets all {@link LatencyHistogram}s that have been recorded in {@link Mode#AGGREGATE}.
+     * 
+     * @since 3.1.0
+     */
+    public static void resetHistograms()
+    {
+        PerformanceHistograms.reset();
+    }
+
+    /**
+     * Returns the number of messages that have been dropped because the queue for asynchronous logging was full.
+     * 
+     * @return the number of dropped messages since the class has been loaded.
+     * @see #ASYNC_QUEUE_CAPACITY_KEY
+     * @since 3.1.0
+     */
+    public static long droppedLogEvents()
+    {
+        return AsyncPerformanceLogSink.droppedEvents();
     }
 
+    /**
+     * Creates a logger for timing the given block, that uses the settings and a sampler that are specific to the class of the block.
+     * For lambdas, this means one sampler per call site.
+     */
+    private static PerformanceLogger forBlock(long threshold, TimeUnit unit, Object block)
+    {
+        return new PerformanceLogger(settings, block.getClass(), unit.toNanos(threshold), null, null);
+    }
+    
     /**
      * Executes the given block and logs its execution time.
      * 
@@ -338,19 +702,32 @@ public class PerformanceLogger
      */
     public static <T> T timedExec(long threshold, String msg, Supplier<T> block)
     {
-    	PerformanceLogger plog = new PerformanceLogger(threshold);
+    	PerformanceLogger plog = forBlock(threshold, TimeUnit.MILLISECONDS, block);
     	T res = block.get();
     	plog.logElapsed(msg);
     	return res;
     }
 
 
+    /**
+     * See {@link #timedExec(long, String, Supplier)}.
+     * 
+     * @since 3.1.0
+     */
+    public static <T> T timedExec(Duration threshold, String msg, Supplier<T> block)
+    {
+        PerformanceLogger plog = forBlock(threshold.toNanos(), TimeUnit.NANOSECONDS, block);
+        T res = block.get();
+        plog.logElapsed(msg);
+        return res;
+    }
+
     /**
      * See {@link #timedExec(long, String, Runnable)} 
      */
     public static <T> T timedExec(String msg, Supplier<T> block)
     {
-    	return timedExec(defaultSettings.threshold, msg, block);
+    	return timedExec(DEFAULT_THRESHOLD, msg, block);
     }
 
     /**
@@ -366,7 +743,7 @@ public class PerformanceLogger
      */
     public static <T> T timedExec(Supplier<T> block)
     {
-    	return timedExec(defaultSettings.threshold, null, block);
+    	return timedExec(DEFAULT_THRESHOLD, null, block);
     }
     
     /**
@@ -374,11 +751,23 @@ public class PerformanceLogger
      */
     public static void timedExec(long threshold, String msg, Runnable block)
     {
-    	PerformanceLogger plog = new PerformanceLogger(threshold);
+    	PerformanceLogger plog = forBlock(threshold, TimeUnit.MILLISECONDS, block);
     	block.run();
     	plog.logElapsed(msg);
     }
 
+    /**
+     * See {@link #timedExec(long, String, Runnable)}.
+     * 
+     * @since 3.1.0
+     */
+    public static void timedExec(Duration threshold, String msg, Runnable block)
+    {
+        PerformanceLogger plog = forBlock(threshold.toNanos(), TimeUnit.NANOSECONDS, block);
+        block.run();
+        plog.logElapsed(msg);
+    }
+
     /**
      * See {@link #timedExec(long, String, Runnable)} 
      */
@@ -392,7 +781,7 @@ public class PerformanceLogger
      */
     public static void timedExec(String msg, Runnable block)
     {
-    	timedExec(defaultSettings.threshold, msg, block);
+    	timedExec(DEFAULT_THRESHOLD, msg, block);
     }
     
     /**
@@ -402,4 +791,127 @@ public class PerformanceLogger
     {
     	timedExec(null, block);
     }
+    
+    /**
+     * Like {@link #timedExec(long, String, Supplier)}, but for a {@link Callable}.
+     * 
+     * <p>
+     *  This method is not an overload of {@code timedExec}, because lambdas like {@code () -> 42} would be ambiguous otherwise.
+     * </p>
+     * 
+     * @param threshold the threshold in ms for with the logger should generate any output.
+     * @param msg an optional message.
+     * @param block the block to execute.
+     * @return the return value of the block.
+     * @throws Exception if thrown by the block.
+     * @since 3.1.0
+     */
+    public static <T> T timedCall(long threshold, String msg, Callable<T> block) throws Exception
+    {
+        PerformanceLogger plog = forBlock(threshold, TimeUnit.MILLISECONDS, block);
+        T res = block.call();
+        plog.logElapsed(msg);
+        return res;
+    }
+    
+    /**
+     * See {@link #timedCall(long, String, Callable)}.
+     * 
+     * @since 3.1.0
+     */
+    public static <T> T timedCall(String msg, Callable<T> block) throws Exception
+    {
+        return timedCall(DEFAULT_THRESHOLD, msg, block);
+    }
+    
+    /**
+     * See {@link #timedCall(long, String, Callable)}.
+     * 
+     * @since 3.1.0
+     */
+    public static <T> T timedCall(Callable<T> block) throws Exception
+    {
+        return timedCall(DEFAULT_THRESHOLD, null, block);
+    }
+    
+    /**
+     * Starts an asynchronous operation and logs the time until its {@link CompletionStage} completes, normally or exceptionally.
+     * 
+     * <p>
+     *  The returned stage is the one that has been returned by the given block. Since completion is usually observed on another thread,
+     *  the call site of this method is logged as both, start and end of the measurement.
+     * </p>
+     * 
+     * @param threshold the threshold in ms for with the logger should generate any output.
+     * @param msg an optional message.
+     * @param block starts the asynchronous operation.
+     * @return the return value of the block.
+     * @since 3.1.0
+     */
+    public static <S extends CompletionStage<?>> S timedAsync(long threshold, String msg, Supplier<S> block)
+    {
+        long weight = sampleBlock(block);
+        if(weight == 0)
+            return block.get();
+        
+        LazyStackTraceElement callSite = StackTrace.captureFirstElementBelowClass();
+        PerformanceTimer timer = PerformanceTimer.start(callSite, weight);
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+        S stage = block.get();
+        stage.whenComplete((res, th) -> timer.stop(thresholdNanos, msg, callSite));
+        return stage;
+    }
+    
+    /**
+     * See {@link #timedAsync(long, String, Supplier)}.
+     * 
+     * @since 3.1.0
+     */
+    public static <S extends CompletionStage<?>> S timedAsync(String msg, Supplier<S> block)
+    {
+        return timedAsync(DEFAULT_THRESHOLD, msg, block);
+    }
+    
+    /**
+     * Starts an asynchronous operation and logs the time until its {@link Future} is done.
+     * 
+     * <p>
+     *  If the returned {@link Future} is also a {@link CompletionStage}, this method behaves exactly like {@link #timedAsync(long, String, Supplier)}.
+     *  Otherwise, the {@link Future} is wrapped, and the elapsed time is logged as soon as it is observed to be done, that is
+     *  when {@link Future#get()} returns or {@link Future#isDone()} returns true for the first time.
+     * </p>
+     * 
+     * @param threshold the threshold in ms for with the logger should generate any output.
+     * @param msg an optional message.
+     * @param block starts the asynchronous operation.
+     * @return a {@link Future} for the result of the block.
+     * @since 3.1.0
+     */
+    public static <T> Future<T> timedFuture(long threshold, String msg, Supplier<? extends Future<T>> block)
+    {
+        long weight = sampleBlock(block);
+        if(weight == 0)
+            return block.get();
+        
+        LazyStackTraceElement callSite = StackTrace.captureFirstElementBelowClass();
+        PerformanceTimer timer = PerformanceTimer.start(callSite, weight);
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+        Future<T> future = block.get();
+        if(future instanceof CompletionStage)
+        {
+            ((CompletionStage<?>) future).whenComplete((res, th) -> timer.stop(thresholdNanos, msg, callSite));
+            return future;
+        }
+        return new TimedFuture<T>(future, () -> timer.stop(thresholdNanos, msg, callSite));
+    }
+    
+    /**
+     * See {@link #timedFuture(long, String, Supplier)}.
+     * 
+     * @since 3.1.0
+     */
+    public static <T> Future<T> timedFuture(String msg, Supplier<? extends Future<T>> block)
+    {
+        return timedFuture(DEFAULT_THRESHOLD, msg, block);
+    }
 }
@@ -0,0 +1,577 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static at.ipsquare.commons.core.util.PerformanceLogger.AGGREGATION_INTERVAL_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.ASYNC_OVERFLOW_POLICY_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.ASYNC_QUEUE_CAPACITY_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.ASYNC_SAMPLE_RATE_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.DEFAULT_MODE_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.DEFAULT_PERFORMANCE_LOG_FORMATTER_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.DEFAULT_SETTINGS_PATH;
+import static at.ipsquare.commons.core.util.PerformanceLogger.DEFAULT_THRESHOLD_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.ENABLED_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.RELOAD_INTERVAL_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.SAMPLING_MAX_PER_SECOND_KEY;
+import static at.ipsquare.commons.core.util.PerformanceLogger.SAMPLING_RATE_KEY;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ipsquare.commons.core.util.PerformanceLogger.Mode;
+import at.ipsquare.commons.core.util.PerformanceLogger.OverflowPolicy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The settings of {@link PerformanceLogger}, as loaded from {@link PerformanceLogger#DEFAULT_SETTINGS_PATH}.
+ * 
+ * <p>
+ *  The keys {@link PerformanceLogger#DEFAULT_PERFORMANCE_LOG_FORMATTER_KEY}, {@link PerformanceLogger#DEFAULT_THRESHOLD_KEY},
+ *  {@link PerformanceLogger#DEFAULT_MODE_KEY}, {@link PerformanceLogger#ENABLED_KEY}, {@link PerformanceLogger#SAMPLING_RATE_KEY}
+ *  and {@link PerformanceLogger#SAMPLING_MAX_PER_SECOND_KEY} can be suffixed with a package or class name, like
+ *  {@code defaultThreshold.com.acme.dao}, to override them for code in that package or class. Overrides inherit all values they
+ *  do not specify from the next enclosing package, or from the global settings. Resolved scopes are cached per class.
+ * </p>
+ * 
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class PerformanceLoggerSettings
+{
+    private static final Logger log = LoggerFactory.getLogger(PerformanceLogger.class);
+    
+    private static final PerformanceLogFormatter DEFAULT_FORMATTER = new DefaultPerformanceLogFormatter();
+    private static final long DEFAULT_AGGREGATION_INTERVAL_SECS = 60;
+    private static final long DEFAULT_ASYNC_SAMPLE_RATE = 100;
+    private static final String[] OVERRIDABLE_KEYS = {
+        DEFAULT_PERFORMANCE_LOG_FORMATTER_KEY, DEFAULT_THRESHOLD_KEY, DEFAULT_MODE_KEY, ENABLED_KEY, SAMPLING_RATE_KEY, SAMPLING_MAX_PER_SECOND_KEY
+    };
+    
+    /**
+     * The settings that apply to a package or class.
+     */
+    @Immutable
+    static final class Scope
+    {
+        private final Supplier<PerformanceLogFormatter> formatters;
+        private final long thresholdNanos;
+        private final Mode mode;
+        private final boolean enabled;
+        private final double samplingRate;
+        private final long samplingMaxPerSecond;
+        private final Scope samplingScope;
+        
+        /**
+         * @param samplingParent the enclosing scope, if this scope inherits its sampling settings; null if it defines them itself.
+         */
+        Scope(Supplier<PerformanceLogFormatter> formatters, long thresholdNanos, Mode mode, boolean enabled, Scope samplingParent)
+        {
+            this(formatters, thresholdNanos, mode, enabled, samplingParent.samplingRate, samplingParent.samplingMaxPerSecond, samplingParent.samplingScope);
+        }
+        
+        Scope(Supplier<PerformanceLogFormatter> formatters, long thresholdNanos, Mode mode, boolean enabled, double samplingRate, long samplingMaxPerSecond)
+        {
+            this(formatters, thresholdNanos, mode, enabled, samplingRate, samplingMaxPerSecond, null);
+        }
+        
+        private Scope(Supplier<PerformanceLogFormatter> formatters, long thresholdNanos, Mode mode, boolean enabled, double samplingRate, long samplingMaxPerSecond,
+                Scope samplingScope)
+        {
+            this.formatters = formatters;
+            this.thresholdNanos = thresholdNanos;
+            this.mode = mode;
+            this.enabled = enabled;
+            this.samplingRate = samplingRate;
+            this.samplingMaxPerSecond = samplingMaxPerSecond;
+            this.samplingScope = (samplingScope != null) ? samplingScope : this;
+        }
+        
+        PerformanceLogFormatter formatter()
+        {
+            try
+            {
+                return formatters.get();
+            }
+            catch(RuntimeException e)
+            {
+                log.warn("Cannot obtain the default performance log formatter.", e);
+                return DEFAULT_FORMATTER;
+            }
+        }
+        
+        long thresholdNanos()
+        {
+            return thresholdNanos;
+        }
+        
+        Mode mode()
+        {
+            return mode;
+        }
+        
+        boolean enabled()
+        {
+            return enabled;
+        }
+        
+        PerformanceLogSampler newSampler()
+        {
+            return PerformanceLogSampler.of(samplingRate, samplingMaxPerSecond);
+        }
+    }
+    
+    final Scope root;
+    
+    /**
+     * The sampler for loggers that are neither constructed with an owner class nor with a {@link PerformanceLogSampler}. If packages or classes
+     * override the sampling settings, it samples at the highest rate of all enabled scopes, and {@link #callSiteSamplerFor(Scope)} refines its decision
+     * once the call site is known.
+     */
+    final PerformanceLogSampler rootSampler;
+    
+    /**
+     * The lowest threshold of all enabled scopes; measurements below this threshold are never logged,
+     * unless {@link #aggregating} is set.
+     */
+    final long minThresholdNanos;
+    
+    /**
+     * True if any enabled scope uses {@link Mode#AGGREGATE}.
+     */
+    final boolean aggregating;
+    final long aggregationIntervalSecs;
+    final int asyncQueueCapacity;
+    final OverflowPolicy asyncOverflowPolicy;
+    final int asyncSampleRate;
+    final long reloadIntervalSecs;
+    private final Map<String, Scope> overrides;
+    private final Map<Scope, PerformanceLogSampler> callSiteSamplers;
+    private final ConcurrentMap<String, Scope> scopesByClassName = new ConcurrentHashMap<>();
+    private final ClassValue<Scope> scopesByClass = new ClassValue<Scope>()
+    {
+        @Override
+        protected Scope computeValue(Class<?> type)
+        {
+            return scopeFor(type.getName());
+        }
+    };
+    private final ClassValue<PerformanceLogSampler> samplers = new ClassValue<PerformanceLogSampler>()
+    {
+        @Override
+        protected PerformanceLogSampler computeValue(Class<?> type)
+        {
+            return scopeFor(type).newSampler();
+        }
+    };
+    
+    private PerformanceLoggerSettings(Scope root, Map<String, Scope> overrides, long aggregationIntervalSecs, int asyncQueueCapacity,
+            OverflowPolicy asyncOverflowPolicy, int asyncSampleRate, long reloadIntervalSecs)
+    {
+        this.root = root;
+        this.overrides = overrides;
+        
+        long minThresholdNanos = Long.MAX_VALUE;
+        boolean aggregating = false;
+        double maxSamplingRate = 0;
+        Set<Scope> samplingScopes = Collections.newSetFromMap(new IdentityHashMap<Scope, Boolean>());
+        List<Scope> scopes = new ArrayList<>(overrides.values());
+        scopes.add(root);
+        for(Scope scope : scopes)
+        {
+            if(!scope.enabled)
+                continue;
+            
+            minThresholdNanos = Math.min(minThresholdNanos, scope.thresholdNanos);
+            aggregating |= (scope.mode == Mode.AGGREGATE);
+            maxSamplingRate = Math.max(maxSamplingRate, scope.samplingRate);
+            samplingScopes.add(scope.samplingScope);
+        }
+        
+        if(samplingScopes.isEmpty() || (samplingScopes.size() == 1 && samplingScopes.contains(root)))
+        {
+            this.rootSampler = root.newSampler();
+            this.callSiteSamplers = Collections.emptyMap();
+        }
+        else
+        {
+            /*
+             * The scope of a plain logger is only known after the measurement, so sample at the highest rate that any scope asks for up front,
+             * and sample again with the remaining rate and the limit of the scope that applies:
+             */
+            this.rootSampler = PerformanceLogSampler.of(maxSamplingRate, 0);
+            this.callSiteSamplers = new IdentityHashMap<>();
+            for(Scope scope : samplingScopes)
+            {
+                double rate = (maxSamplingRate > 0) ? scope.samplingRate / maxSamplingRate : 0;
+                callSiteSamplers.put(scope, PerformanceLogSampler.of(rate, scope.samplingMaxPerSecond));
+            }
+        }
+        this.minThresholdNanos = minThresholdNanos;
+        this.aggregating = aggregating;
+        this.aggregationIntervalSecs = aggregationIntervalSecs;
+        this.asyncQueueCapacity = asyncQueueCapacity;
+        this.asyncOverflowPolicy = asyncOverflowPolicy;
+        this.asyncSampleRate = asyncSampleRate;
+        this.reloadIntervalSecs = reloadIntervalSecs;
+    }
+    
+    /**
+     * Returns the sampler that decides if a measurement of a plain logger (see {@link #rootSampler}), that has been sampled already,
+     * is kept now that its scope is known; rate limits apply per package or class that overrides the sampling settings.
+     * 
+     * @return null if the decision of the {@link #rootSampler} is final.
+     */
+    PerformanceLogSampler callSiteSamplerFor(Scope scope)
+    {
+        return callSiteSamplers.isEmpty() ? null : callSiteSamplers.get(scope.samplingScope);
+    }
+    
+    /**
+     * @return true if there are any package or class specific overrides.
+     */
+    boolean hasOverrides()
+    {
+        return !overrides.isEmpty();
+    }
+    
+    /**
+     * Returns the settings for the given call site. Call sites are only resolved if there are any overrides.
+     */
+    Scope scopeFor(LazyStackTraceElement callSite)
+    {
+        if(overrides.isEmpty() || callSite == null)
+            return root;
+        
+        StackTraceElement elem = callSite.get();
+        return (elem == null) ? root : scopeFor(elem.getClassName());
+    }
+    
+    /**
+     * Returns the settings for the given class name, which are the settings of the class itself, or of the next enclosing
+     * class or package that has any overrides.
+     */
+    Scope scopeFor(String className)
+    {
+        if(overrides.isEmpty())
+            return root;
+        
+        Scope ret = scopesByClassName.get(className);
+        if(ret == null)
+            ret = scopesByClassName.computeIfAbsent(className, name -> lookup(overrides, name, root));
+        return ret;
+    }
+    
+    /**
+     * Returns the settings for the given class. For lambdas and anonymous classes, these are the settings of the enclosing class.
+     */
+    Scope scopeFor(Class<?> clazz)
+    {
+        return overrides.isEmpty() ? root : scopesByClass.get(clazz);
+    }
+    
+    /**
+     * Returns a {@link PerformanceLogSampler} for the given class, that is configured according to its scope; rate limits apply per class.
+     */
+    PerformanceLogSampler samplerFor(Class<?> clazz)
+    {
+        return samplers.get(clazz);
+    }
+    
+    /**
+     * @return true if any scope uses the given mode.
+     */
+    boolean usesMode(Mode mode)
+    {
+        if(root.mode == mode)
+            return true;
+        for(Scope scope : overrides.values())
+        {
+            if(scope.mode == mode)
+                return true;
+        }
+        return false;
+    }
+    
+    private static Scope lookup(Map<String, Scope> scopes, String name, Scope fallback)
+    {
+        String current = name;
+        while(true)
+        {
+            Scope scope = scopes.get(current);
+            if(scope != null)
+                return scope;
+            
+            int end = Math.max(current.lastIndexOf('.'), current.lastIndexOf('$'));
+            if(end < 0)
+                return fallback;
+            current = current.substring(0, end);
+        }
+    }
+    
+    /**
+     * Loads the settings from {@link PerformanceLogger#DEFAULT_SETTINGS_PATH}; problems are logged, and defaults used instead.
+     */
+    static PerformanceLoggerSettings load()
+    {
+        Properties props = new Properties();
+        try
+        {
+            InputStream in = LocalResources.getStream(DEFAULT_SETTINGS_PATH);
+            try
+            {
+                props.loadFromXML(in);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        catch(FileNotFoundException e)
+        {
+            // OK!
+        }
+        catch(IOException e)
+        {
+            log.warn("Error reading " + DEFAULT_SETTINGS_PATH + ".", e);
+            props = new Properties();
+        }
+        
+        return fromProperties(props);
+    }
+    
+    private static PerformanceLoggerSettings fromProperties(Properties props)
+    {
+        Scope root = new Scope(
+                formatterSupplier(loadFormatterClass(props.getProperty(DEFAULT_PERFORMANCE_LOG_FORMATTER_KEY))),
+                TimeUnit.MILLISECONDS.toNanos(parseLong(props, DEFAULT_THRESHOLD_KEY, "default threshold", 0)),
+                parseEnum(props, DEFAULT_MODE_KEY, "default mode", Mode.class, Mode.LOG),
+                parseBoolean(props, ENABLED_KEY, true),
+                parseSamplingRate(props, SAMPLING_RATE_KEY, 1),
+                parseSamplingMaxPerSecond(props, SAMPLING_MAX_PER_SECOND_KEY, 0));
+        
+        long aggregationIntervalSecs = parseLong(props, AGGREGATION_INTERVAL_KEY, "aggregation interval", DEFAULT_AGGREGATION_INTERVAL_SECS);
+        long asyncQueueCapacity = parseLong(props, ASYNC_QUEUE_CAPACITY_KEY, "async queue capacity", 0);
+        OverflowPolicy asyncOverflowPolicy = parseEnum(props, ASYNC_OVERFLOW_POLICY_KEY, "async overflow policy", OverflowPolicy.class, OverflowPolicy.DROP);
+        long asyncSampleRate = parseLong(props, ASYNC_SAMPLE_RATE_KEY, "async sample rate", DEFAULT_ASYNC_SAMPLE_RATE);
+        long reloadIntervalSecs = parseLong(props, RELOAD_INTERVAL_KEY, "reload interval", 0);
+        
+        if(asyncQueueCapacity > MpscRingBuffer.MAX_CAPACITY)
+        {
+            log.warn("Async queue capacity " + asyncQueueCapacity + " is too large; using " + MpscRingBuffer.MAX_CAPACITY + " instead.");
+            asyncQueueCapacity = MpscRingBuffer.MAX_CAPACITY;
+        }
+        
+        return new PerformanceLoggerSettings(root, loadOverrides(props, root), aggregationIntervalSecs, (int) asyncQueueCapacity, 
+                asyncOverflowPolicy, (int) Math.min(asyncSampleRate, Integer.MAX_VALUE), reloadIntervalSecs);
+    }
+    
+    private static Map<String, Scope> loadOverrides(Properties props, Scope root)
+    {
+        List<String> names = new ArrayList<>();
+        for(String key : props.stringPropertyNames())
+        {
+            String name = overriddenName(key);
+            if(name != null && !names.contains(name))
+                names.add(name);
+        }
+        
+        if(names.isEmpty())
+            return Collections.emptyMap();
+        
+        // Enclosing packages have shorter names, and must be created first:
+        names.sort(Comparator.comparingInt(String::length));
+        Map<String, Scope> ret = new HashMap<>();
+        for(String name : names)
+        {
+            Scope parent = lookup(ret, name, root);
+            String formatterName = props.getProperty(DEFAULT_PERFORMANCE_LOG_FORMATTER_KEY + "." + name);
+            Supplier<PerformanceLogFormatter> formatters = StringUtils.isEmpty(formatterName)
+                    ? parent.formatters : formatterSupplier(loadFormatterClass(formatterName));
+            
+            long threshold = parseLong(props, DEFAULT_THRESHOLD_KEY + "." + name, "default threshold", -1);
+            long thresholdNanos = (threshold < 0) ? parent.thresholdNanos : TimeUnit.MILLISECONDS.toNanos(threshold);
+            Mode mode = parseEnum(props, DEFAULT_MODE_KEY + "." + name, "default mode", Mode.class, parent.mode);
+            boolean enabled = parseBoolean(props, ENABLED_KEY + "." + name, parent.enabled);
+            if(props.containsKey(SAMPLING_RATE_KEY + "." + name) || props.containsKey(SAMPLING_MAX_PER_SECOND_KEY + "." + name))
+            {
+                double samplingRate = parseSamplingRate(props, SAMPLING_RATE_KEY + "." + name, parent.samplingRate);
+                long samplingMaxPerSecond = parseSamplingMaxPerSecond(props, SAMPLING_MAX_PER_SECOND_KEY + "." + name, parent.samplingMaxPerSecond);
+                ret.put(name, new Scope(formatters, thresholdNanos, mode, enabled, samplingRate, samplingMaxPerSecond));
+            }
+            else
+            {
+                ret.put(name, new Scope(formatters, thresholdNanos, mode, enabled, parent));
+            }
+        }
+        return ret;
+    }
+    
+    private static String overriddenName(String key)
+    {
+        for(String overridableKey : OVERRIDABLE_KEYS)
+        {
+            if(key.length() > overridableKey.length() + 1 && key.startsWith(overridableKey) && key.charAt(overridableKey.length()) == '.')
+                return key.substring(overridableKey.length() + 1);
+        }
+        return null;
+    }
+    
+    private static long parseLong(Properties props, String key, String description, long defaultValue)
+    {
+        String str = props.getProperty(key);
+        if(StringUtils.isEmpty(str))
+            return defaultValue;
+        
+        try
+        {
+            return Long.parseLong(str);
+        }
+        catch(NumberFormatException e)
+        {
+            log.warn("Not a legal " + description + " value: '" + str + "'.", e);
+            return defaultValue;
+        }
+    }
+    
+    private static boolean parseBoolean(Properties props, String key, boolean defaultValue)
+    {
+        String str = StringUtils.trim(props.getProperty(key));
+        if(StringUtils.isEmpty(str))
+            return defaultValue;
+        
+        if("true".equalsIgnoreCase(str))
+            return true;
+        if("false".equalsIgnoreCase(str))
+            return false;
+        
+        log.warn("Not a legal value for " + key + ": '" + str + "'.");
+        return defaultValue;
+    }
+    
+    private static double parseSamplingRate(Properties props, String key, double defaultValue)
+    {
+        double ret = parseDouble(props, key, "sampling rate", defaultValue);
+        if(!(ret >= 0 && ret <= 1))
+        {
+            log.warn("Sampling rate " + ret + " is not between 0 and 1; using " + defaultValue + " instead.");
+            return defaultValue;
+        }
+        return ret;
+    }
+    
+    private static long parseSamplingMaxPerSecond(Properties props, String key, long defaultValue)
+    {
+        long ret = parseLong(props, key, "maximum number of samples per second", defaultValue);
+        if(ret < 0)
+        {
+            log.warn("Maximum number of samples per second " + ret + " is negative; using " + defaultValue + " instead.");
+            return defaultValue;
+        }
+        return ret;
+    }
+    
+    private static double parseDouble(Properties props, String key, String description, double defaultValue)
+    {
+        String str = props.getProperty(key);
+        if(StringUtils.isEmpty(str))
+            return defaultValue;
+        
+        try
+        {
+            return Double.parseDouble(str);
+        }
+        catch(NumberFormatException e)
+        {
+            log.warn("Not a legal " + description + " value: '" + str + "'.", e);
+            return defaultValue;
+        }
+    }
+    
+    private static <E extends Enum<E>> E parseEnum(Properties props, String key, String description, Class<E> enumClass, E defaultValue)
+    {
+        String str = props.getProperty(key);
+        if(StringUtils.isEmpty(str))
+            return defaultValue;
+        
+        try
+        {
+            return Enum.valueOf(enumClass, str.trim().toUpperCase(Locale.ROOT));
+        }
+        catch(IllegalArgumentException e)
+        {
+            log.warn("Not a legal " + description + ": '" + str + "'.");
+            return defaultValue;
+        }
+    }
+    
+    private static Supplier<PerformanceLogFormatter> formatterSupplier(Class<? extends PerformanceLogFormatter> clazz)
+    {
+        try
+        {
+            return SharedInstances.supplierFor(clazz);
+        }
+        catch(ReflectiveOperationException | RuntimeException e)
+        {
+            log.warn("Cannot create a new instance of " + clazz.getName() + ".", e);
+            return () -> DEFAULT_FORMATTER;
+        }
+    }
+    
+    private static Class<? extends PerformanceLogFormatter> loadFormatterClass(String name)
+    {
+        if(StringUtils.isEmpty(name))
+            return DefaultPerformanceLogFormatter.class;
+        
+        Class<? extends PerformanceLogFormatter> ret;
+        try
+        {
+            ret = Classes.forName(name, PerformanceLogFormatter.class);
+        }
+        catch(ClassCastException e)
+        {
+            log.warn(e.getMessage());
+            ret = DefaultPerformanceLogFormatter.class;
+        }
+        catch(ClassNotFoundException e)
+        {
+            log.warn("Could not load default performance log formatter '" + name + "'.");
+            ret = DefaultPerformanceLogFormatter.class;
+        }
+        
+        return ret;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Watches {@link PerformanceLogger#DEFAULT_SETTINGS_PATH} for changes and calls {@link PerformanceLogger#reloadDefaults()}
+ * if the content of the file has changed.
+ * 
+ * <p>
+ *  Plain files are watched using a {@link WatchService} on their directory, that is queried at least once per interval, while
+ *  files within JAR files are polled. Changed files are only applied if they can be parsed, so that half written files are skipped.
+ *  Note that settings files that do not exist when the settings are loaded cannot be watched.
+ * </p>
+ * 
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class PerformanceLoggerSettingsWatcher implements Runnable
+{
+    private static final Logger log = LoggerFactory.getLogger(PerformanceLogger.class);
+    
+    @GuardedBy("PerformanceLoggerSettingsWatcher.class")
+    private static PerformanceLoggerSettingsWatcher current;
+    
+    private final String url;
+    private final long intervalSecs;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean stopped;
+    
+    private PerformanceLoggerSettingsWatcher(URL url, long intervalSecs) throws IOException
+    {
+        this.url = url.toExternalForm();
+        this.intervalSecs = intervalSecs;
+        this.watchService = watchServiceFor(url);
+        this.thread = new Thread(this, "performance-logger-settings-watcher");
+        this.thread.setDaemon(true);
+    }
+    
+    private static WatchService watchServiceFor(URL url) throws IOException
+    {
+        if(!"file".equals(url.getProtocol()))
+            return null;
+        
+        Path dir;
+        try
+        {
+            dir = Paths.get(url.toURI()).getParent();
+        }
+        catch(URISyntaxException | IllegalArgumentException e)
+        {
+            return null;
+        }
+        
+        WatchService ret = FileSystems.getDefault().newWatchService();
+        dir.register(ret, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        return ret;
+    }
+    
+    /**
+     * (Re)configures watching; this is a no-op if nothing has changed.
+     * 
+     * @param intervalSecs the interval in seconds; a value &lt;= 0 disables watching.
+     */
+    static synchronized void configure(long intervalSecs)
+    {
+        URL url = settingsUrl();
+        if(current != null && url != null && current.url.equals(url.toExternalForm()) && current.intervalSecs == intervalSecs)
+            return;
+        
+        if(current != null)
+        {
+            current.stop();
+            current = null;
+        }
+        
+        if(intervalSecs <= 0 || url == null)
+            return;
+        
+        try
+        {
+            current = new PerformanceLoggerSettingsWatcher(url, intervalSecs);
+            current.thread.start();
+        }
+        catch(IOException e)
+        {
+            log.warn("Cannot watch " + url + " for changes.", e);
+        }
+    }
+    
+    private static URL settingsUrl()
+    {
+        try
+        {
+            return LocalResources.getUrl(PerformanceLogger.DEFAULT_SETTINGS_PATH);
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+    }
+    
+    private void stop()
+    {
+        stopped = true;
+        thread.interrupt();
+        if(watchService != null)
+            IOUtils.closeQuietly(watchService);
+    }
+    
+    @Override
+    public void run()
+    {
+        byte[] content = readContent();
+        try
+        {
+            while(!stopped)
+            {
+                awaitChange();
+                byte[] newContent = readContent();
+                if(stopped || Arrays.equals(content, newContent) || !isParsable(newContent))
+                    continue;
+                
+                content = newContent;
+                PerformanceLogger.reloadDefaults();
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException e)
+        {
+            // Stopped.
+        }
+    }
+    
+    private void awaitChange() throws InterruptedException
+    {
+        if(watchService == null)
+        {
+            TimeUnit.SECONDS.sleep(intervalSecs);
+            return;
+        }
+        
+        WatchKey key = watchService.poll(intervalSecs, TimeUnit.SECONDS);
+        if(key != null)
+        {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+    
+    /**
+     * @return the current content of the settings file, or null if it does not exist (anymore).
+     */
+    private byte[] readContent()
+    {
+        try
+        {
+            URLConnection conn = new URL(url).openConnection();
+            conn.setUseCaches(false);
+            InputStream in = conn.getInputStream();
+            try
+            {
+                return IOUtils.toByteArray(in);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        catch(FileNotFoundException e)
+        {
+            return null;
+        }
+        catch(IOException e)
+        {
+            log.warn("Error reading " + url + ".", e);
+            return null;
+        }
+    }
+    
+    private static boolean isParsable(byte[] content)
+    {
+        if(content == null)
+            return true;
+        
+        try
+        {
+            new Properties().loadFromXML(new ByteArrayInputStream(content));
+            return true;
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.time.Duration;
+
+import at.ipsquare.commons.core.util.PerformanceLogger.Mode;
+import net.jcip.annotations.Immutable;
+
+/**
+ * A lightweight, thread safe alternative to {@link PerformanceLogger}.
+ * 
+ * <p>
+ *  A {@link PerformanceTimer} only consists of a start time and a lazily resolved call site, and can therefore be passed
+ *  between threads freely, which is handy for timing asynchronous code:
+ * </p>
+ * <pre>
+ * PerformanceTimer timer = PerformanceTimer.start();
+ * CompletableFuture.supplyAsync(() -&gt; doWork(), executor)
+ *     .whenComplete((res, th) -&gt; timer.stop("done"));
+ * </pre>
+ * 
+ * <p>
+ *  Output is written just like {@link PerformanceLogger#PerformanceLogger()} would do, using the default settings that are
+ *  in effect when {@link #stop(String)} is called. If logging is disabled when the timer is started, {@link #start()} does not
+ *  allocate anything, and stopping the timer has no effect.
+ * </p>
+ * 
+ * @see PerformanceLogger#timedAsync(String, java.util.function.Supplier)
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@Immutable
+public final class PerformanceTimer
+{
+    private static final PerformanceTimer DISABLED = new PerformanceTimer(0, null, 0);
+    
+    private final long startNanos;
+    private final LazyStackTraceElement from;
+    private final long weight;
+    
+    private PerformanceTimer(long startNanos, LazyStackTraceElement from, long weight)
+    {
+        this.startNanos = startNanos;
+        this.from = from;
+        this.weight = weight;
+    }
+    
+    /**
+     * Starts a new timer.
+     * 
+     * @return a running {@link PerformanceTimer}.
+     */
+    public static PerformanceTimer start()
+    {
+        if(!PerformanceLogger.isEnabled())
+            return DISABLED;
+        return new PerformanceTimer(System.nanoTime(), StackTrace.captureFirstElementBelowClass(), 1);
+    }
+    
+    /**
+     * Starts a new timer with an explicitly captured call site, for an execution that stands for weight executions
+     * (see {@link PerformanceLogSampler#sample()}).
+     */
+    static PerformanceTimer start(LazyStackTraceElement from, long weight)
+    {
+        if(!PerformanceLogger.isEnabled())
+            return DISABLED;
+        return new PerformanceTimer(System.nanoTime(), from, weight);
+    }
+    
+    /**
+     * @return the number of nanoseconds since this timer has been started, or 0 if logging was disabled at that time.
+     */
+    public long elapsedNanos()
+    {
+        return (from == null) ? 0 : System.nanoTime() - startNanos;
+    }
+    
+    /**
+     * See {@link #stop(String)}.
+     */
+    public void stop()
+    {
+        stop(PerformanceLogger.DEFAULT_THRESHOLD, null, null);
+    }
+    
+    /**
+     * Logs the elapsed time if it is above the default threshold.
+     * 
+     * <p>
+     *  This method may be called multiple times, and from any thread.
+     * </p>
+     * 
+     * @param msg an optional message.
+     */
+    public void stop(String msg)
+    {
+        stop(PerformanceLogger.DEFAULT_THRESHOLD, msg, null);
+    }
+    
+    /**
+     * Logs the elapsed time if it is above the given threshold.
+     * 
+     * @param threshold the threshold for which any output should be generated.
+     * @param msg an optional message.
+     */
+    public void stop(Duration threshold, String msg)
+    {
+        stop(threshold.toNanos(), msg, null);
+    }
+    
+    /**
+     * Logs the elapsed time if it is above the given threshold.
+     * 
+     * @param thresholdNanos the threshold in nanoseconds, or {@link PerformanceLogger#DEFAULT_THRESHOLD}.
+     * @param to where the measurement ended, or null to use the caller of this method.
+     */
+    void stop(long thresholdNanos, String msg, LazyStackTraceElement to)
+    {
+        if(from == null || !PerformanceLogger.isEnabled())
+            return;
+        
+        long nanos = System.nanoTime() - startNanos;
+        PerformanceLoggerSettings.Scope scope = PerformanceLogger.settings().scopeFor(from);
+        if(!scope.enabled())
+            return;
+        
+        if(thresholdNanos == PerformanceLogger.DEFAULT_THRESHOLD)
+            thresholdNanos = scope.thresholdNanos();
+        
+        Mode mode = scope.mode();
+        if(mode != Mode.AGGREGATE && nanos < thresholdNanos)
+            return;
+        
+        if(to == null)
+            to = StackTrace.captureFirstElementBelowClass();
+        PerformanceLogger.write(from, to, nanos, weight, mode, scope.formatter(), msg);
+    }
+}
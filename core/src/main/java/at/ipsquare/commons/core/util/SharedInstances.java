@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.lang.reflect.Constructor;
+import java.util.function.Supplier;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Utility methods for sharing instances of classes that are only known at runtime, like configured formatters.
+ * 
+ * <p>
+ *  Classes annotated with {@link Immutable} or {@link ThreadSafe} are instantiated exactly once, and that instance is shared
+ *  between all threads. All other classes are instantiated each time an instance is requested; these instances are not
+ *  confined to a thread, so they can safely be handed over to other threads (like the background thread of an asynchronous logger),
+ *  as long as they are not used concurrently. Either way, the constructor is only looked up once.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+public final class SharedInstances
+{
+    /**
+     * Checks if instances of the given class can be shared between threads.
+     * 
+     * @param clazz the class to check.
+     * @return true if the given class is annotated with {@link Immutable} or {@link ThreadSafe}.
+     */
+    public static boolean isThreadSafe(Class<?> clazz)
+    {
+        return clazz.isAnnotationPresent(Immutable.class) || clazz.isAnnotationPresent(ThreadSafe.class);
+    }
+    
+    /**
+     * Creates a {@link Supplier} for shared instances of the given class.
+     * 
+     * <p>
+     *  The class must have a public no-arg constructor. A first instance is created immediately, so that problems are reported
+     *  by this method and not when calling {@link Supplier#get()}.
+     * </p>
+     * 
+     * @param clazz the class to instantiate.
+     * @return a {@link Supplier} that returns a shared instance if the class is {@link #isThreadSafe(Class) thread safe}, and a 
+     *  new instance on each call otherwise.
+     * @throws ReflectiveOperationException if the class cannot be instantiated.
+     */
+    public static <T> Supplier<T> supplierFor(Class<? extends T> clazz) throws ReflectiveOperationException
+    {
+        Constructor<? extends T> constructor = clazz.getConstructor();
+        T instance = constructor.newInstance();
+        if(isThreadSafe(clazz))
+            return () -> instance;
+        
+        return () -> {
+            try
+            {
+                return constructor.newInstance();
+            }
+            catch(ReflectiveOperationException e)
+            {
+                throw new IllegalStateException("Cannot create a new instance of " + clazz.getName() + ".", e);
+            }
+        };
+    }
+    
+    private SharedInstances()
+    {
+        
+    }
+}
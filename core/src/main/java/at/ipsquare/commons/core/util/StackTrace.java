@@ -15,7 +15,10 @@
  */
 package at.ipsquare.commons.core.util;
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility methods for dealing with stack traces.
@@ -25,6 +28,15 @@ import java.util.Arrays;
  */
 public final class StackTrace
 {
+    private static final int ASSOCIATED_CLASSES_CACHE_SIZE = 1024;
+    
+    /*
+     * Classes are only weakly referenced, so that the cache never prevents them from being unloaded (think
+     * of a web application that is redeployed). Note that all lookups go through the class loader of this class,
+     * so class names are unambiguous. Lookups do not allocate any memory; if the map grows too large, it is simply cleared.
+     */
+    private static final ConcurrentMap<String, WeakReference<Class<?>>> associatedClasses = new ConcurrentHashMap<>();
+    
     /**
      * Returns the current stack trace, starting with the invocation of this method (unlike {@link Thread#getStackTrace()}).
      * 
@@ -44,13 +56,44 @@ public final class StackTrace
      */
     public static StackTraceElement firstElementBelowClass()
     {
-        StackTraceElement[] elems = Thread.currentThread().getStackTrace();
+        return firstElementBelowCallerClass(Thread.currentThread().getStackTrace());
+    }
+    
+    /**
+     * Captures the current call site, without resolving it to a {@link StackTraceElement} yet.
+     * 
+     * <p>
+     *  The returned object resolves to the element that {@link #firstElementBelowClass()} would have returned
+     *  at the time this method was called. Creating {@link StackTraceElement}s is postponed until
+     *  {@link LazyStackTraceElement#get()} is called, which makes this method considerably cheaper if the call site
+     *  is not always needed.
+     * </p>
+     * 
+     * @since 3.1.0
+     */
+    public static LazyStackTraceElement captureFirstElementBelowClass()
+    {
+        return new LazyStackTraceElement(new Throwable());
+    }
+    
+    /**
+     * See {@link #firstElementBelowClass()}.
+     * 
+     * <p>
+     *  Classes are compared by name, so no class loading is involved.
+     * </p>
+     */
+    static StackTraceElement firstElementBelowCallerClass(StackTraceElement[] elems)
+    {
         int first = firstElemBelowThisClass(elems);
-        Class<?> callerClass = associatedClass(elems[first]);
+        if(first >= elems.length)
+            return null;
+        
+        String callerClassName = elems[first].getClassName();
         for(int i = first + 1; i < elems.length; ++i)
         {
             StackTraceElement current = elems[i];
-            if(!callerClass.equals(associatedClass(current)))
+            if(!callerClassName.equals(current.getClassName()))
                 return current;
         }
         return null;
@@ -58,13 +101,12 @@ public final class StackTrace
     
     private static int firstElemBelowThisClass(StackTraceElement[] elems)
     {
+        String thisClassName = StackTrace.class.getName();
         boolean seenThisClass = false;
         int i = 0;
         for(; i < elems.length; ++i)
         {
-            StackTraceElement elem = elems[i];
-            Class<?> clazz = associatedClass(elem);
-            if(StackTrace.class.equals(clazz))
+            if(thisClassName.equals(elems[i].getClassName()))
                 seenThisClass = true;
             else if(seenThisClass)
                 break;
@@ -74,17 +116,32 @@ public final class StackTrace
     
     /**
      * Returns the class associated with the given {@link StackTraceElement}.
+     * 
+     * <p>
+     *  Resolved classes are cached, so that formatting log messages does not hit the class loader over and over again.
+     * </p>
      */
     static Class<?> associatedClass(StackTraceElement elem)
     {
+        String className = elem.getClassName();
+        WeakReference<Class<?>> ref = associatedClasses.get(className);
+        Class<?> ret = (ref != null ? ref.get() : null);
+        if(ret != null)
+            return ret;
+        
         try
         {
-            return Class.forName(elem.getClassName());
+            ret = Class.forName(className);
         }
         catch(ClassNotFoundException e)
         {
             throw new RuntimeException("Could not find class from StackTraceElement; trouble awaits.", e);
         }
+        
+        if(associatedClasses.size() >= ASSOCIATED_CLASSES_CACHE_SIZE)
+            associatedClasses.clear();
+        associatedClasses.put(className, new WeakReference<Class<?>>(ret));
+        return ret;
     }
 
     private StackTrace()
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+/**
+ * Hands out {@link StringBuilder}s that are reused per thread.
+ * 
+ * <p>
+ *  Every builder obtained from {@link #acquire()} must be handed back using {@link #release(StringBuilder)}. Nested calls
+ *  to {@link #acquire()} are fine, but result in fresh builders.
+ * </p>
+ * 
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+final class ThreadLocalStringBuilders
+{
+    private static final int INITIAL_CAPACITY = 128;
+    private static final int MAX_CACHED_CAPACITY = 4096;
+    
+    private static final class Holder
+    {
+        StringBuilder sb = new StringBuilder(INITIAL_CAPACITY);
+        boolean inUse;
+    }
+    
+    private static final ThreadLocal<Holder> holders = ThreadLocal.withInitial(Holder::new);
+    
+    /**
+     * Returns an empty {@link StringBuilder}.
+     */
+    static StringBuilder acquire()
+    {
+        Holder holder = holders.get();
+        if(holder.inUse)
+            return new StringBuilder(INITIAL_CAPACITY);
+        
+        holder.inUse = true;
+        return holder.sb;
+    }
+    
+    /**
+     * Hands back a {@link StringBuilder} obtained from {@link #acquire()}.
+     */
+    static void release(StringBuilder sb)
+    {
+        Holder holder = holders.get();
+        if(holder.sb != sb)
+            return;
+        
+        if(sb.capacity() > MAX_CACHED_CAPACITY)
+            holder.sb = new StringBuilder(INITIAL_CAPACITY);
+        else
+            sb.setLength(0);
+        holder.inUse = false;
+    }
+    
+    private ThreadLocalStringBuilders()
+    {
+        
+    }
+}
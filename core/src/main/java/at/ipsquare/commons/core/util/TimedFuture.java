@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link Future} that runs a callback, as soon as it is observed to be done.
+ * 
+ * <p>
+ *  Plain {@link Future}s offer no way to get notified on completion, so the callback runs the first time {@link #isDone()}
+ *  returns true, {@link #get()} returns or throws an {@link ExecutionException}, or the future is cancelled.
+ * </p>
+ * 
+ * @see PerformanceLogger#timedFuture(String, java.util.function.Supplier)
+ * @since 3.1.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+final class TimedFuture<T> implements Future<T>
+{
+    private final Future<T> delegate;
+    private final Runnable onDone;
+    private final AtomicBoolean done = new AtomicBoolean();
+    
+    TimedFuture(Future<T> delegate, Runnable onDone)
+    {
+        this.delegate = delegate;
+        this.onDone = onDone;
+    }
+    
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        boolean ret = delegate.cancel(mayInterruptIfRunning);
+        if(delegate.isDone())
+            markDone();
+        return ret;
+    }
+    
+    @Override
+    public boolean isCancelled()
+    {
+        return delegate.isCancelled();
+    }
+    
+    @Override
+    public boolean isDone()
+    {
+        boolean ret = delegate.isDone();
+        if(ret)
+            markDone();
+        return ret;
+    }
+    
+    @Override
+    public T get() throws InterruptedException, ExecutionException
+    {
+        try
+        {
+            T ret = delegate.get();
+            markDone();
+            return ret;
+        }
+        catch(ExecutionException | CancellationException e)
+        {
+            markDone();
+            throw e;
+        }
+    }
+    
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        try
+        {
+            T ret = delegate.get(timeout, unit);
+            markDone();
+            return ret;
+        }
+        catch(ExecutionException | CancellationException e)
+        {
+            markDone();
+            throw e;
+        }
+    }
+    
+    private void markDone()
+    {
+        if(done.compareAndSet(false, true))
+            onDone.run();
+    }
+}
@@ -0,0 +1,60 @@
+package at.ipsquare.commons.core.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+@State(Scope.Benchmark)
+public class BenchDefaultPerformanceLogFormatter {
+    private static class SomeClass {
+        static final String NAME = SomeClass.class.getName();
+    }
+
+    private static class SomeOtherClass {
+        static final String NAME = SomeOtherClass.class.getName();
+    }
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        final StringBuilder sb = new StringBuilder(128);
+    }
+
+    private final DefaultPerformanceLogFormatter formatter = new DefaultPerformanceLogFormatter();
+
+    private final StackTraceElement
+            from = new StackTraceElement(SomeClass.NAME, "method", "Clazz.java", 88),
+            to = new StackTraceElement(SomeOtherClass.NAME, "otherMethod", "OtherClazz.java", 99);
+
+    @Benchmark
+    public String format() {
+        return formatter.format(from, to, 313, "message");
+    }
+
+    @Benchmark
+    public StringBuilder appendTo(Buffer buffer) {
+        buffer.sb.setLength(0);
+        return formatter.appendTo(buffer.sb, from, to, 313, "message");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opts = new OptionsBuilder()
+                .include(Pattern.quote(BenchDefaultPerformanceLogFormatter.class.getName()))
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .warmupIterations(3)
+                .measurementIterations(3)
+                .threads(64)
+                .forks(1)
+                .shouldDoGC(true)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,52 @@
+package at.ipsquare.commons.core.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+@State(Scope.Benchmark)
+public class BenchStackTrace {
+    @Param({"10", "100", "300"})
+    public int depth;
+
+    @Benchmark
+    public StackTraceElement firstElementBelowClass() {
+        return atDepth(depth, StackTrace::firstElementBelowClass);
+    }
+
+    @Benchmark
+    public LazyStackTraceElement captureFirstElementBelowClass() {
+        return atDepth(depth, StackTrace::captureFirstElementBelowClass);
+    }
+
+    @Benchmark
+    public StackTraceElement captureAndGetFirstElementBelowClass() {
+        return atDepth(depth, () -> StackTrace.captureFirstElementBelowClass().get());
+    }
+
+    private static <T> T atDepth(int depth, Supplier<T> block) {
+        if (depth <= 0)
+            return block.get();
+        return atDepth(depth - 1, block);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opts = new OptionsBuilder()
+                .include(Pattern.quote(BenchStackTrace.class.getName()))
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .warmupIterations(3)
+                .measurementIterations(3)
+                .threads(1)
+                .forks(1)
+                .build();
+
+        new Runner(opts).run();
+    }
+}
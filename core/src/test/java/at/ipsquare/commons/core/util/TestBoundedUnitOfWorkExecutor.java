@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import at.ipsquare.commons.core.interfaces.AbstractUnitOfWork;
+import at.ipsquare.commons.core.interfaces.ExecutionError;
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+import at.ipsquare.commons.core.interfaces.UnitOfWorkExecutor;
+
+/**
+ * Tests for {@link BoundedUnitOfWorkExecutor}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestBoundedUnitOfWorkExecutor
+{
+    private static final UnitOfWorkExecutor DIRECT_EXECUTOR = new UnitOfWorkExecutor()
+    {
+        @Override
+        public <T> T executeUnitOfWork(UnitOfWork<T> work)
+        {
+            try
+            {
+                return work.execute();
+            }
+            catch(Exception e)
+            {
+                throw new ExecutionError(e);
+            }
+        }
+    };
+    
+    @Test
+    public void testSubmit() throws InterruptedException, ExecutionException
+    {
+        try(BoundedUnitOfWorkExecutor executor = new BoundedUnitOfWorkExecutor(DIRECT_EXECUTOR, 2, 10, "test"))
+        {
+            assertThat(executor.submit(unit(() -> 42)).get(), equalTo(42));
+            
+            try
+            {
+                executor.submit(unit(() -> { throw new Exception("Ups!"); })).get();
+                fail();
+            }
+            catch(ExecutionException e)
+            {
+                assertThat(e.getCause(), instanceOf(ExecutionError.class));
+            }
+            
+            assertThat(executor.queueWaitTimes().getCount(), equalTo(2L));
+        }
+    }
+    
+    @Test
+    public void testBackPressureAndCancellation() throws InterruptedException, ExecutionException
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicBoolean executedQueued = new AtomicBoolean();
+        
+        BoundedUnitOfWorkExecutor executor = new BoundedUnitOfWorkExecutor(DIRECT_EXECUTOR, 1, 1, "test");
+        CompletableFuture<Object> running = executor.submit(unit(() -> {
+            started.countDown();
+            try
+            {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            }
+            catch(InterruptedException e)
+            {
+                interrupted.countDown();
+            }
+            return null;
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        
+        CompletableFuture<Object> queued = executor.submit(unit(() -> executedQueued.getAndSet(true)));
+        CompletableFuture<Object> rejected = executor.submit(unit(() -> null));
+        assertTrue(rejected.isCompletedExceptionally());
+        assertThat(executor.rejectedCount(), equalTo(1L));
+        try
+        {
+            rejected.get();
+            fail();
+        }
+        catch(ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+        }
+        
+        assertThat(executor.queuedCount(), equalTo(1));
+        queued.cancel(true);
+        assertThat(executor.queuedCount(), equalTo(0));
+        
+        running.cancel(true);
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        
+        executor.close();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(executedQueued.get());
+    }
+    
+    @Test
+    public void testCloseNow() throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        BoundedUnitOfWorkExecutor executor = new BoundedUnitOfWorkExecutor(DIRECT_EXECUTOR, 1, 1, "test");
+        CompletableFuture<Object> running = executor.submit(unit(() -> {
+            started.countDown();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            return null;
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Object> queued = executor.submit(unit(() -> null));
+        
+        executor.closeNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(queued.isCompletedExceptionally());
+        assertTrue(running.isCompletedExceptionally());
+        assertThat(executor.rejectedCount(), equalTo(1L));
+    }
+    
+    private interface Body<T>
+    {
+        T execute() throws Exception;
+    }
+    
+    private static <T> UnitOfWork<T> unit(Body<T> body)
+    {
+        return new AbstractUnitOfWork<T>()
+        {
+            @Override
+            public T execute() throws Exception
+            {
+                return body.execute();
+            }
+        };
+    }
+}
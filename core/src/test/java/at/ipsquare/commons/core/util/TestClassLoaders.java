@@ -17,10 +17,13 @@ package at.ipsquare.commons.core.util;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Iterator;
 import java.util.Set;
@@ -96,6 +99,65 @@ public class TestClassLoaders
         assertTrue(ClassLoaders.registered().isEmpty());
     }
     
+    /**
+     * Verifies that {@link ClassLoaders#get()} returns cached, unmodifiable snapshots.
+     */
+    @Test
+    public void testSnapshots()
+    {
+        ClassLoader context = new TestClassLoader("context");
+        setContextClassLoader(context);
+        
+        Set<ClassLoader> loaders = ClassLoaders.get();
+        assertThat(ClassLoaders.get(), sameInstance(loaders));
+        
+        try
+        {
+            loaders.add(new TestClassLoader("illegal"));
+            fail();
+        }
+        catch(UnsupportedOperationException e)
+        {
+            // OK!
+        }
+        
+        ClassLoader loader = new TestClassLoader("1");
+        long version = ClassLoaders.version();
+        assertTrue(ClassLoaders.register(loader));
+        assertThat(ClassLoaders.version(), not(equalTo(version)));
+        assertThat(loaders, not(hasItem(loader)));
+        assertThat(ClassLoaders.get(), hasItem(loader));
+        
+        setContextClassLoader(new TestClassLoader("other context"));
+        assertThat(ClassLoaders.get(), not(hasItem(context)));
+        assertThat(ClassLoaders.get(), hasItem(getContextClassLoader()));
+        
+        ClassLoaders.clear();
+    }
+    
+    /**
+     * Verifies that loaders are removed from the registry once they have been garbage collected.
+     */
+    @Test
+    public void testCollectedLoadersAreRemoved() throws InterruptedException
+    {
+        setContextClassLoader(null);
+        ClassLoader loader = new TestClassLoader("1");
+        assertTrue(ClassLoaders.register(loader));
+        assertTrue(ClassLoaders.register(new TestClassLoader("garbage")));
+        
+        long version = ClassLoaders.version();
+        for(int i = 0; i < 100 && ClassLoaders.version() == version; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        
+        assertThat(ClassLoaders.registered(), contains(loader));
+        assertThat(ClassLoaders.get().size(), equalTo(2));
+        ClassLoaders.clear();
+    }
+    
     @Test(expected = NullPointerException.class)
     public void testRegisterWithNull()
     {
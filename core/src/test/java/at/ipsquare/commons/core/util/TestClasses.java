@@ -15,7 +15,9 @@
  */
 package at.ipsquare.commons.core.util;
 
+import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -81,4 +83,56 @@ public class TestClasses
             // OK!
         }
     }
+    
+    @Test
+    public void testForNameCachesHitsAndMisses() throws IOException, ClassNotFoundException
+    {
+        Thread.currentThread().setContextClassLoader(null);
+        CountingClassLoader countingLoader = new CountingClassLoader();
+        ClassLoaders.register(countingLoader);
+        try
+        {
+            for(int i = 0; i < 3; i++)
+            {
+                try
+                {
+                    Classes.forName(SOME_CLASS_NAME_ONLY_IN_SOME_JAR);
+                    fail();
+                }
+                catch(ClassNotFoundException e)
+                {
+                    // OK!
+                }
+                
+                assertNotNull(Classes.forName(getClass().getName()));
+            }
+            assertThat(countingLoader.lookups, equalTo(2));
+            
+            ClassLoader fancyLoader = new URLClassLoader(new URL[] { LocalResources.getUrl(SOME_JAR) });
+            ClassLoaders.register(fancyLoader);
+            assertNotNull(Classes.forName(SOME_CLASS_NAME_ONLY_IN_SOME_JAR));
+            assertThat(countingLoader.lookups, equalTo(3));
+        }
+        finally
+        {
+            ClassLoaders.clear();
+        }
+    }
+    
+    private static class CountingClassLoader extends ClassLoader
+    {
+        int lookups;
+        
+        CountingClassLoader()
+        {
+            super(CountingClassLoader.class.getClassLoader());
+        }
+        
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+        {
+            ++lookups;
+            return super.loadClass(name, resolve);
+        }
+    }
 }
@@ -16,8 +16,14 @@
 package at.ipsquare.commons.core.util;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
+
 import org.junit.Test;
 
 import at.ipsquare.commons.core.util.DefaultPerformanceLogFormatter;
@@ -102,6 +108,156 @@ public class TestDefaultPerformanceLogFormatter
                 "[42]", "f" , SomeClass.SIMPLE_NAME);
     }
 
+    /**
+     * Verifies the exact output of {@link DefaultPerformanceLogFormatter}.
+     */
+    @Test
+    public void testExactOutput()
+    {
+        String someClass = TestDefaultPerformanceLogFormatter.class.getSimpleName() + "$" + SomeClass.SIMPLE_NAME;
+        String someOtherClass = TestDefaultPerformanceLogFormatter.class.getSimpleName() + "$" + SomeOtherClass.SIMPLE_NAME;
+
+        testExactOutput(null, null, 111, null, "   111ms [???->???]");
+        testExactOutput(null, null, 1234567, null, "1234567ms [???->???]");
+        testExactOutput(null, null, -5, "neg", "    -5ms [???->???] <<neg>>");
+
+        testExactOutput(
+                new StackTraceElement(SomeClass.NAME, "foo", null, -1),
+                null,
+                111,
+                null,
+                "   111ms [" + someClass + ".foo:?->???]");
+
+        testExactOutput(
+                null,
+                new StackTraceElement(SomeClass.NAME, "foo", null, 7),
+                111,
+                null,
+                "   111ms [???->" + someClass + ".foo:7]");
+
+        testExactOutput(
+                new StackTraceElement(SomeClass.NAME, "bar", "From.java", -1),
+                new StackTraceElement(SomeOtherClass.NAME, "to", "To.java", 33),
+                66,
+                null,
+                "    66ms [" + someClass + ".bar:?->" + someOtherClass + ".to:33]");
+
+        testExactOutput(
+                new StackTraceElement(SomeClass.NAME, "method", "Clazz.java", 88),
+                new StackTraceElement(SomeClass.NAME, "method", "Clazz.java", 99),
+                313,
+                "***",
+                "   313ms " + someClass + ".method[88->99] <<***>>");
+
+        testExactOutput(
+                new StackTraceElement(SomeClass.NAME, "method", "Clazz.java", 88),
+                new StackTraceElement(SomeClass.NAME, "otherMethod", "Clazz.java", 99),
+                313,
+                "***",
+                "   313ms " + someClass + "[method:88->otherMethod:99] <<***>>");
+
+        testExactOutput(
+                new StackTraceElement(SomeClass.NAME, "f", "Clazz.java", 42),
+                new StackTraceElement(SomeClass.NAME, "f", "Clazz.java", 42),
+                10,
+                null,
+                "    10ms " + someClass + ".f[42]");
+    }
+
+    /**
+     * Verifies that we pad the elapsed time exactly like {@link String#format(String, Object...)} does.
+     */
+    @Test
+    public void testPaddingOfMillis()
+    {
+        long[] values = { 0, 1, 9, 10, 99999, 100000, 999999, 1000000, -1, -99999, -100000, Long.MAX_VALUE, Long.MIN_VALUE };
+        PerformanceLogFormatter formatter = new DefaultPerformanceLogFormatter();
+        for(long value : values)
+            assertThat(formatter.format(null, null, value, null), startsWith(String.format("%6dms ", value)));
+    }
+
+    /**
+     * Verifies that durations in nanoseconds are printed with adaptive units.
+     */
+    @Test
+    public void testFormatNanos() throws IOException
+    {
+        testFormatNanos(0, "     0ns [???->???]");
+        testFormatNanos(999, "   999ns [???->???]");
+        testFormatNanos(1000, "  1.00\u00b5s [???->???]");
+        testFormatNanos(12345, "  12.3\u00b5s [???->???]");
+        testFormatNanos(123456, "   123\u00b5s [???->???]");
+        testFormatNanos(1050000, "  1.05ms [???->???]");
+        testFormatNanos(999999999, "   999ms [???->???]");
+        testFormatNanos(61000000000L, "  61.0s [???->???]");
+        testFormatNanos(123000000000000L, "123000s [???->???]");
+        testFormatNanos(-3, "    -3ns [???->???]");
+    }
+
+    private static void testFormatNanos(long nanos, String expected) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        new DefaultPerformanceLogFormatter().formatNanosTo(sb, null, null, nanos, null);
+        assertEquals(expected, sb.toString());
+
+        CharBuffer buffer = CharBuffer.allocate(64);
+        new DefaultPerformanceLogFormatter().formatNanosTo(buffer, null, null, nanos, null);
+        buffer.flip();
+        assertEquals(expected, buffer.toString());
+    }
+
+    /**
+     * Verifies that the default implementation of {@link PerformanceLogFormatter#formatNanosTo(Appendable, StackTraceElement, StackTraceElement, long, String)}
+     * falls back to milliseconds.
+     */
+    @Test
+    public void testDefaultFormatNanosTo() throws IOException
+    {
+        PerformanceLogFormatter formatter = (from, to, millis, message) -> millis + "ms";
+        StringBuilder sb = new StringBuilder();
+        formatter.formatNanosTo(sb, null, null, 5999999, null);
+        assertEquals("5ms", sb.toString());
+    }
+
+    /**
+     * Tests {@link DefaultPerformanceLogFormatter#appendTo(StringBuilder, StackTraceElement, StackTraceElement, long, String)}.
+     */
+    @Test
+    public void testAppendTo()
+    {
+        StringBuilder sb = new StringBuilder(">");
+        StackTraceElement elem = new StackTraceElement(SomeClass.NAME, "f", "Clazz.java", 42);
+        DefaultPerformanceLogFormatter formatter = new DefaultPerformanceLogFormatter();
+        assertSame(sb, formatter.appendTo(sb, elem, elem, 10, "msg"));
+        assertEquals(">" + formatter.format(elem, elem, 10, "msg"), sb.toString());
+    }
+
+    /**
+     * Tests {@link DefaultPerformanceLogFormatter#formatTo(Appendable, StackTraceElement, StackTraceElement, long, String)}.
+     */
+    @Test
+    public void testFormatTo() throws IOException
+    {
+        StackTraceElement from = new StackTraceElement(SomeClass.NAME, "method", "Clazz.java", 88);
+        StackTraceElement to = new StackTraceElement(SomeOtherClass.NAME, "otherMethod", "Clazz.java", 99);
+        PerformanceLogFormatter formatter = new DefaultPerformanceLogFormatter();
+        String expected = formatter.format(from, to, 313, "msg");
+
+        StringBuilder sb = new StringBuilder();
+        formatter.formatTo(sb, from, to, 313, "msg");
+        assertEquals(expected, sb.toString());
+
+        CharBuffer buffer = CharBuffer.allocate(256);
+        formatter.formatTo(buffer, from, to, 313, "msg");
+        buffer.flip();
+        assertEquals(expected, buffer.toString());
+    }
+
+    private static void testExactOutput(StackTraceElement from, StackTraceElement to, long ms, String msg, String expected)
+    {
+        assertEquals(expected, new DefaultPerformanceLogFormatter().format(from, to, ms, msg));
+    }
+
     private static void testFormat(StackTraceElement from, StackTraceElement to, long ms, String msg, String... lookFor)
     {
         PerformanceLogFormatter formatter = new DefaultPerformanceLogFormatter();
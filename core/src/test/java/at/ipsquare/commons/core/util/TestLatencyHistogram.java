@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestLatencyHistogram
+{
+    @Test
+    public void testEmpty()
+    {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertThat(snapshot.getCount(), equalTo(0L));
+        assertThat(snapshot.getMean(), equalTo(0.0));
+        assertThat(snapshot.getMax(), equalTo(0L));
+        assertThat(snapshot.getValueAtPercentile(99), equalTo(0L));
+    }
+    
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long i = 1; i <= 1000; i++)
+            histogram.record(i * 1000000);
+        
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), equalTo(1000L));
+        assertThat(snapshot.getMean(), closeTo(500.5e6, 1));
+        assertThat(snapshot.getMax(), equalTo(1000000000L));
+        assertApproximately(snapshot.getValueAtPercentile(50), 500000000L);
+        assertApproximately(snapshot.getValueAtPercentile(90), 900000000L);
+        assertApproximately(snapshot.getValueAtPercentile(99), 990000000L);
+        assertThat(snapshot.getValueAtPercentile(100), equalTo(1000000000L));
+        
+        histogram.reset();
+        assertThat(histogram.snapshot().getCount(), equalTo(0L));
+    }
+    
+    @Test
+    public void testWeightedRecording()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000, 9);
+        histogram.record(100000);
+        
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), equalTo(10L));
+        assertThat(snapshot.getMean(), closeTo(10900, 1));
+        assertApproximately(snapshot.getValueAtPercentile(90), 1000);
+        assertThat(snapshot.getMax(), equalTo(100000L));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeightedRecordingWithIllegalCount()
+    {
+        new LatencyHistogram().record(1000, 0);
+    }
+    
+    @Test
+    public void testExtremeValues()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), equalTo(2L));
+        assertThat(snapshot.getValueAtPercentile(50), equalTo(0L));
+        assertThat(snapshot.getMax(), equalTo(Long.MAX_VALUE));
+    }
+    
+    @Test
+    public void testBucketBoundaries()
+    {
+        long[] values = { 0, 1, 63, 64, 127, 128, 129, 255, 256, 1000, 123456789, (1L << 44) - 1 };
+        for(long value : values)
+        {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(LatencyHistogram.highestEquivalentValue(index), greaterThanOrEqualTo(value));
+            if(index > 0)
+                assertThat(LatencyHistogram.highestEquivalentValue(index - 1), lessThanOrEqualTo(value - 1));
+        }
+    }
+    
+    private static void assertApproximately(long actual, long expected)
+    {
+        assertThat((double) actual, closeTo(expected, expected * 0.02));
+    }
+}
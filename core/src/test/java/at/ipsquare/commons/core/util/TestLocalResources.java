@@ -15,20 +15,35 @@
  */
 package at.ipsquare.commons.core.util;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
 import at.ipsquare.commons.core.util.LocalResources;
 
 /**
@@ -41,6 +56,7 @@ public class TestLocalResources
     private static String TEST_FILE_PATH = "at/ipsquare/commons/core/util/_LocalResources/test.txt";
     private static String NOT_EXISTING_PATH = "ASDFKJASDLFlsdfsdll/sdf/dd";
     private static String WITHIN_COMMONS_COLLECTIONS_JAR_PATH = "META-INF/maven/commons-collections/commons-collections/pom.properties";
+    private static String SOME_JAR = "at/ipsquare/commons/core/util/_Classes/someJar.jar";
     private static String STARTS_WITH_SLASH = "/META-INF/maven/commons-collections/commons-collections/pom.properties";
     
     /**
@@ -85,6 +101,175 @@ public class TestLocalResources
         assertTrue(StringUtils.containsIgnoreCase(contents, "test"));
     }
     
+    /**
+     * Tests for {@link LocalResources#getUrls(java.util.Collection)}.
+     */
+    @Test
+    public void testGetUrls() throws IOException
+    {
+        Map<String, URL> urls = LocalResources.getUrls(Arrays.asList(TEST_FILE_PATH, WITHIN_COMMONS_COLLECTIONS_JAR_PATH));
+        assertThat(urls.keySet(), contains(TEST_FILE_PATH, WITHIN_COMMONS_COLLECTIONS_JAR_PATH));
+        assertThat(urls.get(TEST_FILE_PATH), equalTo(LocalResources.getUrl(TEST_FILE_PATH)));
+        assertTrue(StringUtils.containsIgnoreCase(consume(urls.get(WITHIN_COMMONS_COLLECTIONS_JAR_PATH).openStream()), "commons-collections"));
+        
+        try
+        {
+            LocalResources.getUrls(Arrays.asList(TEST_FILE_PATH, NOT_EXISTING_PATH));
+            fail();
+        }
+        catch(FileNotFoundException e)
+        {
+            assertThat(e.getMessage(), containsString(NOT_EXISTING_PATH));
+        }
+    }
+    
+    /**
+     * Verifies that resolutions are cached until they are invalidated or expire.
+     */
+    @Test
+    public void testCaching() throws IOException, InterruptedException
+    {
+        File dir = Files.createTempDir();
+        ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, null);
+        ClassLoaders.register(loader);
+        try
+        {
+            final String PATH = "cached.txt";
+            assertNotFound(PATH);
+            
+            Files.write("cached", new File(dir, PATH), StandardCharsets.UTF_8);
+            assertNotFound(PATH);
+            
+            LocalResources.invalidateCache();
+            assertThat(consume(LocalResources.getStream(PATH)), equalTo("cached"));
+            
+            LocalResources.setCacheTimeToLive(1, TimeUnit.MILLISECONDS);
+            assertTrue(new File(dir, PATH).delete());
+            Thread.sleep(5);
+            assertNotFound(PATH);
+        }
+        finally
+        {
+            LocalResources.setCacheTimeToLive(0, TimeUnit.MILLISECONDS);
+            ClassLoaders.unregister(loader);
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+    
+    /**
+     * Verifies that the classpath index resolves paths like the {@link ClassLoader}s it covers, and that it can be saved and loaded.
+     */
+    @Test
+    public void testIndex() throws IOException
+    {
+        final String PATH_IN_JAR = "META-INF/maven/org.apache.maven.doxia/doxia-sink-api/pom.properties";
+        final String PATH_IN_DIR = "indexed/indexed.txt";
+        
+        File dir = Files.createTempDir();
+        File indexFile = new File(dir, "index.bin");
+        new File(dir, "indexed").mkdir();
+        Files.write("indexed", new File(dir, PATH_IN_DIR), StandardCharsets.UTF_8);
+        
+        URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL(), LocalResources.getUrl(SOME_JAR) }, null);
+        URL expectedInJar = loader.getResource(PATH_IN_JAR);
+        URL expectedInDir = loader.getResource(PATH_IN_DIR);
+        assertNotNull(expectedInJar);
+        assertNotNull(expectedInDir);
+        
+        ClassLoaders.register(loader);
+        try
+        {
+            LocalResources.setIndexEnabled(true);
+            LocalResources.invalidateCache();
+            assertThat(LocalResources.getUrl(PATH_IN_JAR).toExternalForm(), equalTo(expectedInJar.toExternalForm()));
+            assertThat(LocalResources.getUrl(PATH_IN_DIR).toExternalForm(), equalTo(expectedInDir.toExternalForm()));
+            assertThat(consume(LocalResources.getStream(PATH_IN_DIR)), equalTo("indexed"));
+            assertNotFound(NOT_EXISTING_PATH);
+            
+            LocalResources.saveIndex(indexFile);
+            LocalResources.setIndexEnabled(false);
+            LocalResources.loadIndex(indexFile);
+            LocalResources.invalidateCache();
+            assertThat(LocalResources.getUrl(PATH_IN_JAR).toExternalForm(), equalTo(expectedInJar.toExternalForm()));
+            
+            Files.write("garbage", indexFile, StandardCharsets.UTF_8);
+            try
+            {
+                LocalResources.loadIndex(indexFile);
+                fail();
+            }
+            catch(IOException e)
+            {
+                // OK!
+            }
+        }
+        finally
+        {
+            LocalResources.setIndexEnabled(false);
+            LocalResources.invalidateCache();
+            ClassLoaders.unregister(loader);
+            loader.close();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+    
+    /**
+     * Tests for {@link LocalResources#getMappedBuffer(String)} and {@link LocalResources#getByteBuffer(String)}.
+     */
+    @Test
+    public void testGetBuffers() throws IOException
+    {
+        ByteBuffer mapped = LocalResources.getMappedBuffer(TEST_FILE_PATH);
+        assertTrue(mapped.isReadOnly());
+        assertTrue(mapped.isDirect());
+        assertThat(consume(mapped), equalTo(consume(LocalResources.getStream(TEST_FILE_PATH))));
+        assertThat(LocalResources.getMappedBuffer(TEST_FILE_PATH).position(), equalTo(0));
+        assertThat(consume(LocalResources.getByteBuffer(TEST_FILE_PATH)), equalTo(consume(LocalResources.getStream(TEST_FILE_PATH))));
+        
+        ByteBuffer inJar = LocalResources.getByteBuffer(WITHIN_COMMONS_COLLECTIONS_JAR_PATH);
+        assertTrue(inJar.isReadOnly());
+        assertTrue(inJar.isDirect());
+        assertThat(consume(inJar), equalTo(consume(LocalResources.getStream(WITHIN_COMMONS_COLLECTIONS_JAR_PATH))));
+        assertThat(LocalResources.getByteBuffer(WITHIN_COMMONS_COLLECTIONS_JAR_PATH).remaining(), not(equalTo(0)));
+        
+        ByteBuffer view = LocalResources.getByteBuffer(WITHIN_COMMONS_COLLECTIONS_JAR_PATH);
+        for(int i = 0; i < 3; i++)
+            System.gc();
+        assertTrue(LocalResources.isBufferCached(WITHIN_COMMONS_COLLECTIONS_JAR_PATH));
+        assertTrue(view.isReadOnly());
+        assertThat(consume(view), equalTo(consume(LocalResources.getStream(WITHIN_COMMONS_COLLECTIONS_JAR_PATH))));
+        
+        try
+        {
+            LocalResources.getMappedBuffer(WITHIN_COMMONS_COLLECTIONS_JAR_PATH);
+            fail();
+        }
+        catch(IOException e)
+        {
+            assertThat(e.getMessage(), containsString("getStream"));
+        }
+    }
+    
+    private static String consume(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void assertNotFound(String path) throws IOException
+    {
+        try
+        {
+            LocalResources.getUrl(path);
+            fail();
+        }
+        catch(FileNotFoundException e)
+        {
+            // OK!
+        }
+    }
+    
     /**
      * See {@link #testGetFile(String, String, String, ClassLoader)}.
      * 
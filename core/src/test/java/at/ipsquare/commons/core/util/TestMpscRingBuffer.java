@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link MpscRingBuffer}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestMpscRingBuffer
+{
+    @Test
+    public void testCapacity()
+    {
+        assertThat(new MpscRingBuffer<Object>(1).capacity(), equalTo(1));
+        assertThat(new MpscRingBuffer<Object>(3).capacity(), equalTo(4));
+        assertThat(new MpscRingBuffer<Object>(4).capacity(), equalTo(4));
+        assertThat(new MpscRingBuffer<Object>(1000).capacity(), equalTo(1024));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalCapacity()
+    {
+        new MpscRingBuffer<Object>(0);
+    }
+    
+    @Test
+    public void testOfferAndPoll()
+    {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(2);
+        assertTrue(buffer.isEmpty());
+        assertThat(buffer.poll(), nullValue());
+        
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertFalse(buffer.offer(3));
+        assertThat(buffer.poll(), equalTo(1));
+        assertTrue(buffer.offer(4));
+        
+        Integer[] batch = new Integer[5];
+        assertThat(buffer.drainTo(batch), equalTo(2));
+        assertThat(batch[0], equalTo(2));
+        assertThat(batch[1], equalTo(4));
+        assertTrue(buffer.isEmpty());
+        assertThat(buffer.producedCount(), equalTo(3L));
+    }
+    
+    @Test
+    public void testConcurrentProducers() throws InterruptedException
+    {
+        final int producers = 4;
+        final int perProducer = 10000;
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        
+        Thread[] threads = new Thread[producers];
+        for(int p = 0; p < producers; p++)
+        {
+            final int offset = p * perProducer;
+            threads[p] = new Thread(() -> {
+                try
+                {
+                    start.await();
+                }
+                catch(InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+                
+                for(int i = 0; i < perProducer; i++)
+                {
+                    while(!buffer.offer(offset + i))
+                        Thread.yield();
+                }
+            });
+            threads[p].start();
+        }
+        
+        start.countDown();
+        boolean[] seen = new boolean[producers * perProducer];
+        int[] lastSeen = new int[producers];
+        Arrays.fill(lastSeen, -1);
+        for(int received = 0; received < seen.length;)
+        {
+            Integer value = buffer.poll();
+            if(value == null)
+            {
+                Thread.yield();
+                continue;
+            }
+            
+            assertFalse(seen[value]);
+            seen[value] = true;
+            
+            int producer = value / perProducer;
+            assertTrue(value % perProducer > lastSeen[producer]);
+            lastSeen[producer] = value % perProducer;
+            ++received;
+        }
+        
+        for(Thread thread : threads)
+            thread.join();
+        assertTrue(buffer.isEmpty());
+    }
+}
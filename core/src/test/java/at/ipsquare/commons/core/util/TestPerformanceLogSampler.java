@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PerformanceLogSampler}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestPerformanceLogSampler
+{
+    @Test
+    public void testAlways()
+    {
+        assertThat(PerformanceLogSampler.of(1, 0), sameInstance(PerformanceLogSampler.ALWAYS));
+        for(int i = 0; i < 100; i++)
+            assertThat(PerformanceLogSampler.ALWAYS.sample(), equalTo(1L));
+    }
+    
+    @Test
+    public void testNever()
+    {
+        PerformanceLogSampler sampler = PerformanceLogSampler.of(0, 0);
+        for(int i = 0; i < 1000; i++)
+            assertThat(sampler.sample(), equalTo(0L));
+    }
+    
+    @Test
+    public void testProbabilisticSampling()
+    {
+        PerformanceLogSampler sampler = PerformanceLogSampler.of(0.25, 0);
+        int sampled = 0;
+        long totalWeight = 0;
+        for(int i = 0; i < 100000; i++)
+        {
+            long weight = sampler.sample();
+            if(weight > 0)
+            {
+                assertThat(weight, equalTo(4L));
+                sampled++;
+                totalWeight += weight;
+            }
+        }
+        
+        assertThat(Math.abs(sampled - 25000), lessThanOrEqualTo(1500));
+        assertThat(totalWeight, equalTo(4L * sampled));
+    }
+    
+    @Test
+    public void testRateLimiting() throws InterruptedException
+    {
+        PerformanceLogSampler sampler = PerformanceLogSampler.of(1, 10);
+        assertThat(sampler.getRate(), equalTo(1.0));
+        assertThat(sampler.getMaxPerSecond(), equalTo(10L));
+        int sampled = 0;
+        long totalWeight = 0;
+        for(int i = 0; i < 1000; i++)
+        {
+            long weight = sampler.sample();
+            if(weight > 0)
+            {
+                sampled++;
+                totalWeight += weight;
+            }
+        }
+        
+        assertThat(sampled, greaterThan(0));
+        assertThat(sampled, lessThanOrEqualTo(20));
+        
+        Thread.sleep(200);
+        long weight = sampler.sample();
+        assertThat(weight, greaterThan(1L));
+        assertThat(totalWeight + weight, equalTo(1001L));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalRate()
+    {
+        PerformanceLogSampler.of(1.5, 0);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalMaxPerSecond()
+    {
+        PerformanceLogSampler.of(1, -1);
+    }
+}
@@ -15,6 +15,12 @@
  */
 package at.ipsquare.commons.core.util;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.containsString;
@@ -77,4 +83,59 @@ public class TestPerformanceLoggerBlockBasedApi
 
 		PerformanceLogger.timedExec(marker, () -> expectedResult);
 	}
+	
+	@Test
+	public void testSubMillisecondThresholds() throws InterruptedException {
+		String marker = "testSubMillisecondThresholds:marker";
+		
+		PerformanceLogger.timedExec(Duration.ofMinutes(1), marker, () -> { });
+		assertThat(UnitTestAppender.logString(), not(containsString(marker)));
+		
+		String actualResult = PerformanceLogger.timedExec(Duration.ofNanos(1), marker, () -> "42");
+		assertThat(actualResult, is("42"));
+		assertThat(UnitTestAppender.logString(), containsString(marker));
+		
+		String unitMarker = marker + ":unit";
+		PerformanceLogger plog = new PerformanceLogger(10, TimeUnit.MICROSECONDS);
+		Thread.sleep(1);
+		plog.logElapsed(unitMarker);
+		assertThat(UnitTestAppender.logString(), containsString(unitMarker));
+	}
+	
+	@Test
+	public void testTimedCallables() throws Exception {
+		String marker = "testTimedCallables:marker";
+		String actualResult = PerformanceLogger.timedCall(marker, () -> "42");
+		assertThat(actualResult, is("42"));
+		assertThat(UnitTestAppender.logString(), containsString(marker));
+	}
+	
+	@Test
+	public void testTimedCompletionStages() throws Exception {
+		String marker = "testTimedCompletionStages:marker";
+		CompletableFuture<String> future = new CompletableFuture<>();
+		
+		CompletableFuture<String> returned = PerformanceLogger.timedAsync(marker, () -> future);
+		assertThat(returned == future, is(true));
+		assertThat(UnitTestAppender.logString(), not(containsString(marker)));
+		
+		Thread thread = new Thread(() -> future.complete("42"));
+		thread.start();
+		thread.join();
+		assertThat(UnitTestAppender.logString(), containsString(marker));
+	}
+	
+	@Test
+	public void testTimedFutures() throws Exception {
+		String marker = "testTimedFutures:marker";
+		FutureTask<String> task = new FutureTask<>(() -> "42");
+		
+		Future<String> future = PerformanceLogger.timedFuture(marker, () -> task);
+		assertThat(future.isDone(), is(false));
+		assertThat(UnitTestAppender.logString(), not(containsString(marker)));
+		
+		task.run();
+		assertThat(future.get(), is("42"));
+		assertThat(UnitTestAppender.logString(), containsString(marker));
+	}
 }
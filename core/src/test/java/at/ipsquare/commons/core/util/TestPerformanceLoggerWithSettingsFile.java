@@ -15,13 +15,23 @@
  */
 package at.ipsquare.commons.core.util;
 
+import static org.hamcrest.Matchers.both;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.isEmptyString;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
@@ -41,15 +51,57 @@ public class TestPerformanceLoggerWithSettingsFile
         SETTINGS_NO_FORMATTER = "performanceLoggerNoFormatter.xml",
         SETTINGS_INVALID_THRESHOLD = "performanceLoggerInvalidThreshold.xml",
         SETTINGS_INVALID_FORMATTER = "performanceLoggerInvalidFormatter.xml",
-        SETTINGS_BROKEN_FORMATTER = "performanceLoggerBrokenFormatter.xml";
+        SETTINGS_BROKEN_FORMATTER = "performanceLoggerBrokenFormatter.xml",
+        SETTINGS_AGGREGATE = "performanceLoggerAggregate.xml",
+        SETTINGS_ASYNC = "performanceLoggerAsync.xml",
+        SETTINGS_SAMPLED = "performanceLoggerSampled.xml",
+        SETTINGS_OVERRIDES = "performanceLoggerOverrides.xml",
+        SETTINGS_RELOADABLE = "performanceLoggerReloadable.xml",
+        SETTINGS_RELOADED = "performanceLoggerReloaded.xml",
+        SETTINGS_RULES = "performanceLoggerRules.xml";
+    
+    private static class DisabledCaller
+    {
+        static void run(String mark)
+        {
+            PerformanceLogger.timedExec(mark, () -> { });
+            new PerformanceLogger(DisabledCaller.class).logElapsed(mark);
+            new PerformanceLogger().logElapsed(mark);
+            PerformanceTimer.start().stop(mark);
+        }
+    }
+    
+    private static class UnsampledCaller
+    {
+        static void run(String mark)
+        {
+            PerformanceLogger.timedExec(mark, () -> { });
+            new PerformanceLogger(UnsampledCaller.class).logElapsed(mark);
+            new PerformanceLogger().logElapsed(mark);
+        }
+    }
+    
+    private static class NoisyCaller
+    {
+        static void run(String mark)
+        {
+            PerformanceLogger.timedExec(mark, () -> { });
+            new PerformanceLogger().logElapsed(mark);
+        }
+    }
     
     private static void installDefaultSettingsFile(String basename)
+    {
+        copyDefaultSettingsFile(basename);
+        PerformanceLogger.reloadDefaults();
+    }
+    
+    private static void copyDefaultSettingsFile(String basename)
     {
         try
         {
             File src = LocalResources.getFile(SETTING_SRC_BASE + basename);
             FileUtils.copyFile(src, defaultSettingsFile());
-            PerformanceLogger.reloadDefaults();
         }
         catch(IOException e)
         {
@@ -81,6 +133,7 @@ public class TestPerformanceLoggerWithSettingsFile
         {
             throw new RuntimeException(e);
         }
+        PerformanceLogger.reloadDefaults();
     }
     
     @Test
@@ -127,6 +180,192 @@ public class TestPerformanceLoggerWithSettingsFile
         assertThatSomethingIsLogged(SETTINGS_INVALID_THRESHOLD, 0, TestPerformanceLoggerWithSettingsFile.class.getSimpleName());
     }
     
+    @Test
+    public void testWithAggregation()
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_AGGREGATE);
+        PerformanceLogger.resetHistograms();
+        for(int i = 0; i < 10; i++)
+            PerformanceLogger.timedExec(() -> { });
+        assertThat(UnitTestAppender.logString(), isEmptyString());
+        
+        Map<PerformanceLogger.CallSite, LatencyHistogram.Snapshot> snapshots = PerformanceLogger.histogramSnapshots();
+        assertThat(snapshots.size(), equalTo(1));
+        
+        PerformanceLogger.CallSite callSite = snapshots.keySet().iterator().next();
+        assertThat(callSite.getFrom().getMethodName(), equalTo("testWithAggregation"));
+        assertThat(snapshots.get(callSite).getCount(), equalTo(10L));
+        assertThat(PerformanceLogger.settings().aggregating, equalTo(true));
+        
+        PerformanceHistograms.report();
+        assertThat(UnitTestAppender.logString(), containsString(UnitTestPeformanceLogFormatter.PREFIX));
+        assertThat(UnitTestAppender.logString(), containsString("count=10"));
+        assertThat(UnitTestAppender.logString(), containsString("p99="));
+        
+        UnitTestAppender.reset();
+        PerformanceHistograms.report();
+        assertThat(UnitTestAppender.logString(), isEmptyString());
+        assertThat(PerformanceLogger.histogramSnapshots().size(), equalTo(0));
+        
+        long droppedBefore = PerformanceHistograms.droppedMeasurements();
+        for(int i = 0; i < 10000; i++)
+            PerformanceLogger.timedExec(() -> { });
+        assertThat(totalHistogramCount() + PerformanceHistograms.droppedMeasurements() - droppedBefore, equalTo(10000L));
+        
+        PerformanceLogger.resetHistograms();
+        assertThat(PerformanceLogger.histogramSnapshots().size(), equalTo(0));
+    }
+    
+    @Test
+    public void testWithSampling()
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_SAMPLED);
+        PerformanceLogger.resetHistograms();
+        for(int i = 0; i < 1000; i++)
+            PerformanceLogger.timedExec(() -> { });
+        
+        long count = totalHistogramCount();
+        assertThat(count % 2, equalTo(0L));
+        assertThat(count, both(greaterThan(700L)).and(lessThan(1300L)));
+        
+        PerformanceLogger.resetHistograms();
+        PerformanceLogger unsampled = new PerformanceLogger(0, TimeUnit.NANOSECONDS, null, PerformanceLogSampler.of(0, 0));
+        assertThat(unsampled.isSampled(), equalTo(false));
+        unsampled.logElapsed();
+        assertThat(totalHistogramCount(), equalTo(0L));
+        assertThat(new PerformanceLogger(0, TimeUnit.NANOSECONDS, null, PerformanceLogSampler.ALWAYS).isSampled(), equalTo(true));
+    }
+    
+    private static long totalHistogramCount()
+    {
+        long count = 0;
+        for(LatencyHistogram.Snapshot snapshot : PerformanceLogger.histogramSnapshots().values())
+            count += snapshot.getCount();
+        return count;
+    }
+    
+    @Test
+    public void testWithOverrides()
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_OVERRIDES);
+        new PerformanceLogger().logElapsed("overridden");
+        assertThat(UnitTestAppender.logString(), containsString(UnitTestPeformanceLogFormatter.PREFIX));
+        assertThat(UnitTestAppender.logString(), containsString("overridden"));
+        
+        PerformanceLoggerSettings settings = PerformanceLogger.settings();
+        assertThat(settings.scopeFor("com.acme.Foo").thresholdNanos(), equalTo(0L));
+        assertThat(settings.scopeFor("com.acmeX.Foo").thresholdNanos(), equalTo(TimeUnit.MILLISECONDS.toNanos(100000)));
+        assertThat(settings.scopeFor("at.ipsquare.commons.core.Foo$Bar").formatter(), instanceOf(UnitTestPeformanceLogFormatter.class));
+        assertThat(settings.scopeFor("at.ipsquare.commons.Foo").formatter(), instanceOf(DefaultPerformanceLogFormatter.class));
+        assertThat(settings.minThresholdNanos, equalTo(0L));
+        assertThat(settings.aggregating, equalTo(false));
+        assertThat(settings.callSiteSamplerFor(settings.scopeFor("com.acme.Foo")), nullValue());
+    }
+    
+    @Test
+    public void testWithRules()
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_RULES);
+        DisabledCaller.run("disabled-marker");
+        UnsampledCaller.run("unsampled-marker");
+        NoisyCaller.run("noisy-marker");
+        PerformanceLogger.timedExec("enabled-marker", () -> { });
+        new PerformanceLogger(getClass()).logElapsed("owner-marker");
+        
+        String logString = UnitTestAppender.logString();
+        assertThat(logString, containsString("enabled-marker"));
+        assertThat(logString, containsString("owner-marker"));
+        assertThat(logString, not(containsString("disabled-marker")));
+        assertThat(logString, not(containsString("unsampled-marker")));
+        assertThat(logString, not(containsString("noisy-marker")));
+        
+        PerformanceLoggerSettings settings = PerformanceLogger.settings();
+        assertThat(settings.scopeFor(DisabledCaller.class), sameInstance(settings.scopeFor(DisabledCaller.class.getName())));
+        assertThat(settings.scopeFor(DisabledCaller.class).enabled(), equalTo(false));
+        assertThat(settings.scopeFor(NoisyCaller.class).enabled(), equalTo(true));
+        assertThat(settings.callSiteSamplerFor(settings.scopeFor(UnsampledCaller.class)).getRate(), equalTo(0.0));
+        assertThat(settings.callSiteSamplerFor(settings.scopeFor(NoisyCaller.class)), sameInstance(settings.callSiteSamplerFor(settings.root)));
+    }
+    
+    @Test
+    public void testWithReloading() throws InterruptedException
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_RELOADABLE);
+        new PerformanceLogger().logElapsed("before-reload");
+        assertThat(UnitTestAppender.logString(), isEmptyString());
+        
+        copyDefaultSettingsFile(SETTINGS_RELOADED);
+        for(int i = 0; i < 100 && UnitTestAppender.logString().isEmpty(); i++)
+        {
+            Thread.sleep(100);
+            new PerformanceLogger().logElapsed("after-reload");
+        }
+        assertThat(UnitTestAppender.logString(), containsString("after-reload"));
+    }
+    
+    @Test
+    public void testWithAsyncLogging() throws InterruptedException
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_ASYNC);
+        PerformanceLogger.timedExec("async-marker", () -> { });
+        assertThat(AsyncPerformanceLogSink.flush(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(UnitTestAppender.logString(), containsString(UnitTestPeformanceLogFormatter.PREFIX));
+        assertThat(UnitTestAppender.logString(), containsString("async-marker"));
+        assertThat(UnitTestAppender.logString(), containsString("testWithAsyncLogging"));
+        
+        final CountDownLatch formatting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PerformanceLogFormatter blockingFormatter = (from, to, millis, message) -> {
+            formatting.countDown();
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e)
+            {
+                throw new RuntimeException(e);
+            }
+            return message;
+        };
+        
+        new PerformanceLogger(blockingFormatter).logElapsed("blocking");
+        formatting.await();
+        
+        long dropped = PerformanceLogger.droppedLogEvents();
+        for(int i = 0; i < 6; i++)
+            new PerformanceLogger().logElapsed("queued-" + i);
+        assertThat(PerformanceLogger.droppedLogEvents() - dropped, equalTo(2L));
+        
+        release.countDown();
+        assertThat(AsyncPerformanceLogSink.flush(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(UnitTestAppender.logString(), containsString("queued-3"));
+        assertThat(UnitTestAppender.logString(), not(containsString("queued-4")));
+    }
+    
+    @Test
+    public void testWithReplacedAsyncSink() throws InterruptedException
+    {
+        installDefaultSettingsFileAndResetTestAppender(SETTINGS_ASYNC);
+        AsyncPerformanceLogSink replaced = AsyncPerformanceLogSink.current();
+        AsyncPerformanceLogSink.configure(8, PerformanceLogger.OverflowPolicy.BLOCK, 1);
+        
+        long dropped = PerformanceLogger.droppedLogEvents();
+        for(int i = 0; i < 3; i++)
+        {
+            LazyStackTraceElement elem = StackTrace.captureFirstElementBelowClass();
+            replaced.submit(elem, elem, 0, "replaced-" + i, new UnitTestPeformanceLogFormatter());
+            Thread.sleep(10);
+        }
+        
+        assertThat(AsyncPerformanceLogSink.flush(10, TimeUnit.SECONDS), equalTo(true));
+        for(int i = 0; i < 100 && !UnitTestAppender.logString().contains("replaced-2"); i++)
+            Thread.sleep(10);
+        
+        assertThat(UnitTestAppender.logString(), containsString("replaced-0"));
+        assertThat(UnitTestAppender.logString(), containsString("replaced-2"));
+        assertThat(PerformanceLogger.droppedLogEvents(), equalTo(dropped));
+    }
+    
     private void assertThatSomethingIsLogged(String settingsFile) throws InterruptedException
     {
         assertThatSomethingIsLogged(settingsFile, 0);
@@ -1,5 +1,7 @@
 package at.ipsquare.commons.core.util;
 
+import java.io.IOException;
+
 import org.junit.AfterClass;
 import org.junit.Test;
 
@@ -38,6 +40,25 @@ public class TestPerformanceLoggerWithSpecialCases {
         assertThat(UnitTestAppender.logString(), containsString(mark));
     }
 
+    @Test
+    public void testStreamingFormatter() {
+        String mark = mark(2);
+        PerformanceLogFormatter formatter = new PerformanceLogFormatter() {
+            @Override
+            public String format(StackTraceElement from, StackTraceElement to, long millis, String message) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void formatTo(Appendable out, StackTraceElement from, StackTraceElement to, long millis, String message) throws IOException {
+                out.append("streamed:").append(message);
+            }
+        };
+
+        new PerformanceLogger(0, formatter).logElapsed(mark);
+        assertThat(UnitTestAppender.logString(), containsString("streamed:" + mark));
+    }
+
     @AfterClass
     public static void afterClass() {
         PerformanceLogTestUtils.enablePerformanceLogs(true);
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PerformanceTimer}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestPerformanceTimer
+{
+    @Test
+    public void testStopOnOtherThread() throws InterruptedException
+    {
+        PerformanceTimer timer = PerformanceTimer.start();
+        Thread thread = new Thread(() -> timer.stop("stopped-elsewhere"));
+        thread.start();
+        thread.join();
+        
+        assertThat(timer.elapsedNanos(), greaterThan(0L));
+        assertThat(UnitTestAppender.logString(), containsString("stopped-elsewhere"));
+        assertThat(UnitTestAppender.logString(), containsString("testStopOnOtherThread"));
+    }
+    
+    @Test
+    public void testThreshold()
+    {
+        PerformanceTimer timer = PerformanceTimer.start();
+        timer.stop(Duration.ofMinutes(1), "timer-below-threshold");
+        assertThat(UnitTestAppender.logString(), not(containsString("timer-below-threshold")));
+    }
+    
+    @Test
+    public void testDisabled()
+    {
+        PerformanceLogTestUtils.enablePerformanceLogs(false);
+        PerformanceTimer timer;
+        try
+        {
+            timer = PerformanceTimer.start();
+        }
+        finally
+        {
+            PerformanceLogTestUtils.enablePerformanceLogs(true);
+        }
+        
+        timer.stop("timer-disabled");
+        assertThat(timer.elapsedNanos(), equalTo(0L));
+        assertThat(UnitTestAppender.logString(), not(containsString("timer-disabled")));
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.core.util;
+
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SharedInstances}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestSharedInstances
+{
+    public static class NotThreadSafeClass
+    {
+        
+    }
+    
+    @Test
+    public void testIsThreadSafe()
+    {
+        assertTrue(SharedInstances.isThreadSafe(DefaultPerformanceLogFormatter.class));
+        assertTrue(SharedInstances.isThreadSafe(LatencyHistogram.class));
+        assertFalse(SharedInstances.isThreadSafe(NotThreadSafeClass.class));
+    }
+    
+    @Test
+    public void testThreadSafeClass() throws Exception
+    {
+        Supplier<PerformanceLogFormatter> supplier = SharedInstances.supplierFor(DefaultPerformanceLogFormatter.class);
+        PerformanceLogFormatter formatter = supplier.get();
+        assertThat(supplier.get(), sameInstance(formatter));
+        assertThat(getOnOtherThread(supplier), sameInstance(formatter));
+    }
+    
+    @Test
+    public void testNotThreadSafeClass() throws Exception
+    {
+        Supplier<NotThreadSafeClass> supplier = SharedInstances.supplierFor(NotThreadSafeClass.class);
+        NotThreadSafeClass instance = supplier.get();
+        assertThat(supplier.get(), not(sameInstance(instance)));
+        assertThat(getOnOtherThread(supplier), not(sameInstance(instance)));
+    }
+    
+    @Test(expected = ReflectiveOperationException.class)
+    public void testBrokenClass() throws Exception
+    {
+        SharedInstances.supplierFor(BrokenPerformanceLogFormatter.class);
+    }
+    
+    private static <T> T getOnOtherThread(Supplier<T> supplier) throws InterruptedException
+    {
+        AtomicReference<T> ret = new AtomicReference<T>();
+        Thread thread = new Thread(() -> ret.set(supplier.get()));
+        thread.start();
+        thread.join();
+        return ret.get();
+    }
+}
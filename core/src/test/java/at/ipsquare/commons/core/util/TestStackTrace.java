@@ -16,9 +16,12 @@
 package at.ipsquare.commons.core.util;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
@@ -64,4 +67,48 @@ public class TestStackTrace
         StackTraceElement elem = new TestClass().elem;
         assertEquals(getClass(), Class.forName(elem.getClassName()));
     }
+    
+    /**
+     * Tests {@link StackTrace#captureFirstElementBelowClass()}.
+     */
+    @Test
+    public void testCaptureFirstElementBelowClass() throws ClassNotFoundException
+    {
+        class TestClass
+        {
+            LazyStackTraceElement lazyElem;
+            
+            TestClass()
+            {
+                lazyElem = StackTrace.captureFirstElementBelowClass();
+            }
+        }
+        
+        LazyStackTraceElement lazyElem = new TestClass().lazyElem;
+        StackTraceElement elem = lazyElem.get();
+        assertEquals(getClass(), Class.forName(elem.getClassName()));
+        assertThat(elem.getMethodName(), equalTo("testCaptureFirstElementBelowClass"));
+        assertSame(elem, lazyElem.get());
+    }
+    
+    /**
+     * Tests {@link StackTrace#associatedClass(StackTraceElement)}.
+     */
+    @Test
+    public void testAssociatedClass()
+    {
+        StackTraceElement elem = new StackTraceElement(getClass().getName(), "testAssociatedClass", null, -1);
+        assertEquals(getClass(), StackTrace.associatedClass(elem));
+        assertSame(StackTrace.associatedClass(elem), StackTrace.associatedClass(elem));
+        
+        try
+        {
+            StackTrace.associatedClass(new StackTraceElement("does.not.Exist", "foo", null, -1));
+            fail();
+        }
+        catch(RuntimeException e)
+        {
+            assertThat(e.getCause(), instanceOf(ClassNotFoundException.class));
+        }
+    }
 }
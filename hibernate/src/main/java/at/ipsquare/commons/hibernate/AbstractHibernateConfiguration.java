@@ -20,6 +20,8 @@ import java.util.Map;
 
 import org.hibernate.dialect.Dialect;
 
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
+
 /**
  * An abstract {@link HibernateConfiguration} implementation, that requires clients only to supply values where no reasonable default can be found.
  * 
@@ -34,6 +36,43 @@ public abstract class AbstractHibernateConfiguration implements HibernateConfigu
         return null;
     }
     
+    @Override
+    public int getJdbcBatchSize()
+    {
+        return 0;
+    }
+    
+    @Override
+    public int getAsyncQueueCapacity()
+    {
+        return 1000;
+    }
+    
+    @Override
+    public RetrySettings getRetrySettings()
+    {
+        return RetrySettings.DEFAULTS;
+    }
+    
+    /**
+     * Samples at most 10 units of work per second and name.
+     */
+    @Override
+    public PerformanceLogSampler getUnitOfWorkSampler()
+    {
+        return PerformanceLogSampler.of(1, 10);
+    }
+    
+    /**
+     * Returns <code>null</code>, so that connection pools configured using {@link #getProperties()} keep working;
+     * override this method to use {@link PooledConnectionProvider}.
+     */
+    @Override
+    public ConnectionPoolSettings getConnectionPoolSettings()
+    {
+        return null;
+    }
+    
     public Map<String, String> getProperties()
     {
         return Collections.emptyMap();
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.Immutable;
+
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+
+/**
+ * The outcome of {@link HibernateRepository#executeUnitsOfWork(Iterable, BatchSettings)}.
+ * 
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@Immutable
+public final class BatchResult<T>
+{
+    private final List<T> results;
+    private final Map<Integer, Exception> failures;
+    
+    BatchResult(List<T> results, Map<Integer, Exception> failures)
+    {
+        this.results = Collections.unmodifiableList(results);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+    
+    /**
+     * The values returned by the executed units, in order; failed units are represented by null.
+     */
+    public List<T> getResults()
+    {
+        return results;
+    }
+    
+    /**
+     * The exceptions thrown by failed units, by their index within the batch; only units executed with failure isolation can fail
+     * without failing the batch (see {@link BatchSettings#withFailureIsolation(boolean)}).
+     * 
+     * @see UnitOfWork#execute()
+     */
+    public Map<Integer, Exception> getFailures()
+    {
+        return failures;
+    }
+    
+    /**
+     * Returns true if at least one unit failed.
+     */
+    public boolean hasFailures()
+    {
+        return !failures.isEmpty();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "BatchResult [results=" + results.size() + ", failures=" + failures.keySet() + "]";
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import net.jcip.annotations.Immutable;
+
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+
+/**
+ * Settings for executing a batch of {@link UnitOfWork}s using {@link HibernateRepository#executeUnitsOfWork(Iterable, BatchSettings)}.
+ * 
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@Immutable
+public final class BatchSettings
+{
+    /**
+     * The default settings: no explicit flush interval and no failure isolation.
+     */
+    public static final BatchSettings DEFAULTS = new BatchSettings(0, false);
+    
+    private final int flushInterval;
+    private final boolean failureIsolation;
+    
+    private BatchSettings(int flushInterval, boolean failureIsolation)
+    {
+        this.flushInterval = flushInterval;
+        this.failureIsolation = failureIsolation;
+    }
+    
+    /**
+     * Returns settings that flush and clear the session after the given number of units.
+     * 
+     * @param flushInterval the number of units after which the session is flushed and cleared; 0 means that the JDBC batch
+     *  size is used (see {@link HibernateConfiguration#getJdbcBatchSize()}), or that the session is only flushed on commit if no
+     *  JDBC batch size is configured.
+     * @throws IllegalArgumentException if the given value is negative.
+     */
+    public BatchSettings withFlushInterval(int flushInterval)
+    {
+        if(flushInterval < 0)
+            throw new IllegalArgumentException("Negative flush interval: " + flushInterval);
+        return new BatchSettings(flushInterval, failureIsolation);
+    }
+    
+    /**
+     * Returns settings with or without failure isolation.
+     * 
+     * <p>
+     *  With failure isolation, each unit is executed within a savepoint, and changes of failing units are rolled back
+     *  to that savepoint, while the rest of the batch is committed. This requires the session to be flushed after each unit, so
+     *  that JDBC batching only applies within units, and the session is cleared after each failure, so that entities loaded
+     *  by previous units become detached. Without failure isolation, a failing unit rolls back the whole batch.
+     * </p>
+     * 
+     * @param failureIsolation whether failing units should be isolated from the rest of the batch.
+     */
+    public BatchSettings withFailureIsolation(boolean failureIsolation)
+    {
+        return new BatchSettings(flushInterval, failureIsolation);
+    }
+    
+    /**
+     * See {@link #withFlushInterval(int)}.
+     */
+    public int getFlushInterval()
+    {
+        return flushInterval;
+    }
+    
+    /**
+     * See {@link #withFailureIsolation(boolean)}.
+     */
+    public boolean isFailureIsolation()
+    {
+        return failureIsolation;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "BatchSettings [flushInterval=" + flushInterval + ", failureIsolation=" + failureIsolation + "]";
+    }
+}
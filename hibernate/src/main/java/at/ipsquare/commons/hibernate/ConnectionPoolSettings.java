@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Settings for the connection pool provided by {@link PooledConnectionProvider}.
+ * 
+ * @see HibernateConfiguration#getConnectionPoolSettings()
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@Immutable
+public final class ConnectionPoolSettings
+{
+    /**
+     * Hibernate property for the minimum number of connections; see {@link #withMinSize(int)}.
+     */
+    public static final String MIN_SIZE_KEY = "ipsquare.pool.min_size";
+    
+    /**
+     * Hibernate property for the maximum number of connections; see {@link #withMaxSize(int)}.
+     */
+    public static final String MAX_SIZE_KEY = "ipsquare.pool.max_size";
+    
+    /**
+     * Hibernate property for the acquire timeout in milliseconds; see {@link #withAcquireTimeout(long, TimeUnit)}.
+     */
+    public static final String ACQUIRE_TIMEOUT_KEY = "ipsquare.pool.acquire_timeout";
+    
+    /**
+     * Hibernate property for the idle timeout in milliseconds; see {@link #withIdleTimeout(long, TimeUnit)}.
+     */
+    public static final String IDLE_TIMEOUT_KEY = "ipsquare.pool.idle_timeout";
+    
+    /**
+     * Hibernate property for the number of cached prepared statements per connection; see {@link #withStatementCacheSize(int)}.
+     */
+    public static final String STATEMENT_CACHE_SIZE_KEY = "ipsquare.pool.statement_cache_size";
+    
+    /**
+     * The default settings: between 1 and 10 connections, an acquire timeout of 30 seconds, an idle timeout of 10 minutes, and no statement cache.
+     */
+    public static final ConnectionPoolSettings DEFAULTS = new ConnectionPoolSettings(1, 10, TimeUnit.SECONDS.toMillis(30), TimeUnit.MINUTES.toMillis(10), 0);
+    
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int statementCacheSize;
+    
+    private ConnectionPoolSettings(int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis, int statementCacheSize)
+    {
+        if(minSize < 0)
+            throw new IllegalArgumentException("Negative minimum pool size: " + minSize);
+        if(maxSize < 1 || maxSize < minSize)
+            throw new IllegalArgumentException("Not a legal maximum pool size: " + maxSize + " (minimum: " + minSize + ")");
+        if(acquireTimeoutMillis < 0)
+            throw new IllegalArgumentException("Negative acquire timeout: " + acquireTimeoutMillis);
+        if(idleTimeoutMillis < 0)
+            throw new IllegalArgumentException("Negative idle timeout: " + idleTimeoutMillis);
+        if(statementCacheSize < 0)
+            throw new IllegalArgumentException("Negative statement cache size: " + statementCacheSize);
+        
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+    }
+    
+    /**
+     * Returns settings with the given minimum number of connections, that are opened on startup and kept open even if idle.
+     * 
+     * @throws IllegalArgumentException if the given value is negative or greater than the maximum size.
+     */
+    public ConnectionPoolSettings withMinSize(int minSize)
+    {
+        return new ConnectionPoolSettings(minSize, maxSize, acquireTimeoutMillis, idleTimeoutMillis, statementCacheSize);
+    }
+    
+    /**
+     * Returns settings with the given maximum number of connections.
+     * 
+     * @throws IllegalArgumentException if the given value is not positive or less than the minimum size.
+     */
+    public ConnectionPoolSettings withMaxSize(int maxSize)
+    {
+        return new ConnectionPoolSettings(minSize, maxSize, acquireTimeoutMillis, idleTimeoutMillis, statementCacheSize);
+    }
+    
+    /**
+     * Returns settings with the given maximum time to wait for a connection, if all connections are in use.
+     * 
+     * @throws IllegalArgumentException if the given value is negative.
+     */
+    public ConnectionPoolSettings withAcquireTimeout(long timeout, TimeUnit unit)
+    {
+        return new ConnectionPoolSettings(minSize, maxSize, unit.toMillis(timeout), idleTimeoutMillis, statementCacheSize);
+    }
+    
+    /**
+     * Returns settings with the given time after which idle connections are closed, as long as more than the minimum number of connections are open; 0 disables eviction.
+     * 
+     * @throws IllegalArgumentException if the given value is negative.
+     */
+    public ConnectionPoolSettings withIdleTimeout(long timeout, TimeUnit unit)
+    {
+        return new ConnectionPoolSettings(minSize, maxSize, acquireTimeoutMillis, unit.toMillis(timeout), statementCacheSize);
+    }
+    
+    /**
+     * Returns settings with the given number of prepared statements that are cached per connection; 0 disables the cache.
+     * 
+     * @throws IllegalArgumentException if the given value is negative.
+     */
+    public ConnectionPoolSettings withStatementCacheSize(int statementCacheSize)
+    {
+        return new ConnectionPoolSettings(minSize, maxSize, acquireTimeoutMillis, idleTimeoutMillis, statementCacheSize);
+    }
+    
+    /**
+     * See {@link #withMinSize(int)}.
+     */
+    public int getMinSize()
+    {
+        return minSize;
+    }
+    
+    /**
+     * See {@link #withMaxSize(int)}.
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+    
+    /**
+     * See {@link #withAcquireTimeout(long, TimeUnit)}.
+     */
+    public long getAcquireTimeoutMillis()
+    {
+        return acquireTimeoutMillis;
+    }
+    
+    /**
+     * See {@link #withIdleTimeout(long, TimeUnit)}.
+     */
+    public long getIdleTimeoutMillis()
+    {
+        return idleTimeoutMillis;
+    }
+    
+    /**
+     * See {@link #withStatementCacheSize(int)}.
+     */
+    public int getStatementCacheSize()
+    {
+        return statementCacheSize;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "ConnectionPoolSettings [minSize=" + minSize + ", maxSize=" + maxSize + ", acquireTimeoutMillis=" + acquireTimeoutMillis
+                + ", idleTimeoutMillis=" + idleTimeoutMillis + ", statementCacheSize=" + statementCacheSize + "]";
+    }
+}
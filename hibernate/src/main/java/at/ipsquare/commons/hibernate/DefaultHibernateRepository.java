@@ -16,22 +16,44 @@
 package at.ipsquare.commons.hibernate;
 
 import java.lang.ref.WeakReference;
+import java.sql.Connection;
 import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.jcip.annotations.ThreadSafe;
 
+import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
 import org.hibernate.service.ServiceRegistryBuilder;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import at.ipsquare.commons.core.interfaces.ExecutionError;
 import at.ipsquare.commons.core.interfaces.UnitOfWork;
+import at.ipsquare.commons.core.util.BoundedUnitOfWorkExecutor;
 import at.ipsquare.commons.core.util.Classes;
+import at.ipsquare.commons.core.util.LatencyHistogram;
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
 
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
@@ -49,12 +71,31 @@ public class DefaultHibernateRepository implements HibernateRepository
 {
     private static final Logger log = LoggerFactory.getLogger(DefaultHibernateRepository.class);
     
+    /**
+     * The pool size used by Hibernate's built in connection pool, if {@link Environment#POOL_SIZE} is not set.
+     */
+    private static final int DEFAULT_POOL_SIZE = 20;
+    
+    /**
+     * How long {@link #close()} waits for asynchronous units of work to finish.
+     */
+    private static final long ASYNC_CLOSE_TIMEOUT_SECS = 30;
+    
     private static final 
         Map<Class<? extends DefaultHibernateRepository>, WeakReference<? extends DefaultHibernateRepository>> 
             instanceMap = Maps.newHashMapWithExpectedSize(2);
              
     private final SessionFactory sessionFactory;
+    private final int jdbcBatchSize;
+    private final RetrySettings retrySettings;
+    private final UnitOfWorkStatistics unitOfWorkStatistics;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+    private final LatencyHistogram retryTimes = new LatencyHistogram();
+    private final boolean readOnlyConnections;
+    private final BoundedUnitOfWorkExecutor asyncExecutor;
     private final ThreadLocal<Session> currentSession = new ThreadLocal<Session>();
+    private final ThreadLocal<StatelessSession> currentStatelessSession = new ThreadLocal<StatelessSession>();
     private final ThreadLocal<UnitOfWork<?>> currentUnitOfWork = new ThreadLocal<UnitOfWork<?>>();
     
     
@@ -80,17 +121,35 @@ public class DefaultHibernateRepository implements HibernateRepository
             instanceMap.put(getClass(), new WeakReference<DefaultHibernateRepository>(this));
         }
 
-        sessionFactory = buildSessionFactory(hibernateCfg);
+        Configuration nativeCfg = toNativeHibernateConfiguration(hibernateCfg);
+        jdbcBatchSize = jdbcBatchSize(nativeCfg);
+        retrySettings = (hibernateCfg.getRetrySettings() != null) ? hibernateCfg.getRetrySettings() : RetrySettings.DEFAULTS;
+        unitOfWorkStatistics = new UnitOfWorkStatistics(
+                (hibernateCfg.getUnitOfWorkSampler() != null) ? hibernateCfg.getUnitOfWorkSampler() : PerformanceLogSampler.of(0, 0));
+        sessionFactory = buildSessionFactory(nativeCfg);
+        readOnlyConnections = getConnectionPool() != null;
+        asyncExecutor = new BoundedUnitOfWorkExecutor(
+                this, connectionPoolSize(nativeCfg), hibernateCfg.getAsyncQueueCapacity(), getClass().getSimpleName() + "-async");
     }
     
     public <T> T executeUnitOfWork(UnitOfWork<T> work)
     {
-        if(work == null)
+        return executeUnitOfWork(work, retrySettings);
+    }
+    
+    @Override
+    public <T> T executeUnitOfWork(UnitOfWork<T> work, RetrySettings settings)
+    {
+        if(work == null || settings == null)
             throw new NullPointerException();
         
         if(currentUnitOfWork.get() != null)
         {
-            log.info("Executing " + work + " within already running " + currentUnitOfWork.get() + ".");
+            if(log.isDebugEnabled())
+                log.debug("Executing " + work + " within already running " + currentUnitOfWork.get() + ".");
+            if(currentUnitOfWork.get() instanceof ReadOnlyUnitOfWork && !(work instanceof ReadOnlyUnitOfWork))
+                log.warn("Executing " + work + " within read only " + currentUnitOfWork.get() + "; changes will not be flushed automatically.");
+            
             try
             {
                 return work.execute();
@@ -102,14 +161,78 @@ public class DefaultHibernateRepository implements HibernateRepository
             }
         }
         
-        log.info("Executing " + work + ".");
-        Session session = session();
+        long firstFailureNanos = 0;
+        for(int attempt = 1;; attempt++)
+        {
+            try
+            {
+                T result = executeInNewSession(work);
+                if(attempt > 1)
+                    retryTimes.record(System.nanoTime() - firstFailureNanos);
+                return result;
+            }
+            catch(RuntimeException e)
+            {
+                boolean retryable = settings.getMaxAttempts() > 1 && settings.isRetryable(e);
+                if(attempt == 1)
+                    firstFailureNanos = System.nanoTime();
+                
+                if(!retryable || attempt >= settings.getMaxAttempts())
+                {
+                    if(attempt > 1)
+                    {
+                        retryTimes.record(System.nanoTime() - firstFailureNanos);
+                        if(retryable)
+                            retriesExhausted.increment();
+                    }
+                    throw e;
+                }
+                
+                long backoffMillis = settings.backoffMillis(attempt, ThreadLocalRandom.current());
+                log.info("Retrying " + work + " in " + backoffMillis + "ms, after attempt " + attempt + " of " + settings.getMaxAttempts() + " failed.");
+                retries.increment();
+                try
+                {
+                    Thread.sleep(backoffMillis);
+                }
+                catch(InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    private <T> T executeInNewSession(UnitOfWork<T> work)
+    {
+        if(log.isDebugEnabled())
+            log.debug("Executing " + work + ".");
+        
+        long weight = unitOfWorkStatistics.sample(work);
+        UnitOfWorkRecording recording = (weight > 0) ? new UnitOfWorkRecording() : null;
+        long start = (recording != null) ? System.nanoTime() : 0;
+        
+        Session session = (recording != null) ? sessionFactory.withOptions().interceptor(recording).openSession() : session();
         currentSession.set(session);
         currentUnitOfWork.set(work);
         
-        session.beginTransaction();
         try
         {
+            /*
+             * Connections must not change their read only flag during a transaction:
+             */
+            if(work instanceof ReadOnlyUnitOfWork)
+                makeReadOnly(session);
+            session.beginTransaction();
+            
+            if(recording != null)
+            {
+                long now = System.nanoTime();
+                recording.openNanos = now - start;
+                start = now;
+            }
+            
             T result = null;
             try
             {
@@ -119,22 +242,41 @@ public class DefaultHibernateRepository implements HibernateRepository
             {
                 log.warn(exceptionLogMessage(work), e);
                 
+                if(recording != null)
+                {
+                    long now = System.nanoTime();
+                    recording.executeNanos = now - start;
+                    recording.failed = true;
+                    start = now;
+                }
+                
                 Transaction tx = getActiveTransaction(session);
                 if(tx != null)
                     tx.rollback();
+                
+                if(recording != null)
+                    recording.rollbackNanos = System.nanoTime() - start;
                 throw new ExecutionError(e);
             }
             
-            Transaction tx = getActiveTransaction(session);
-            if(tx != null)
-                tx.commit();
+            if(recording != null)
+                recording.executeNanos = System.nanoTime() - start;
+            
+            commit(session, recording);
             return result;
         }
+        catch(RuntimeException e)
+        {
+            if(recording != null)
+                recording.failed = true;
+            throw e;
+        }
         finally
         {
             try
             {
-                log.info("Closing " + work + ".");
+                if(log.isDebugEnabled())
+                    log.debug("Closing " + work + ".");
                 
                 /*
                  * TODO (mla):
@@ -146,14 +288,385 @@ public class DefaultHibernateRepository implements HibernateRepository
             {
                 currentSession.set(null);
                 currentUnitOfWork.set(null);
+                
+                if(recording != null)
+                {
+                    unitOfWorkStatistics.record(work, recording, weight);
+                    if(log.isInfoEnabled())
+                        log.info(recording.summary(work));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Executes the given {@link UnitOfWork}s within a single session and transaction; equivalent to calling
+     * {@link #executeUnitsOfWork(Iterable, BatchSettings)} with {@link BatchSettings#DEFAULTS}.
+     * 
+     * @throws ExecutionError if {@link UnitOfWork#execute()} throws an exception for one of the given units; the whole batch is rolled back in this case.
+     * @since 3.0.0
+     */
+    @Override
+    public <T> List<T> executeUnitsOfWork(Iterable<? extends UnitOfWork<? extends T>> units)
+    {
+        return executeUnitsOfWork(units, BatchSettings.DEFAULTS).getResults();
+    }
+    
+    @Override
+    public <T> BatchResult<T> executeUnitsOfWork(Iterable<? extends UnitOfWork<? extends T>> units, BatchSettings settings)
+    {
+        if(units == null || settings == null)
+            throw new NullPointerException();
+        
+        List<T> results = new ArrayList<T>();
+        Map<Integer, Exception> failures = new TreeMap<Integer, Exception>();
+        if(currentUnitOfWork.get() != null)
+        {
+            if(log.isDebugEnabled())
+                log.debug("Executing batch within already running " + currentUnitOfWork.get() + ".");
+            for(UnitOfWork<? extends T> work : units)
+                results.add(executeUnitOfWork(work));
+            return new BatchResult<T>(results, failures);
+        }
+        
+        if(log.isDebugEnabled())
+            log.debug("Executing batch with " + settings + ".");
+        Session session = session();
+        currentSession.set(session);
+        
+        int flushInterval = (settings.getFlushInterval() > 0) ? settings.getFlushInterval() : jdbcBatchSize;
+        session.beginTransaction();
+        try
+        {
+            for(UnitOfWork<? extends T> work : units)
+            {
+                currentUnitOfWork.set(work);
+                if(settings.isFailureIsolation())
+                    executeIsolated(session, work, results, failures);
+                else
+                    results.add(executeInBatch(session, work));
+                
+                if(flushInterval > 0 && results.size() % flushInterval == 0)
+                {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            
+            Transaction tx = getActiveTransaction(session);
+            if(tx != null)
+                tx.commit();
+            
+            if(log.isDebugEnabled())
+                log.debug("Executed batch: " + results.size() + " units, " + failures.size() + " failures.");
+            return new BatchResult<T>(results, failures);
+        }
+        catch(RuntimeException e)
+        {
+            Transaction tx = getActiveTransaction(session);
+            if(tx != null)
+                tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            try
+            {
+                if(log.isDebugEnabled())
+                    log.debug("Closing batch.");
+                session.close();
+            }
+            finally
+            {
+                currentSession.set(null);
+                currentUnitOfWork.set(null);
+            }
+        }
+    }
+    
+    @Override
+    public <T> T executeStatelessUnitOfWork(UnitOfWork<T> work)
+    {
+        if(work == null)
+            throw new NullPointerException();
+        
+        if(currentStatelessSession.get() != null)
+            return executeUnitOfWork(work);
+        
+        if(currentUnitOfWork.get() != null)
+        {
+            if(log.isDebugEnabled())
+                log.debug("Executing " + work + " statelessly within already running " + currentUnitOfWork.get() + ".");
+            Session session = currentSession.get();
+            if(session.getFlushMode() != FlushMode.MANUAL)
+                session.flush();
+            
+            StatelessSession statelessSession = sessionFactory.openStatelessSession(physicalConnection(session));
+            currentStatelessSession.set(statelessSession);
+            try
+            {
+                return work.execute();
+            }
+            catch(Exception e)
+            {
+                log.warn(exceptionLogMessage(work), e);
+                throw new ExecutionError(e);
+            }
+            finally
+            {
+                try
+                {
+                    statelessSession.close();
+                }
+                finally
+                {
+                    currentStatelessSession.set(null);
+                }
+            }
+        }
+        
+        if(log.isDebugEnabled())
+            log.debug("Executing " + work + " statelessly.");
+        StatelessSession statelessSession = sessionFactory.openStatelessSession();
+        try
+        {
+            statelessSession.beginTransaction();
+            currentStatelessSession.set(statelessSession);
+            currentUnitOfWork.set(work);
+            
+            T result = null;
+            try
+            {
+                result = work.execute();
+            }
+            catch(Exception e)
+            {
+                log.warn(exceptionLogMessage(work), e);
+                
+                Transaction tx = getActiveTransaction(statelessSession);
+                if(tx != null)
+                    tx.rollback();
+                throw new ExecutionError(e);
+            }
+            
+            commit(statelessSession);
+            return result;
+        }
+        finally
+        {
+            try
+            {
+                if(log.isDebugEnabled())
+                    log.debug("Closing " + work + ".");
+                statelessSession.close();
+            }
+            finally
+            {
+                currentStatelessSession.set(null);
+                currentUnitOfWork.set(null);
+            }
+        }
+    }
+    
+    /**
+     * Returns the JDBC connection of the given session; connection proxies handed out by the session can not be used, as their
+     * resources would be tracked, and eventually closed, by both the session and the stateless session using them.
+     */
+    private static Connection physicalConnection(Session session)
+    {
+        return ((SessionImplementor) session).getTransactionCoordinator().getJdbcCoordinator().getLogicalConnection().getConnection();
+    }
+    
+    /**
+     * Prepares the given session for executing a {@link ReadOnlyUnitOfWork}; the connection is only marked read only if it is
+     * managed by {@link PooledConnectionProvider}, which resets the flag before handing out the connection again.
+     */
+    private void makeReadOnly(Session session)
+    {
+        session.setFlushMode(FlushMode.MANUAL);
+        session.setDefaultReadOnly(true);
+        if(readOnlyConnections)
+        {
+            session.doWork(new Work()
+            {
+                @Override
+                public void execute(Connection connection) throws SQLException
+                {
+                    connection.setReadOnly(true);
+                }
+            });
+        }
+    }
+    
+    private static <T> T executeInBatch(Session session, UnitOfWork<T> work)
+    {
+        try
+        {
+            return work.execute();
+        }
+        catch(Exception e)
+        {
+            log.warn(exceptionLogMessage(work), e);
+            throw new ExecutionError(e);
+        }
+    }
+    
+    /**
+     * Executes the given unit within a savepoint, that is rolled back if the unit fails.
+     */
+    private static <T> void executeIsolated(Session session, UnitOfWork<? extends T> work, List<T> results, Map<Integer, Exception> failures)
+    {
+        final Savepoint[] savepoint = new Savepoint[1];
+        session.flush();
+        session.doWork(new Work()
+        {
+            @Override
+            public void execute(Connection connection) throws SQLException
+            {
+                savepoint[0] = connection.setSavepoint();
             }
+        });
+        
+        try
+        {
+            T result = work.execute();
+            session.flush();
+            results.add(result);
         }
+        catch(Exception e)
+        {
+            log.warn(exceptionLogMessage(work), e);
+            session.clear();
+            session.doWork(new Work()
+            {
+                @Override
+                public void execute(Connection connection) throws SQLException
+                {
+                    connection.rollback(savepoint[0]);
+                }
+            });
+            
+            failures.put(results.size(), e);
+            results.add(null);
+            return;
+        }
+        
+        session.doWork(new Work()
+        {
+            @Override
+            public void execute(Connection connection) throws SQLException
+            {
+                try
+                {
+                    connection.releaseSavepoint(savepoint[0]);
+                }
+                catch(SQLFeatureNotSupportedException e)
+                {
+                    // Released on commit.
+                }
+            }
+        });
+    }
+    
+    @Override
+    public <T> CompletableFuture<T> submit(UnitOfWork<T> work)
+    {
+        return asyncExecutor.submit(work);
+    }
+    
+    /**
+     * Returns the executor used by {@link #submit(UnitOfWork)}, which provides metrics like queue wait times.
+     * 
+     * @since 3.0.0
+     */
+    public BoundedUnitOfWorkExecutor getAsyncExecutor()
+    {
+        return asyncExecutor;
+    }
+    
+    /**
+     * Returns statistics about the units of work executed by {@link #executeUnitOfWork(UnitOfWork)}, like execution, flush and commit times.
+     * 
+     * @see HibernateConfiguration#getUnitOfWorkSampler()
+     * @since 3.0.0
+     */
+    public UnitOfWorkStatistics getUnitOfWorkStatistics()
+    {
+        return unitOfWorkStatistics;
+    }
+    
+    /**
+     * Returns the number of retries performed by {@link #executeUnitOfWork(UnitOfWork, RetrySettings)}.
+     * 
+     * @since 3.0.0
+     */
+    public long retryCount()
+    {
+        return retries.sum();
+    }
+    
+    /**
+     * Returns the number of units of work that failed with a retryable exception, after the maximum number of attempts.
+     * 
+     * @since 3.0.0
+     */
+    public long retriesExhaustedCount()
+    {
+        return retriesExhausted.sum();
     }
     
+    /**
+     * Returns a snapshot of the time spent retrying units of work, measured from the end of the first failed attempt until the
+     * unit finally succeeded or failed.
+     * 
+     * @since 3.0.0
+     */
+    public LatencyHistogram.Snapshot retryTimes()
+    {
+        return retryTimes.snapshot();
+    }
+    
+    /**
+     * Returns the connection pool, which provides metrics like active and idle connections, or <code>null</code> if
+     * {@link PooledConnectionProvider} is not in use.
+     * 
+     * @see HibernateConfiguration#getConnectionPoolSettings()
+     * @since 3.0.0
+     */
+    public PooledConnectionProvider getConnectionPool()
+    {
+        ConnectionProvider provider = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry().getService(ConnectionProvider.class);
+        if(provider != null && provider.isUnwrappableAs(PooledConnectionProvider.class))
+            return provider.unwrap(PooledConnectionProvider.class);
+        return null;
+    }
+    
+    /**
+     * Closes the repository; units of work that have been submitted asynchronously are given up to
+     * 30 seconds to finish, before the remaining ones are cancelled and the
+     * {@link SessionFactory} is closed.
+     */
     @Override
     public void close()
     {
-        sessionFactory.close();
+        asyncExecutor.close();
+        try
+        {
+            if(!asyncExecutor.awaitTermination(ASYNC_CLOSE_TIMEOUT_SECS, TimeUnit.SECONDS))
+            {
+                log.warn("Asynchronous units of work did not finish within " + ASYNC_CLOSE_TIMEOUT_SECS + " seconds; cancelling them.");
+                asyncExecutor.closeNow();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            asyncExecutor.closeNow();
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            sessionFactory.close();
+        }
     }
     
     @Override
@@ -167,7 +680,84 @@ public class DefaultHibernateRepository implements HibernateRepository
         return "Executing " + work + " resulted in an exception.";
     }
     
-    private static Transaction getActiveTransaction(Session session)
+    /**
+     * Commits the active transaction of the given session, if any; if committing fails, for example because of an optimistic locking failure
+     * while flushing, the transaction is rolled back, so that the connection can be reused safely.
+     * 
+     * <p/>
+     * If a recording is given, the session is flushed explicitly before committing, so that flushing and committing can be timed separately.
+     */
+    private static void commit(Session session, UnitOfWorkRecording recording)
+    {
+        Transaction tx = getActiveTransaction(session);
+        if(tx == null)
+            return;
+        
+        try
+        {
+            if(recording == null)
+            {
+                tx.commit();
+                return;
+            }
+            
+            long start = System.nanoTime();
+            if(session.getFlushMode() != FlushMode.MANUAL)
+            {
+                session.flush();
+                session.setFlushMode(FlushMode.MANUAL);
+                
+                long now = System.nanoTime();
+                recording.flushNanos = now - start;
+                start = now;
+            }
+            
+            tx.commit();
+            recording.commitNanos = System.nanoTime() - start;
+        }
+        catch(RuntimeException e)
+        {
+            rollbackAfterFailedCommit(session);
+            throw e;
+        }
+    }
+    
+    /**
+     * Commits the active transaction of the given stateless session, if any, and rolls it back if committing fails,
+     * like {@link #commit(Session, UnitOfWorkRecording)}.
+     */
+    private static void commit(StatelessSession statelessSession)
+    {
+        Transaction tx = getActiveTransaction(statelessSession);
+        if(tx == null)
+            return;
+        
+        try
+        {
+            tx.commit();
+        }
+        catch(RuntimeException e)
+        {
+            rollbackAfterFailedCommit(statelessSession);
+            throw e;
+        }
+    }
+    
+    private static void rollbackAfterFailedCommit(SharedSessionContract session)
+    {
+        try
+        {
+            Transaction tx = getActiveTransaction(session);
+            if(tx != null)
+                tx.rollback();
+        }
+        catch(RuntimeException re)
+        {
+            log.warn("Could not roll back transaction after failed commit.", re);
+        }
+    }
+    
+    private static Transaction getActiveTransaction(SharedSessionContract session)
     {
         Transaction tx = session.getTransaction();
         if(tx != null && tx.isActive())
@@ -181,11 +771,24 @@ public class DefaultHibernateRepository implements HibernateRepository
             throw new IllegalStateException("Attempting to access the current session without a UnitOfWork.");
         
         if(currentSession.get() == null)
+        {
+            if(currentStatelessSession.get() != null)
+                throw new IllegalStateException("Attempting to access the current session within a stateless UnitOfWork.");
             throw new AssertionError("Should be impossible.");
+        }
         
         return currentSession.get();
     }
     
+    @Override
+    public StatelessSession currentStatelessSession()
+    {
+        if(currentStatelessSession.get() == null)
+            throw new IllegalStateException("Attempting to access the current stateless session without a stateless UnitOfWork.");
+        
+        return currentStatelessSession.get();
+    }
+    
     private Session session()
     {
         if(currentSession.get() != null)
@@ -193,9 +796,8 @@ public class DefaultHibernateRepository implements HibernateRepository
         return sessionFactory.openSession();
     }
     
-    private static SessionFactory buildSessionFactory(HibernateConfiguration hibernateCfg)
+    private static SessionFactory buildSessionFactory(Configuration nativeCfg)
     {
-        Configuration nativeCfg = toNativeHibernateConfiguration(hibernateCfg);
         ServiceRegistryBuilder builder = new ServiceRegistryBuilder();
         builder.applySettings(nativeCfg.getProperties());
         return nativeCfg.buildSessionFactory(builder.buildServiceRegistry());
@@ -213,6 +815,31 @@ public class DefaultHibernateRepository implements HibernateRepository
         cfg.setProperty("hibernate.connection.driver_class", hibernateCfg.getDbDriverClass().getCanonicalName());
         cfg.setProperty("hibernate.hbm2ddl.auto", hibernateCfg.getHbm2dllAuto().toString());
         
+        if(hibernateCfg.getJdbcBatchSize() > 0)
+        {
+            cfg.setProperty(Environment.STATEMENT_BATCH_SIZE, String.valueOf(hibernateCfg.getJdbcBatchSize()));
+            cfg.setProperty(Environment.ORDER_INSERTS, "true");
+            cfg.setProperty(Environment.ORDER_UPDATES, "true");
+        }
+        
+        ConnectionPoolSettings poolSettings = hibernateCfg.getConnectionPoolSettings();
+        if(poolSettings != null && (configuresConnectionProvider(cfg.getProperties()) 
+                || (hibernateCfg.getProperties() != null && configuresConnectionProvider(hibernateCfg.getProperties()))))
+        {
+            log.info("Not using " + PooledConnectionProvider.class.getSimpleName() + ", as the properties configure a connection provider already.");
+            poolSettings = null;
+        }
+        
+        if(poolSettings != null)
+        {
+            cfg.setProperty(Environment.CONNECTION_PROVIDER, PooledConnectionProvider.class.getName());
+            cfg.setProperty(ConnectionPoolSettings.MIN_SIZE_KEY, String.valueOf(poolSettings.getMinSize()));
+            cfg.setProperty(ConnectionPoolSettings.MAX_SIZE_KEY, String.valueOf(poolSettings.getMaxSize()));
+            cfg.setProperty(ConnectionPoolSettings.ACQUIRE_TIMEOUT_KEY, String.valueOf(poolSettings.getAcquireTimeoutMillis()));
+            cfg.setProperty(ConnectionPoolSettings.IDLE_TIMEOUT_KEY, String.valueOf(poolSettings.getIdleTimeoutMillis()));
+            cfg.setProperty(ConnectionPoolSettings.STATEMENT_CACHE_SIZE_KEY, String.valueOf(poolSettings.getStatementCacheSize()));
+        }
+        
         if(hibernateCfg.getProperties() != null)
         {
             for(Map.Entry<String, String> entry : hibernateCfg.getProperties().entrySet())
@@ -223,6 +850,52 @@ public class DefaultHibernateRepository implements HibernateRepository
         return cfg;
     }
     
+    /**
+     * Checks if the given properties configure a connection provider, a data source or a c3p0 or proxool pool.
+     */
+    private static boolean configuresConnectionProvider(Map<?, ?> props)
+    {
+        for(Object key : props.keySet())
+        {
+            String name = String.valueOf(key);
+            if(Environment.CONNECTION_PROVIDER.equals(name) || Environment.DATASOURCE.equals(name)
+                    || name.startsWith(Environment.C3P0_CONFIG_PREFIX + ".") || name.startsWith(Environment.PROXOOL_CONFIG_PREFIX + "."))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static int jdbcBatchSize(Configuration nativeCfg)
+    {
+        return Math.max(0, intProperty(nativeCfg, Environment.STATEMENT_BATCH_SIZE, 0));
+    }
+    
+    private static int connectionPoolSize(Configuration nativeCfg)
+    {
+        if(PooledConnectionProvider.class.getName().equals(nativeCfg.getProperty(Environment.CONNECTION_PROVIDER)))
+            return Math.max(1, intProperty(nativeCfg, ConnectionPoolSettings.MAX_SIZE_KEY, ConnectionPoolSettings.DEFAULTS.getMaxSize()));
+        return Math.max(1, intProperty(nativeCfg, Environment.POOL_SIZE, DEFAULT_POOL_SIZE));
+    }
+    
+    private static int intProperty(Configuration nativeCfg, String key, int defaultValue)
+    {
+        String value = nativeCfg.getProperty(key);
+        if(value == null)
+            return defaultValue;
+        
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException e)
+        {
+            log.warn("Ignoring illegal value for " + key + ": '" + value + "'.");
+            return defaultValue;
+        }
+    }
+    
     /**
      * This method makes sure that the database driver is properly initialized.
      * 
@@ -20,6 +20,8 @@ import java.util.Map;
 
 import org.hibernate.dialect.Dialect;
 
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
+
 /**
  * The database configuration.
  * 
@@ -73,8 +75,62 @@ public interface HibernateConfiguration
      */
     HibernateHbm2dllAuto getHbm2dllAuto();
     
+    /**
+     * The value of {@literal hibernate.jdbc.batch_size}, or 0 if JDBC batching should not be used.
+     * 
+     * <p/>
+     * If greater than 0, inserts and updates are also ordered, so that they can be batched more efficiently, and
+     * {@link HibernateRepository#executeUnitsOfWork(Iterable, BatchSettings)} flushes the session after this number of units by default.
+     * 
+     * @since 3.0.0
+     */
+    int getJdbcBatchSize();
+    
+    /**
+     * The maximum number of units of work that wait for execution in {@link HibernateRepository#submit(at.ipsquare.commons.core.interfaces.UnitOfWork)}.
+     * 
+     * @since 3.0.0
+     */
+    int getAsyncQueueCapacity();
+    
+    /**
+     * The settings used by {@link HibernateRepository#executeUnitOfWork(at.ipsquare.commons.core.interfaces.UnitOfWork)} for retrying units of work,
+     * that failed because of transient problems like deadlocks.
+     * 
+     * @since 3.0.0
+     */
+    RetrySettings getRetrySettings();
+    
+    /**
+     * Decides which units of work executed by {@link HibernateRepository#executeUnitOfWork(at.ipsquare.commons.core.interfaces.UnitOfWork)}
+     * are instrumented; <code>null</code> disables instrumentation.
+     * 
+     * <p/>
+     * The returned sampler serves as a template: units are sampled separately per {@link at.ipsquare.commons.core.interfaces.UnitOfWork#getName() name},
+     * so rate limits apply per name. The timings and counts of sampled units are aggregated by {@link UnitOfWorkStatistics}, and logged at
+     * <code>INFO</code> level.
+     * 
+     * @since 3.0.0
+     */
+    PerformanceLogSampler getUnitOfWorkSampler();
+    
+    /**
+     * The settings for the connection pool provided by {@link PooledConnectionProvider}, or <code>null</code> if you want to configure
+     * a different {@link org.hibernate.service.jdbc.connections.spi.ConnectionProvider} using {@link #getProperties()}.
+     * 
+     * <p/>
+     * These settings are ignored if the properties already configure a connection provider, a data source, or a c3p0 or proxool pool.
+     * Note that without a pool, Hibernate falls back to a built in pool that is not meant for production use.
+     * 
+     * @since 3.0.0
+     */
+    ConnectionPoolSettings getConnectionPoolSettings();
+    
     /**
      * A map of arbitrary hibernate configuration properties.
+     * 
+     * <p/>
+     * These properties are applied last, and therefore override values derived from other methods of this interface.
      */
     Map<String, String> getProperties();
 }
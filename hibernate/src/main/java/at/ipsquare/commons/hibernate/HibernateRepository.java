@@ -16,10 +16,13 @@
 package at.ipsquare.commons.hibernate;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
 
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 
+import at.ipsquare.commons.core.interfaces.AsyncUnitOfWorkExecutor;
 import at.ipsquare.commons.core.interfaces.ExecutionError;
 import at.ipsquare.commons.core.interfaces.UnitOfWork;
 import at.ipsquare.commons.core.interfaces.UnitOfWorkExecutor;
@@ -35,7 +38,7 @@ import at.ipsquare.commons.core.interfaces.UnitOfWorkExecutor;
  * @author Matthias Langer
  * @since 2.0.0
  */
-public interface HibernateRepository extends UnitOfWorkExecutor, Closeable
+public interface HibernateRepository extends UnitOfWorkExecutor, AsyncUnitOfWorkExecutor, Closeable
 {
     /**
      * Executes the given {@link UnitOfWork} within a single transaction.
@@ -48,6 +51,8 @@ public interface HibernateRepository extends UnitOfWorkExecutor, Closeable
      *          It is not an error to execute a {@link UnitOfWork} while another {@link UnitOfWork} is already executing. However note that
      *          when doing so the {@link Session} or the current {@link Transaction} is not modified.
      *      </li>
+     *      <li>Units that only read from the database should implement {@link ReadOnlyUnitOfWork}.</li>
+     *      <li>Failed units are retried as configured by {@link HibernateConfiguration#getRetrySettings()}; see {@link #executeUnitOfWork(UnitOfWork, RetrySettings)}.</li>
      *  </ul>
      * 
      * @param work a {@link UnitOfWork} that should be executed.
@@ -57,6 +62,92 @@ public interface HibernateRepository extends UnitOfWorkExecutor, Closeable
      */
     <T> T executeUnitOfWork(UnitOfWork<T> work);
     
+    /**
+     * Executes the given {@link UnitOfWork} like {@link #executeUnitOfWork(UnitOfWork)}, but retries it in a new session and transaction
+     * if it fails with an exception that is {@link RetrySettings#isRetryable(Throwable) retryable} according to the given settings.
+     * 
+     * <h4>Notes:</h4>
+     *  <ul>
+     *      <li>
+     *          If this method is called while another {@link UnitOfWork} is executing, the given unit is not retried, as it does not own
+     *          its transaction; the running unit might however be retried as a whole.
+     *      </li>
+     *      <li>The calling thread sleeps while waiting for the next attempt.</li>
+     *  </ul>
+     * 
+     * @param work a {@link UnitOfWork} that should be executed.
+     * @param settings settings for retrying the given unit.
+     * @return the result of the {@link UnitOfWork}.
+     * @throws ExecutionError if {@link UnitOfWork#execute()} throws an exception in the last attempt.
+     * @since 3.0.0
+     */
+    <T> T executeUnitOfWork(UnitOfWork<T> work, RetrySettings settings);
+    
+    /**
+     * Executes the given {@link UnitOfWork}s within a single session and transaction.
+     * 
+     * <h4>Notes:</h4>
+     *  <ul>
+     *      <li>The given units must not commit or roll back the current transaction.</li>
+     *      <li>The session is flushed and cleared periodically, as configured by {@link BatchSettings#withFlushInterval(int)}.</li>
+     *      <li>
+     *          If this method is called while another {@link UnitOfWork} is executing, the given units are simply executed
+     *          one after another within the running {@link UnitOfWork}, and the given settings are ignored.
+     *      </li>
+     *  </ul>
+     * 
+     * @param units the units of work that should be executed; they are consumed lazily.
+     * @param settings settings for executing the batch.
+     * @return the results of the given units.
+     * @throws ExecutionError if {@link UnitOfWork#execute()} throws an exception for one of the given units, and failures are not isolated
+     *  (see {@link BatchSettings#withFailureIsolation(boolean)}); the whole batch is rolled back in this case.
+     * @since 3.0.0
+     */
+    <T> BatchResult<T> executeUnitsOfWork(Iterable<? extends UnitOfWork<? extends T>> units, BatchSettings settings);
+    
+    /**
+     * Executes the given {@link UnitOfWork} within a single transaction, using a {@link StatelessSession} instead of a {@link Session}.
+     * 
+     * <p/>
+     * Stateless sessions do not keep loaded entities in memory, which makes them suitable for processing large amounts of rows,
+     * for example using {@link HibernateStreams}. Apart from that, this method behaves like {@link #executeUnitOfWork(UnitOfWork)}.
+     * 
+     * <h4>Notes:</h4>
+     *  <ul>
+     *      <li>The {@link StatelessSession} can be accessed by calling {@link #currentStatelessSession()}; {@link #currentSession()} is not available.</li>
+     *      <li>
+     *          If this method is called while another {@link UnitOfWork} is executing, the stateless session uses the connection and the transaction of the
+     *          running {@link UnitOfWork}; its session is flushed beforehand, unless its flush mode is manual.
+     *      </li>
+     *  </ul>
+     * 
+     * @param work a {@link UnitOfWork} that should be executed.
+     * @return the result of the {@link UnitOfWork}.
+     * @throws ExecutionError if {@link UnitOfWork#execute()} throws an exception.
+     * @since 3.0.0
+     */
+    <T> T executeStatelessUnitOfWork(UnitOfWork<T> work);
+    
+    /**
+     * Executes the given {@link UnitOfWork} asynchronously, like {@link #executeUnitOfWork(UnitOfWork)}, on a bounded number of threads.
+     * 
+     * <h4>Notes:</h4>
+     *  <ul>
+     *      <li>
+     *          The number of threads matches the size of the connection pool, so that waiting for a connection happens in the queue
+     *          of the executor, instead of blocking the calling thread. If the queue is full, the returned future fails right away.
+     *      </li>
+     *      <li>
+     *          The given {@link UnitOfWork} is always executed in a session and transaction of its own, even if another {@link UnitOfWork} is
+     *          currently executing in the calling thread.
+     *      </li>
+     *  </ul>
+     * 
+     * @since 3.0.0
+     */
+    @Override
+    <T> CompletableFuture<T> submit(UnitOfWork<T> work);
+    
     /**
      * Returns the currently open session for this thread.
      * 
@@ -64,6 +155,14 @@ public interface HibernateRepository extends UnitOfWorkExecutor, Closeable
      */
     Session currentSession();
     
+    /**
+     * Returns the currently open stateless session for this thread.
+     * 
+     * @throws IllegalStateException if no {@link UnitOfWork} is currently executing in this thread by {@link #executeStatelessUnitOfWork(UnitOfWork)}.
+     * @since 3.0.0
+     */
+    StatelessSession currentStatelessSession();
+    
     /**
      * Closes the repository (all acquired resources are released).
      */
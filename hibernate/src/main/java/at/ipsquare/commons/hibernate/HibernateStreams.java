@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+
+/**
+ * Utility methods for streaming query results using {@link ScrollableResults}.
+ * 
+ * <p>
+ *  Results are fetched from the database lazily, in chunks of the given fetch size; combined with a {@link StatelessSession}
+ *  (see {@link HibernateRepository#executeStatelessUnitOfWork(at.ipsquare.commons.core.interfaces.UnitOfWork)}), large result sets
+ *  can therefore be processed in constant memory. The returned streams must be consumed within the {@link at.ipsquare.commons.core.interfaces.UnitOfWork}
+ *  that created them, and should be closed afterwards, preferably using try-with-resources:
+ *  <pre>
+ *  try(Stream&lt;Customer&gt; customers = HibernateStreams.stream(repo.currentStatelessSession().createQuery("from Customer"), 1000, Customer.class))
+ *  {
+ *      customers.forEach(exporter);
+ *  }
+ *  </pre>
+ *  Note that some JDBC drivers ignore the fetch size or need special values; MySQL for example only streams results if the fetch size is
+ *  {@link Integer#MIN_VALUE}.
+ * </p>
+ * 
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+public final class HibernateStreams
+{
+    /**
+     * Streams the results of the given query.
+     * 
+     * @param query the query to execute; it is configured to be read only and to use the given fetch size.
+     * @param fetchSize the JDBC fetch size.
+     * @param type the type of the results, or <code>Object[].class</code> to get whole rows for queries returning multiple values per row.
+     * @return a sequential stream of query results, that closes the underlying {@link ScrollableResults} when being closed.
+     * @throws ClassCastException when consuming results that are not of the given type.
+     */
+    public static <T> Stream<T> stream(Query query, int fetchSize, Class<T> type)
+    {
+        query.setFetchSize(fetchSize);
+        query.setReadOnly(true);
+        return stream(query.scroll(ScrollMode.FORWARD_ONLY), type);
+    }
+    
+    /**
+     * Streams the results of the given criteria.
+     * 
+     * @see #stream(Query, int, Class)
+     */
+    public static <T> Stream<T> stream(Criteria criteria, int fetchSize, Class<T> type)
+    {
+        criteria.setFetchSize(fetchSize);
+        criteria.setReadOnly(true);
+        return stream(criteria.scroll(ScrollMode.FORWARD_ONLY), type);
+    }
+    
+    /**
+     * Streams the given results.
+     * 
+     * @param results the results to stream; they are closed together with the returned stream.
+     * @param type the type of the results, or <code>Object[].class</code> to get whole rows.
+     * @return a sequential stream of results.
+     * @throws ClassCastException when consuming results that are not of the given type.
+     */
+    public static <T> Stream<T> stream(final ScrollableResults results, final Class<T> type)
+    {
+        if(results == null || type == null)
+            throw new NullPointerException();
+        
+        Iterator<T> iterator = new Iterator<T>()
+        {
+            private Boolean hasNext;
+            
+            @Override
+            public boolean hasNext()
+            {
+                if(hasNext == null)
+                    hasNext = results.next();
+                return hasNext;
+            }
+            
+            @Override
+            public T next()
+            {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                
+                hasNext = null;
+                Object value = (type == Object[].class) ? results.get() : results.get(0);
+                return type.cast(value);
+            }
+        };
+        
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false).onClose(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                results.close();
+            }
+        });
+    }
+    
+    private HibernateStreams()
+    {
+        
+    }
+}
@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.hibernate.cfg.Environment;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ipsquare.commons.core.util.LatencyHistogram;
+
+/**
+ * A pooling {@link ConnectionProvider} that is used by {@link DefaultHibernateRepository} unless {@link HibernateConfiguration#getConnectionPoolSettings()}
+ * returns <code>null</code>.
+ * 
+ * <p>
+ *  Idle connections are handed out in LIFO order, so that a small number of hot connections is reused while the rest can be evicted
+ *  after {@link ConnectionPoolSettings#getIdleTimeoutMillis()}. Threads that find all {@link ConnectionPoolSettings#getMaxSize() connections} in use
+ *  wait in FIFO order until a connection is returned or {@link ConnectionPoolSettings#getAcquireTimeoutMillis() the acquire timeout} expires.
+ *  The pool is configured using the properties defined in {@link ConnectionPoolSettings}, and the usual <code>hibernate.connection.*</code> properties.
+ * </p>
+ * 
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable
+{
+    private static final long serialVersionUID = 1L;
+    
+    private static final Logger log = LoggerFactory.getLogger(PooledConnectionProvider.class);
+    
+    private static final AtomicInteger evictorThreadCount = new AtomicInteger();
+    
+    /**
+     * An idle connection, together with the time it has been returned to the pool.
+     */
+    private static final class IdleConnection
+    {
+        final Connection connection;
+        final long idleSinceNanos;
+        
+        IdleConnection(Connection connection)
+        {
+            this.connection = connection;
+            this.idleSinceNanos = System.nanoTime();
+        }
+    }
+    
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final LatencyHistogram acquireWaitTimes = new LatencyHistogram();
+    
+    private volatile ConnectionPoolSettings settings;
+    private volatile String url;
+    private volatile Properties connectionProps;
+    private volatile Integer isolation;
+    private volatile boolean autoCommit;
+    private volatile Semaphore permits;
+    private volatile ScheduledExecutorService evictor;
+    private volatile boolean stopped;
+    
+    @Override
+    public void configure(@SuppressWarnings("rawtypes") Map configurationValues)
+    {
+        ConnectionPoolSettings defaults = ConnectionPoolSettings.DEFAULTS;
+        settings = defaults
+                .withMaxSize(ConfigurationHelper.getInt(ConnectionPoolSettings.MAX_SIZE_KEY, configurationValues, defaults.getMaxSize()))
+                .withMinSize(ConfigurationHelper.getInt(ConnectionPoolSettings.MIN_SIZE_KEY, configurationValues, defaults.getMinSize()))
+                .withAcquireTimeout(longValue(ConnectionPoolSettings.ACQUIRE_TIMEOUT_KEY, configurationValues, defaults.getAcquireTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .withIdleTimeout(longValue(ConnectionPoolSettings.IDLE_TIMEOUT_KEY, configurationValues, defaults.getIdleTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .withStatementCacheSize(ConfigurationHelper.getInt(ConnectionPoolSettings.STATEMENT_CACHE_SIZE_KEY, configurationValues, defaults.getStatementCacheSize()));
+        
+        url = (String) configurationValues.get(Environment.URL);
+        if(url == null)
+            throw new IllegalArgumentException("No JDBC URL specified by property " + Environment.URL + ".");
+        
+        @SuppressWarnings("unchecked")
+        Properties props = ConnectionProviderInitiator.getConnectionProperties(configurationValues);
+        connectionProps = props;
+        isolation = ConfigurationHelper.getInteger(Environment.ISOLATION, configurationValues);
+        autoCommit = ConfigurationHelper.getBoolean(Environment.AUTOCOMMIT, configurationValues);
+        permits = new Semaphore(settings.getMaxSize(), true);
+        
+        log.info("Configuring connection pool for " + url + " with " + settings + ".");
+        List<Connection> initial = new ArrayList<Connection>(settings.getMinSize());
+        try
+        {
+            for(int i = 0; i < settings.getMinSize(); i++)
+                initial.add(open());
+        }
+        catch(SQLException e)
+        {
+            log.warn("Could not open the minimum number of connections.", e);
+        }
+        
+        for(Connection c : initial)
+            idle.offerFirst(new IdleConnection(c));
+        
+        if(settings.getIdleTimeoutMillis() > 0)
+        {
+            long period = Math.max(TimeUnit.SECONDS.toMillis(1), settings.getIdleTimeoutMillis() / 2);
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, PooledConnectionProvider.class.getSimpleName() + "-evictor-" + evictorThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            evictor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    evictIdleConnections();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        if(stopped)
+            throw new SQLException("The connection pool for " + url + " has been stopped.");
+        
+        long start = System.nanoTime();
+        try
+        {
+            if(!permits.tryAcquire(settings.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS))
+            {
+                throw new SQLTimeoutException("Timed out after " + settings.getAcquireTimeoutMillis() + "ms waiting for one of "
+                        + settings.getMaxSize() + " connections to " + url + ".");
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + url + ".", e);
+        }
+        finally
+        {
+            acquireWaitTimes.record(System.nanoTime() - start);
+        }
+        
+        try
+        {
+            IdleConnection candidate;
+            while((candidate = idle.pollFirst()) != null)
+            {
+                if(!candidate.connection.isClosed())
+                    return candidate.connection;
+                discard(candidate.connection);
+            }
+            return open();
+        }
+        catch(SQLException | RuntimeException e)
+        {
+            permits.release();
+            throw e;
+        }
+    }
+    
+    @Override
+    public void closeConnection(Connection conn) throws SQLException
+    {
+        try
+        {
+            if(stopped || conn.isClosed())
+            {
+                discard(conn);
+                return;
+            }
+            
+            /*
+             * Roll back whatever the previous borrower left pending; note that switching to autoCommit would commit it instead:
+             */
+            if(!conn.getAutoCommit())
+                conn.rollback();
+            if(conn.getAutoCommit() != autoCommit)
+                conn.setAutoCommit(autoCommit);
+            if(conn.isReadOnly())
+                conn.setReadOnly(false);
+            conn.clearWarnings();
+            idle.offerFirst(new IdleConnection(conn));
+        }
+        catch(SQLException e)
+        {
+            log.warn("Discarding connection that could not be reset.", e);
+            discard(conn);
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+    
+    @Override
+    public boolean supportsAggressiveRelease()
+    {
+        return false;
+    }
+    
+    @Override
+    public void stop()
+    {
+        stopped = true;
+        if(evictor != null)
+            evictor.shutdownNow();
+        
+        IdleConnection candidate;
+        while((candidate = idle.pollFirst()) != null)
+            discard(candidate.connection);
+        
+        log.info("Stopped connection pool for " + url + "; " + openCount.get() + " connections are still in use.");
+    }
+    
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType)
+    {
+        return unwrapType.isInstance(this);
+    }
+    
+    @Override
+    public <T> T unwrap(Class<T> unwrapType)
+    {
+        if(isUnwrappableAs(unwrapType))
+            return unwrapType.cast(this);
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+    
+    /**
+     * The settings this pool has been configured with.
+     */
+    public ConnectionPoolSettings getSettings()
+    {
+        return settings;
+    }
+    
+    /**
+     * The number of connections that are currently in use.
+     */
+    public int activeCount()
+    {
+        return Math.max(0, openCount.get() - idle.size());
+    }
+    
+    /**
+     * The number of open connections that are currently not in use.
+     */
+    public int idleCount()
+    {
+        return idle.size();
+    }
+    
+    /**
+     * An estimate of the number of threads that are currently waiting for a connection.
+     */
+    public int waiterCount()
+    {
+        return permits.getQueueLength();
+    }
+    
+    /**
+     * Returns a snapshot of the times threads had to wait in {@link #getConnection()}, including timed out attempts.
+     */
+    public LatencyHistogram.Snapshot acquireWaitTimes()
+    {
+        return acquireWaitTimes.snapshot();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [url=" + url + ", active=" + activeCount() + ", idle=" + idleCount() + ", waiters=" + waiterCount() + "]";
+    }
+    
+    private Connection open() throws SQLException
+    {
+        Connection conn = DriverManager.getConnection(url, connectionProps);
+        try
+        {
+            if(isolation != null)
+                conn.setTransactionIsolation(isolation);
+            if(conn.getAutoCommit() != autoCommit)
+                conn.setAutoCommit(autoCommit);
+        }
+        catch(SQLException e)
+        {
+            closeQuietly(conn);
+            throw e;
+        }
+        
+        openCount.incrementAndGet();
+        if(settings.getStatementCacheSize() > 0)
+            return StatementCachingConnection.wrap(conn, settings.getStatementCacheSize());
+        return conn;
+    }
+    
+    private void discard(Connection conn)
+    {
+        openCount.decrementAndGet();
+        closeQuietly(conn);
+    }
+    
+    /**
+     * Closes connections that have been idle for longer than the idle timeout, starting with the least recently used ones,
+     * as long as more than the minimum number of connections are open.
+     */
+    private void evictIdleConnections()
+    {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.getIdleTimeoutMillis());
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while(it.hasNext() && openCount.get() > settings.getMinSize())
+        {
+            IdleConnection candidate = it.next();
+            if(now - candidate.idleSinceNanos < timeoutNanos)
+                break;
+            
+            if(idle.removeLastOccurrence(candidate))
+            {
+                log.debug("Evicting connection to " + url + " that has been idle for " + TimeUnit.NANOSECONDS.toMillis(now - candidate.idleSinceNanos) + "ms.");
+                discard(candidate.connection);
+            }
+        }
+    }
+    
+    private static long longValue(String key, @SuppressWarnings("rawtypes") Map configurationValues, long defaultValue)
+    {
+        Object value = configurationValues.get(key);
+        if(value == null)
+            return defaultValue;
+        if(value instanceof Number)
+            return ((Number) value).longValue();
+        return Long.parseLong(value.toString().trim());
+    }
+    
+    private static void closeQuietly(Connection conn)
+    {
+        try
+        {
+            conn.close();
+        }
+        catch(SQLException e)
+        {
+            log.warn("Could not close connection.", e);
+        }
+    }
+}
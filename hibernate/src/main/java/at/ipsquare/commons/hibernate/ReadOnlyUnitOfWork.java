@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+
+/**
+ * Marks a {@link UnitOfWork} that only reads from the database.
+ * 
+ * <p>
+ *  {@link DefaultHibernateRepository} executes such units with {@link FlushMode#MANUAL} and {@link Session#setDefaultReadOnly(boolean) read only}
+ *  entities, so that Hibernate neither keeps snapshots of loaded entities nor dirty checks them on commit. If {@link PooledConnectionProvider} is used,
+ *  the JDBC connection is marked read only as well. Changes made by a read only unit are therefore not written to the database, unless the session
+ *  is flushed explicitly.
+ * </p>
+ * 
+ * <h4>Notes:</h4>
+ * <ul>
+ *  <li>
+ *      If a read only unit is executed within an already running {@link UnitOfWork}, it uses the session of the latter unchanged; however
+ *      units that are executed within a running read only unit are read only as well.
+ *  </li>
+ * </ul>
+ * 
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+public interface ReadOnlyUnitOfWork<T> extends UnitOfWork<T>
+{
+
+}
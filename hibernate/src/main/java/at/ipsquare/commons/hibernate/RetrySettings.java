@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.sql.SQLTransactionRollbackException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.Immutable;
+
+import org.hibernate.PessimisticLockException;
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.LockAcquisitionException;
+
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+
+/**
+ * Settings for retrying {@link UnitOfWork}s that failed because of transient problems like optimistic locking failures or deadlocks.
+ * 
+ * <p>
+ *  Failed units are retried in a new session and transaction, after a randomized, exponentially growing delay: Before the n-th retry,
+ *  {@link HibernateRepository#executeUnitOfWork(UnitOfWork, RetrySettings)} waits between 50% and 100% of
+ *  <code>min(maxBackoff, initialBackoff * 2<sup>n-1</sup>)</code>, so that competing units do not collide again right away.
+ *  Note that only changes to the database are rolled back; units that should be retried must not have other side effects, that cannot be repeated safely.
+ * </p>
+ * 
+ * @see HibernateConfiguration#getRetrySettings()
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@Immutable
+public final class RetrySettings
+{
+    /**
+     * The default settings: a single attempt (so no retries), an initial backoff of 20ms, a maximum backoff of 1s, and the default retryable exceptions
+     * (see {@link #withRetryableExceptions(Class...)}).
+     */
+    public static final RetrySettings DEFAULTS = new RetrySettings(1, 20, 1000, Collections.unmodifiableList(Arrays.<Class<? extends Throwable>>asList(
+            StaleStateException.class, LockAcquisitionException.class, PessimisticLockException.class, SQLTransactionRollbackException.class)));
+    
+    /**
+     * The maximum number of causes that are inspected by {@link #isRetryable(Throwable)}.
+     */
+    private static final int MAX_CAUSE_DEPTH = 32;
+    
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final List<Class<? extends Throwable>> retryableExceptions;
+    
+    private RetrySettings(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, List<Class<? extends Throwable>> retryableExceptions)
+    {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retryableExceptions = retryableExceptions;
+    }
+    
+    /**
+     * Returns settings with the given maximum number of attempts, including the first one.
+     * 
+     * @throws IllegalArgumentException if the given value is not positive.
+     */
+    public RetrySettings withMaxAttempts(int maxAttempts)
+    {
+        if(maxAttempts < 1)
+            throw new IllegalArgumentException("Not a legal number of attempts: " + maxAttempts);
+        return new RetrySettings(maxAttempts, initialBackoffMillis, maxBackoffMillis, retryableExceptions);
+    }
+    
+    /**
+     * Returns settings with the given initial and maximum backoff.
+     * 
+     * @throws IllegalArgumentException if one of the given values is negative, or if the maximum is smaller than the initial backoff.
+     */
+    public RetrySettings withBackoff(long initialBackoff, long maxBackoff, TimeUnit unit)
+    {
+        long initialMillis = unit.toMillis(initialBackoff);
+        long maxMillis = unit.toMillis(maxBackoff);
+        if(initialMillis < 0 || maxMillis < initialMillis)
+            throw new IllegalArgumentException("Not a legal backoff: " + initialMillis + "ms - " + maxMillis + "ms");
+        return new RetrySettings(maxAttempts, initialMillis, maxMillis, retryableExceptions);
+    }
+    
+    /**
+     * Returns settings that retry units failing with one of the given exceptions, or an exception caused by one of them.
+     * 
+     * <p>
+     *  The default settings retry {@link StaleStateException}s (like {@link org.hibernate.StaleObjectStateException}s thrown if optimistic locking fails),
+     *  {@link LockAcquisitionException}s, {@link PessimisticLockException}s, and {@link SQLTransactionRollbackException}s, which are thrown by JDBC 4 drivers
+     *  for deadlocks and serialization failures. Which exceptions are actually thrown depends on the database, the JDBC driver, and the Hibernate dialect.
+     * </p>
+     */
+    @SafeVarargs
+    public final RetrySettings withRetryableExceptions(Class<? extends Throwable>... exceptions)
+    {
+        for(Class<? extends Throwable> exception : exceptions)
+        {
+            if(exception == null)
+                throw new NullPointerException();
+        }
+        return new RetrySettings(maxAttempts, initialBackoffMillis, maxBackoffMillis,
+                Collections.unmodifiableList(Arrays.<Class<? extends Throwable>>asList(exceptions.clone())));
+    }
+    
+    /**
+     * See {@link #withMaxAttempts(int)}.
+     */
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+    
+    /**
+     * See {@link #withBackoff(long, long, TimeUnit)}.
+     */
+    public long getInitialBackoffMillis()
+    {
+        return initialBackoffMillis;
+    }
+    
+    /**
+     * See {@link #withBackoff(long, long, TimeUnit)}.
+     */
+    public long getMaxBackoffMillis()
+    {
+        return maxBackoffMillis;
+    }
+    
+    /**
+     * See {@link #withRetryableExceptions(Class...)}.
+     */
+    public List<Class<? extends Throwable>> getRetryableExceptions()
+    {
+        return retryableExceptions;
+    }
+    
+    /**
+     * Returns true if the given exception, or one of its causes, is an instance of one of the {@link #getRetryableExceptions() retryable exceptions}.
+     */
+    public boolean isRetryable(Throwable th)
+    {
+        Map<Throwable, Boolean> seen = new IdentityHashMap<Throwable, Boolean>();
+        for(Throwable current = th; current != null && seen.size() < MAX_CAUSE_DEPTH; current = current.getCause())
+        {
+            if(seen.put(current, Boolean.TRUE) != null)
+                return false;
+            
+            for(Class<? extends Throwable> exception : retryableExceptions)
+            {
+                if(exception.isInstance(current))
+                    return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the delay in milliseconds before the given retry.
+     * 
+     * @param retry the number of the retry, starting with 1.
+     * @param random the source of randomness used for jittering the delay.
+     */
+    long backoffMillis(int retry, Random random)
+    {
+        long cap = initialBackoffMillis << Math.min(retry - 1, 30);
+        if(cap > maxBackoffMillis || cap < 0)
+            cap = maxBackoffMillis;
+        
+        long half = cap / 2;
+        return cap - half + (long) (random.nextDouble() * (half + 1));
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "RetrySettings [maxAttempts=" + maxAttempts + ", initialBackoffMillis=" + initialBackoffMillis + ", maxBackoffMillis=" + maxBackoffMillis
+                + ", retryableExceptions=" + retryableExceptions + "]";
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps pooled {@link Connection}s, so that {@link PreparedStatement}s created by {@link Connection#prepareStatement(String)}
+ * are reused if the same SQL is prepared again.
+ * 
+ * <p>
+ *  Closing a cached statement returns it to the cache instead; the least recently used statements are closed when the cache is full,
+ *  and all statements are closed together with the connection. Parameters and settings that Hibernate applies per query, like
+ *  the maximum number of rows or the query timeout, are reset before a statement is reused. Like JDBC connections themselves,
+ *  wrapped connections must not be used by multiple threads concurrently.
+ * </p>
+ * 
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@NotThreadSafe
+final class StatementCachingConnection implements InvocationHandler
+{
+    private static final Logger log = LoggerFactory.getLogger(StatementCachingConnection.class);
+    
+    /**
+     * Methods that change settings which are reset by {@link CachedStatement#release()}.
+     */
+    private static final Set<String> SETTINGS_METHODS = new HashSet<String>(Arrays.asList(
+            "setMaxRows", "setLargeMaxRows", "setQueryTimeout", "setFetchSize", "setFetchDirection", "setMaxFieldSize"));
+    
+    private final Connection connection;
+    private final Map<String, CachedStatement> statements;
+    private Connection proxy;
+    
+    /**
+     * Wraps the given connection.
+     * 
+     * @param connection the connection to wrap.
+     * @param cacheSize the maximum number of statements to cache.
+     */
+    static Connection wrap(Connection connection, int cacheSize)
+    {
+        StatementCachingConnection handler = new StatementCachingConnection(connection, cacheSize);
+        handler.proxy = (Connection) Proxy.newProxyInstance(
+                StatementCachingConnection.class.getClassLoader(), new Class<?>[] { Connection.class }, handler);
+        return handler.proxy;
+    }
+    
+    private StatementCachingConnection(Connection connection, final int cacheSize)
+    {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest)
+            {
+                if(size() <= cacheSize)
+                    return false;
+                
+                eldest.getValue().evicted = true;
+                if(!eldest.getValue().inUse)
+                    closeQuietly(eldest.getValue().statement);
+                return true;
+            }
+        };
+    }
+    
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        String name = method.getName();
+        if("prepareStatement".equals(name) && args.length == 1)
+            return prepareStatement((String) args[0]);
+        if("close".equals(name))
+        {
+            closeStatements();
+            connection.close();
+            return null;
+        }
+        if("equals".equals(name))
+            return proxy == args[0];
+        if("hashCode".equals(name))
+            return System.identityHashCode(proxy);
+        if("toString".equals(name))
+            return "StatementCachingConnection [" + connection + "]";
+        
+        return invokeOn(connection, method, args);
+    }
+    
+    private PreparedStatement prepareStatement(String sql) throws SQLException
+    {
+        CachedStatement cached = statements.get(sql);
+        if(cached == null || cached.inUse || cached.statement.isClosed())
+        {
+            if(cached != null && cached.inUse)
+                return connection.prepareStatement(sql);
+            
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try
+            {
+                cached = new CachedStatement(statement);
+            }
+            catch(SQLException e)
+            {
+                closeQuietly(statement);
+                throw e;
+            }
+            statements.put(sql, cached);
+        }
+        
+        cached.inUse = true;
+        return cached.newProxy();
+    }
+    
+    private void closeStatements()
+    {
+        for(Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext();)
+        {
+            CachedStatement cached = it.next();
+            it.remove();
+            cached.evicted = true;
+            closeQuietly(cached.statement);
+        }
+    }
+    
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+    
+    private static void closeQuietly(PreparedStatement statement)
+    {
+        try
+        {
+            statement.close();
+        }
+        catch(SQLException e)
+        {
+            log.warn("Could not close statement.", e);
+        }
+    }
+    
+    /**
+     * A cached statement; only one logical handle may use it at a time.
+     */
+    private final class CachedStatement
+    {
+        final PreparedStatement statement;
+        final int defaultMaxRows;
+        final int defaultQueryTimeout;
+        final int defaultFetchSize;
+        final int defaultFetchDirection;
+        final int defaultMaxFieldSize;
+        boolean inUse;
+        boolean evicted;
+        boolean settingsChanged;
+        
+        CachedStatement(PreparedStatement statement) throws SQLException
+        {
+            this.statement = statement;
+            this.defaultMaxRows = statement.getMaxRows();
+            this.defaultQueryTimeout = statement.getQueryTimeout();
+            this.defaultFetchSize = statement.getFetchSize();
+            this.defaultFetchDirection = statement.getFetchDirection();
+            this.defaultMaxFieldSize = statement.getMaxFieldSize();
+        }
+        
+        PreparedStatement newProxy()
+        {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCachingConnection.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler()
+            {
+                private boolean closed;
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    String name = method.getName();
+                    if("close".equals(name))
+                    {
+                        if(!closed)
+                        {
+                            closed = true;
+                            release();
+                        }
+                        return null;
+                    }
+                    if("isClosed".equals(name))
+                        return closed || statement.isClosed();
+                    if("equals".equals(name))
+                        return proxy == args[0];
+                    if("hashCode".equals(name))
+                        return System.identityHashCode(proxy);
+                    if("toString".equals(name))
+                        return "CachedStatement [" + statement + "]";
+                    if(closed)
+                        throw new SQLException("Statement has already been closed.");
+                    if("getConnection".equals(name))
+                        return StatementCachingConnection.this.proxy;
+                    if(SETTINGS_METHODS.contains(name))
+                        settingsChanged = true;
+                    
+                    return invokeOn(statement, method, args);
+                }
+            });
+        }
+        
+        void release() throws SQLException
+        {
+            inUse = false;
+            if(evicted || statement.isClosed())
+            {
+                statement.close();
+                return;
+            }
+            
+            if(settingsChanged && !resetSettings())
+                return;
+            
+            statement.clearParameters();
+            statement.clearWarnings();
+            try
+            {
+                statement.clearBatch();
+            }
+            catch(SQLException e)
+            {
+                // Batches not supported.
+            }
+        }
+        
+        /**
+         * Restores the settings the statement had when it was prepared; if that fails, the statement is closed, so that
+         * it is prepared again next time.
+         * 
+         * @return true if the statement can be reused.
+         */
+        private boolean resetSettings()
+        {
+            try
+            {
+                statement.setMaxRows(defaultMaxRows);
+                statement.setQueryTimeout(defaultQueryTimeout);
+                statement.setFetchSize(defaultFetchSize);
+                statement.setFetchDirection(defaultFetchDirection);
+                statement.setMaxFieldSize(defaultMaxFieldSize);
+                settingsChanged = false;
+                return true;
+            }
+            catch(SQLException e)
+            {
+                log.debug("Could not reset statement settings; closing it.", e);
+                evicted = true;
+                closeQuietly(statement);
+                return false;
+            }
+        }
+    }
+}
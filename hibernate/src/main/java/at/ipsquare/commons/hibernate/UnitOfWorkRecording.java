@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.type.Type;
+
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+
+/**
+ * Collects timings and counts for a single execution of a {@link UnitOfWork}; installed as session scoped interceptor,
+ * so that entity loads and prepared statements can be attributed to the session of the unit.
+ * 
+ * @see UnitOfWorkStatistics
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@NotThreadSafe
+final class UnitOfWorkRecording extends EmptyInterceptor
+{
+    private static final long serialVersionUID = 1L;
+    
+    long openNanos = -1;
+    long executeNanos = -1;
+    long flushNanos = -1;
+    long commitNanos = -1;
+    long rollbackNanos = -1;
+    long entityLoads;
+    long statements;
+    boolean failed;
+    
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types)
+    {
+        ++entityLoads;
+        return false;
+    }
+    
+    @Override
+    public String onPrepareStatement(String sql)
+    {
+        ++statements;
+        return sql;
+    }
+    
+    /**
+     * Returns a summary of this recording, that is meant for logging.
+     */
+    String summary(UnitOfWork<?> work)
+    {
+        StringBuilder sb = new StringBuilder(128)
+            .append(failed ? "Failed " : "Executed ").append(work).append(": open ").append(millis(openNanos))
+            .append(", execute ").append(millis(executeNanos));
+        if(flushNanos >= 0)
+            sb.append(", flush ").append(millis(flushNanos));
+        if(commitNanos >= 0)
+            sb.append(", commit ").append(millis(commitNanos));
+        if(rollbackNanos >= 0)
+            sb.append(", rollback ").append(millis(rollbackNanos));
+        return sb.append("; ").append(entityLoads).append(" entities loaded, ").append(statements).append(" statements prepared.").toString();
+    }
+    
+    private static String millis(long nanos)
+    {
+        return (nanos < 0) ? "-" : (TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0) + "ms";
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import at.ipsquare.commons.core.interfaces.UnitOfWork;
+import at.ipsquare.commons.core.util.LatencyHistogram;
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
+
+/**
+ * Aggregated timings and counts of the {@link UnitOfWork}s executed by a {@link DefaultHibernateRepository}, per {@link UnitOfWork#getName() name}.
+ * 
+ * <p>
+ *  Only units selected by the {@link HibernateConfiguration#getUnitOfWorkSampler() sampler} are recorded; their values are weighted, so that
+ *  counts approximate the totals of all executions. Each name is sampled by its own copy of the configured sampler, so that rate limits apply per name,
+ *  and executions skipped for one name are never credited to another. Units without a name are recorded under the name of their class. Note that names
+ *  should come from a small, fixed set, as statistics are kept for every name until {@link #reset()} is called.
+ * </p>
+ * 
+ * @see DefaultHibernateRepository#getUnitOfWorkStatistics()
+ * @since 3.0.0
+ * @author Matthias Langer
+ */
+@ThreadSafe
+public final class UnitOfWorkStatistics
+{
+    private static final class Entry
+    {
+        final PerformanceLogSampler sampler;
+        final LongAdder executions = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder entityLoads = new LongAdder();
+        final LongAdder statements = new LongAdder();
+        final LatencyHistogram openTimes = new LatencyHistogram();
+        final LatencyHistogram executionTimes = new LatencyHistogram();
+        final LatencyHistogram flushTimes = new LatencyHistogram();
+        final LatencyHistogram commitTimes = new LatencyHistogram();
+        final LatencyHistogram rollbackTimes = new LatencyHistogram();
+        
+        Entry(PerformanceLogSampler sampler)
+        {
+            this.sampler = sampler;
+        }
+    }
+    
+    private final PerformanceLogSampler sampler;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    
+    /**
+     * @param sampler the sampler that is copied for each name.
+     */
+    UnitOfWorkStatistics(PerformanceLogSampler sampler)
+    {
+        this.sampler = sampler;
+    }
+    
+    /**
+     * Decides if the given unit should be recorded, using the sampler for its name.
+     * 
+     * @return the weight to pass to {@link #record(UnitOfWork, UnitOfWorkRecording, long)}, or 0 if the unit should not be recorded.
+     */
+    long sample(UnitOfWork<?> work)
+    {
+        return entryFor(work).sampler.sample();
+    }
+    
+    /**
+     * Records the given execution.
+     * 
+     * @param weight the number of executions the given one stands for, as returned by {@link PerformanceLogSampler#sample()}.
+     */
+    void record(UnitOfWork<?> work, UnitOfWorkRecording recording, long weight)
+    {
+        Entry entry = entryFor(work);
+        entry.executions.add(weight);
+        if(recording.failed)
+            entry.failures.add(weight);
+        entry.entityLoads.add(recording.entityLoads * weight);
+        entry.statements.add(recording.statements * weight);
+        record(entry.openTimes, recording.openNanos, weight);
+        record(entry.executionTimes, recording.executeNanos, weight);
+        record(entry.flushTimes, recording.flushNanos, weight);
+        record(entry.commitTimes, recording.commitNanos, weight);
+        record(entry.rollbackTimes, recording.rollbackNanos, weight);
+    }
+    
+    /**
+     * Returns snapshots of the statistics of all units of work recorded so far, sorted by name.
+     */
+    public Map<String, Snapshot> snapshot()
+    {
+        Map<String, Snapshot> snapshots = new TreeMap<String, Snapshot>();
+        for(Map.Entry<String, Entry> entry : entries.entrySet())
+        {
+            if(entry.getValue().executions.sum() > 0)
+                snapshots.put(entry.getKey(), new Snapshot(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+    
+    /**
+     * Discards all statistics recorded so far.
+     */
+    public void reset()
+    {
+        entries.clear();
+    }
+    
+    private static void record(LatencyHistogram histogram, long nanos, long weight)
+    {
+        if(nanos >= 0)
+            histogram.record(nanos, weight);
+    }
+    
+    private Entry entryFor(UnitOfWork<?> work)
+    {
+        String name = nameOf(work);
+        Entry entry = entries.get(name);
+        if(entry == null)
+            entry = entries.computeIfAbsent(name, key -> new Entry(PerformanceLogSampler.of(sampler.getRate(), sampler.getMaxPerSecond())));
+        return entry;
+    }
+    
+    private static String nameOf(UnitOfWork<?> work)
+    {
+        String name = work.getName();
+        return (name != null && !name.isEmpty()) ? name : work.getClass().getName();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "UnitOfWorkStatistics " + snapshot();
+    }
+    
+    /**
+     * An immutable snapshot of the statistics for a single {@link UnitOfWork} name; all times are in nanoseconds.
+     * 
+     * @since 3.0.0
+     * @author Matthias Langer
+     */
+    @Immutable
+    public static final class Snapshot
+    {
+        private final long executions;
+        private final long failures;
+        private final long entityLoads;
+        private final long statements;
+        private final LatencyHistogram.Snapshot openTimes;
+        private final LatencyHistogram.Snapshot executionTimes;
+        private final LatencyHistogram.Snapshot flushTimes;
+        private final LatencyHistogram.Snapshot commitTimes;
+        private final LatencyHistogram.Snapshot rollbackTimes;
+        
+        private Snapshot(Entry entry)
+        {
+            executions = entry.executions.sum();
+            failures = entry.failures.sum();
+            entityLoads = entry.entityLoads.sum();
+            statements = entry.statements.sum();
+            openTimes = entry.openTimes.snapshot();
+            executionTimes = entry.executionTimes.snapshot();
+            flushTimes = entry.flushTimes.snapshot();
+            commitTimes = entry.commitTimes.snapshot();
+            rollbackTimes = entry.rollbackTimes.snapshot();
+        }
+        
+        /**
+         * @return the number of executions.
+         */
+        public long getExecutions()
+        {
+            return executions;
+        }
+        
+        /**
+         * @return the number of executions that failed.
+         */
+        public long getFailures()
+        {
+            return failures;
+        }
+        
+        /**
+         * @return the number of entities loaded by all executions.
+         */
+        public long getEntityLoads()
+        {
+            return entityLoads;
+        }
+        
+        /**
+         * @return the number of JDBC statements prepared by all executions.
+         */
+        public long getStatements()
+        {
+            return statements;
+        }
+        
+        /**
+         * @return the times needed for opening the session and beginning the transaction.
+         */
+        public LatencyHistogram.Snapshot getOpenTimes()
+        {
+            return openTimes;
+        }
+        
+        /**
+         * @return the times spent in {@link UnitOfWork#execute()}.
+         */
+        public LatencyHistogram.Snapshot getExecutionTimes()
+        {
+            return executionTimes;
+        }
+        
+        /**
+         * @return the times needed for flushing the session before committing; units that are not flushed automatically are not included.
+         */
+        public LatencyHistogram.Snapshot getFlushTimes()
+        {
+            return flushTimes;
+        }
+        
+        /**
+         * @return the times needed for committing transactions.
+         */
+        public LatencyHistogram.Snapshot getCommitTimes()
+        {
+            return commitTimes;
+        }
+        
+        /**
+         * @return the times needed for rolling back transactions.
+         */
+        public LatencyHistogram.Snapshot getRollbackTimes()
+        {
+            return rollbackTimes;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "Snapshot [executions=" + executions + ", failures=" + failures + ", entityLoads=" + entityLoads + ", statements=" + statements
+                    + ", executionTimes=" + executionTimes + "]";
+        }
+    }
+}
@@ -18,15 +18,36 @@ package at.ipsquare.commons.hibernate;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
 import org.hibernate.criterion.Restrictions;
 import org.testng.annotations.Test;
 
 import at.ipsquare.commons.core.interfaces.AbstractUnitOfWork;
 import at.ipsquare.commons.core.interfaces.ExecutionError;
 import at.ipsquare.commons.core.interfaces.UnitOfWork;
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
 
 /**
  * Tests for {@link DefaultHibernateRepository}.
@@ -175,6 +196,518 @@ public class TestDefaultHibernateRepository
         }
     }
     
+    /**
+     * Tests {@link DefaultHibernateRepository#executeUnitsOfWork(Iterable, BatchSettings)}.
+     */
+    @Test
+    public void testExecuteUnitsOfWork()
+    {
+        List<UnitOfWork<String>> units = new ArrayList<UnitOfWork<String>>();
+        for(int i = 0; i < 25; i++)
+            units.add(saveParent("batched" + i));
+        
+        List<String> results = repo.executeUnitsOfWork(units, BatchSettings.DEFAULTS.withFlushInterval(10)).getResults();
+        assertEquals(25, results.size());
+        assertEquals("batched24", results.get(24));
+        assertNotNull(parentNamed("batched0"));
+        assertNotNull(parentNamed("batched24"));
+        
+        units = Arrays.asList(saveParent("allOrNothing"), saveParent("batched0"));
+        try
+        {
+            repo.executeUnitsOfWork(units);
+            fail("Exception expected!");
+        }
+        catch(RuntimeException e)
+        {
+            // OK!
+        }
+        assertNull(parentNamed("allOrNothing"));
+        
+        units = Arrays.asList(saveParent("isolated1"), saveParent("batched0"), failing(), saveParent("isolated2"));
+        BatchResult<String> result = repo.executeUnitsOfWork(units, BatchSettings.DEFAULTS.withFailureIsolation(true));
+        assertTrue(result.hasFailures());
+        assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(result.getFailures().keySet()));
+        assertEquals(Arrays.asList("isolated1", null, null, "isolated2"), result.getResults());
+        assertNotNull(parentNamed("isolated1"));
+        assertNotNull(parentNamed("isolated2"));
+    }
+    
+    /**
+     * Tests {@link DefaultHibernateRepository#submit(UnitOfWork)}.
+     */
+    @Test
+    public void testSubmit() throws InterruptedException, ExecutionException
+    {
+        final String name = threadLocalName("async");
+        CompletableFuture<String> future = repo.submit(new AbstractUnitOfWork<String>()
+        {
+            public String execute() throws Exception
+            {
+                repo.currentSession().save(new UnitTestEntityParent(name));
+                return name;
+            }
+        });
+        
+        assertEquals(name, future.get());
+        assertNotNull(repo.submit(new AbstractUnitOfWork<UnitTestEntityParent>()
+        {
+            public UnitTestEntityParent execute() throws Exception
+            {
+                return (UnitTestEntityParent) repo.currentSession().createCriteria(UnitTestEntityParent.class)
+                        .add(Restrictions.eq("name", name))
+                        .uniqueResult();
+            }
+        }).get());
+        
+        try
+        {
+            repo.submit(failing()).get();
+            fail("Exception expected!");
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof ExecutionError);
+        }
+        
+        assertTrue(((DefaultHibernateRepository) repo).getAsyncExecutor().queueWaitTimes().getCount() >= 3);
+    }
+    
+    /**
+     * Tests {@link DefaultHibernateRepository#getConnectionPool()}.
+     */
+    @Test
+    public void testConnectionPool()
+    {
+        PooledConnectionProvider pool = ((DefaultHibernateRepository) repo).getConnectionPool();
+        assertNotNull(pool);
+        assertEquals(ConnectionPoolSettings.DEFAULTS.getMaxSize(), pool.getSettings().getMaxSize());
+        
+        long acquired = pool.acquireWaitTimes().getCount();
+        repo.executeUnitOfWork(saveParent("pooled"));
+        assertTrue(pool.acquireWaitTimes().getCount() > acquired);
+        assertTrue(pool.idleCount() >= 1);
+    }
+    
+    private static class SomeRepo5 extends DefaultHibernateRepository
+    {
+        public SomeRepo5(HibernateConfiguration hibernateCfg)
+        {
+            super(hibernateCfg);
+        }
+    }
+    
+    /**
+     * A dialect that makes Hibernate limit results using {@link java.sql.Statement#setMaxRows(int)}.
+     */
+    public static class NoLimitH2Dialect extends H2Dialect
+    {
+        @Override
+        public boolean supportsLimit()
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * Tests that per query settings do not leak into later uses of statements cached by {@link PooledConnectionProvider}.
+     */
+    @Test
+    public void testStatementCacheWithQuerySettings()
+    {
+        final SomeRepo5 cachingRepo = new SomeRepo5(new UnitTestHibernateConfiguration()
+        {
+            @Override
+            public String getDbConnectionUrl()
+            {
+                return "jdbc:h2:mem:statements";
+            }
+            
+            @Override
+            public Map<String, String> getProperties()
+            {
+                return Collections.singletonMap(Environment.DIALECT, NoLimitH2Dialect.class.getName());
+            }
+            
+            @Override
+            public ConnectionPoolSettings getConnectionPoolSettings()
+            {
+                return ConnectionPoolSettings.DEFAULTS.withMaxSize(1).withStatementCacheSize(10);
+            }
+        });
+        
+        try
+        {
+            for(int i = 0; i < 3; i++)
+            {
+                final String name = "cached-" + i;
+                cachingRepo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
+                {
+                    public Void execute() throws Exception
+                    {
+                        cachingRepo.currentSession().save(new UnitTestEntityParent(name));
+                        return null;
+                    }
+                });
+            }
+            
+            assertEquals(1, cachingRepo.executeUnitOfWork(new AbstractUnitOfWork<List<?>>()
+            {
+                public List<?> execute() throws Exception
+                {
+                    return cachingRepo.currentSession().createQuery("from UnitTestEntityParent").setMaxResults(1).setTimeout(10).list();
+                }
+            }).size());
+            
+            assertEquals(3, cachingRepo.executeUnitOfWork(new AbstractUnitOfWork<List<?>>()
+            {
+                public List<?> execute() throws Exception
+                {
+                    return cachingRepo.currentSession().createQuery("from UnitTestEntityParent").list();
+                }
+            }).size());
+        }
+        finally
+        {
+            cachingRepo.close();
+        }
+    }
+    
+    private UnitOfWork<String> saveParent(final String name)
+    {
+        return new AbstractUnitOfWork<String>()
+        {
+            public String execute() throws Exception
+            {
+                repo.currentSession().save(new UnitTestEntityParent(threadLocalName(name)));
+                return name;
+            }
+        };
+    }
+    
+    private static UnitOfWork<String> failing()
+    {
+        return new AbstractUnitOfWork<String>()
+        {
+            public String execute() throws Exception
+            {
+                throw new Exception("Ups!");
+            }
+        };
+    }
+    
+    /**
+     * Tests {@link DefaultHibernateRepository#executeUnitOfWork(UnitOfWork)} with a {@link ReadOnlyUnitOfWork}.
+     */
+    @Test
+    public void testReadOnlyUnitOfWork()
+    {
+        repo.executeUnitOfWork(saveParent("readOnly"));
+        repo.executeUnitOfWork(new ReadOnlyTestUnitOfWork<Void>()
+        {
+            public Void execute() throws Exception
+            {
+                Session session = repo.currentSession();
+                assertEquals(FlushMode.MANUAL, session.getFlushMode());
+                assertTrue(session.isDefaultReadOnly());
+                
+                UnitTestEntityParent parent = parentWithName("readOnly");
+                assertTrue(session.isReadOnly(parent));
+                parent.setName(threadLocalName("modified"));
+                return null;
+            }
+        });
+        
+        assertNotNull(parentNamed("readOnly"));
+        assertNull(parentNamed("modified"));
+        
+        repo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
+        {
+            public Void execute() throws Exception
+            {
+                assertEquals(FlushMode.AUTO, repo.currentSession().getFlushMode());
+                return null;
+            }
+        });
+    }
+    
+    private static abstract class ReadOnlyTestUnitOfWork<T> extends AbstractUnitOfWork<T> implements ReadOnlyUnitOfWork<T>
+    {
+        
+    }
+    
+    /**
+     * Tests {@link DefaultHibernateRepository#executeStatelessUnitOfWork(UnitOfWork)} together with {@link HibernateStreams}.
+     */
+    @Test
+    public void testExecuteStatelessUnitOfWork()
+    {
+        repo.executeUnitsOfWork(Arrays.asList(saveParent("stream1"), saveParent("stream0"), saveParent("stream2")));
+        
+        List<String> names = repo.executeStatelessUnitOfWork(new AbstractUnitOfWork<List<String>>()
+        {
+            public List<String> execute() throws Exception
+            {
+                try
+                {
+                    repo.currentSession();
+                    fail("Exception expected!");
+                }
+                catch(IllegalStateException e)
+                {
+                    // OK!
+                }
+                
+                Query query = repo.currentStatelessSession()
+                        .createQuery("select p.name from UnitTestEntityParent p where p.name like :prefix order by p.name")
+                        .setString("prefix", "stream%_" + Thread.currentThread().getId());
+                try(Stream<String> stream = HibernateStreams.stream(query, 2, String.class))
+                {
+                    return stream.collect(Collectors.<String>toList());
+                }
+            }
+        });
+        assertEquals(Arrays.asList(threadLocalName("stream0"), threadLocalName("stream1"), threadLocalName("stream2")), names);
+        
+        try
+        {
+            repo.executeStatelessUnitOfWork(new AbstractUnitOfWork<Void>()
+            {
+                public Void execute() throws Exception
+                {
+                    repo.currentStatelessSession().insert(new UnitTestEntityParent(threadLocalName("statelessFailing")));
+                    throw new Exception("Ups!");
+                }
+            });
+            fail("Exception expected!");
+        }
+        catch(ExecutionError e)
+        {
+            // OK!
+        }
+        assertNull(parentNamed("statelessFailing"));
+        
+        long count = repo.executeUnitOfWork(new AbstractUnitOfWork<Long>()
+        {
+            public Long execute() throws Exception
+            {
+                repo.currentSession().save(new UnitTestEntityParent(threadLocalName("statelessNested")));
+                return repo.executeStatelessUnitOfWork(new AbstractUnitOfWork<Long>()
+                {
+                    public Long execute() throws Exception
+                    {
+                        Criteria criteria = repo.currentStatelessSession().createCriteria(UnitTestEntityParent.class)
+                                .add(Restrictions.eq("name", threadLocalName("statelessNested")));
+                        try(Stream<UnitTestEntityParent> stream = HibernateStreams.stream(criteria, 10, UnitTestEntityParent.class))
+                        {
+                            return stream.count();
+                        }
+                    }
+                });
+            }
+        });
+        assertEquals(1L, count);
+    }
+    
+    /**
+     * Tests {@link DefaultHibernateRepository#executeUnitOfWork(UnitOfWork, RetrySettings)}.
+     */
+    @Test
+    public void testExecuteUnitOfWorkWithRetries()
+    {
+        DefaultHibernateRepository defaultRepo = (DefaultHibernateRepository) repo;
+        RetrySettings settings = RetrySettings.DEFAULTS.withMaxAttempts(3).withBackoff(1, 4, TimeUnit.MILLISECONDS);
+        long retries = defaultRepo.retryCount();
+        long exhausted = defaultRepo.retriesExhaustedCount();
+        long retryTimes = defaultRepo.retryTimes().getCount();
+        
+        final List<Session> sessions = new ArrayList<Session>();
+        String name = repo.executeUnitOfWork(new AbstractUnitOfWork<String>()
+        {
+            public String execute() throws Exception
+            {
+                sessions.add(repo.currentSession());
+                repo.currentSession().save(new UnitTestEntityParent(threadLocalName("retried" + sessions.size())));
+                if(sessions.size() < 3)
+                    throw new StaleObjectStateException(UnitTestEntityParent.class.getName(), sessions.size());
+                return threadLocalName("retried" + sessions.size());
+            }
+        }, settings);
+        
+        assertEquals(threadLocalName("retried3"), name);
+        assertEquals(3, sessions.size());
+        assertTrue(sessions.get(0) != sessions.get(1) && sessions.get(1) != sessions.get(2));
+        assertNull(parentNamed("retried1"));
+        assertNull(parentNamed("retried2"));
+        assertNotNull(parentNamed("retried3"));
+        assertTrue(defaultRepo.retryCount() >= retries + 2);
+        assertTrue(defaultRepo.retryTimes().getCount() >= retryTimes + 1);
+        
+        final int[] attempts = new int[1];
+        try
+        {
+            repo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
+            {
+                public Void execute() throws Exception
+                {
+                    ++attempts[0];
+                    throw new StaleObjectStateException(UnitTestEntityParent.class.getName(), attempts[0]);
+                }
+            }, settings);
+            fail("Exception expected!");
+        }
+        catch(ExecutionError e)
+        {
+            assertTrue(e.getCause() instanceof StaleObjectStateException);
+        }
+        assertEquals(3, attempts[0]);
+        assertTrue(defaultRepo.retriesExhaustedCount() >= exhausted + 1);
+        
+        attempts[0] = 0;
+        try
+        {
+            repo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
+            {
+                public Void execute() throws Exception
+                {
+                    ++attempts[0];
+                    throw new Exception("Ups!");
+                }
+            }, settings);
+            fail("Exception expected!");
+        }
+        catch(ExecutionError e)
+        {
+            // OK!
+        }
+        assertEquals(1, attempts[0]);
+        
+        Random random = new Random(42);
+        for(int retry = 1; retry < 40; retry++)
+        {
+            long backoff = settings.backoffMillis(retry, random);
+            long cap = Math.min(4, 1L << (retry - 1));
+            assertTrue(backoff >= cap / 2 && backoff <= cap);
+        }
+    }
+    
+    /**
+     * Tests {@link DefaultHibernateRepository#getUnitOfWorkStatistics()}.
+     */
+    @Test
+    public void testUnitOfWorkStatistics()
+    {
+        final String name = threadLocalName("statistics");
+        repo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
+        {
+            public Void execute() throws Exception
+            {
+                repo.currentSession().save(new UnitTestEntityParent(name));
+                return null;
+            }
+            
+            @Override
+            public String getName()
+            {
+                return name;
+            }
+        });
+        
+        UnitTestEntityParent parent = repo.executeUnitOfWork(new ReadOnlyTestUnitOfWork<UnitTestEntityParent>()
+        {
+            public UnitTestEntityParent execute() throws Exception
+            {
+                return parentWithName("statistics");
+            }
+            
+            @Override
+            public String getName()
+            {
+                return name;
+            }
+        });
+        assertNotNull(parent);
+        
+        try
+        {
+            repo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
+            {
+                public Void execute() throws Exception
+                {
+                    throw new Exception("Ups!");
+                }
+                
+                @Override
+                public String getName()
+                {
+                    return name;
+                }
+            });
+            fail("Exception expected!");
+        }
+        catch(ExecutionError e)
+        {
+            // OK!
+        }
+        
+        UnitOfWorkStatistics.Snapshot snapshot = ((DefaultHibernateRepository) repo).getUnitOfWorkStatistics().snapshot().get(name);
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.getExecutions());
+        assertEquals(1, snapshot.getFailures());
+        assertEquals(1, snapshot.getEntityLoads());
+        assertTrue(snapshot.getStatements() >= 2);
+        assertEquals(3, snapshot.getOpenTimes().getCount());
+        assertEquals(3, snapshot.getExecutionTimes().getCount());
+        assertEquals(1, snapshot.getFlushTimes().getCount());
+        assertEquals(2, snapshot.getCommitTimes().getCount());
+        assertEquals(1, snapshot.getRollbackTimes().getCount());
+    }
+    
+    /**
+     * Tests that units of work are sampled per name, so that skipped executions are never credited to other names.
+     */
+    @Test
+    public void testUnitOfWorkSamplingPerName()
+    {
+        UnitOfWorkStatistics statistics = new UnitOfWorkStatistics(PerformanceLogSampler.of(1, 1));
+        UnitOfWork<Void> unitA = namedUnit("A");
+        UnitOfWork<Void> unitB = namedUnit("B");
+        
+        assertEquals(1, statistics.sample(unitA));
+        assertEquals(0, statistics.sample(unitA));
+        assertEquals(0, statistics.sample(unitA));
+        assertEquals(1, statistics.sample(unitB));
+        assertTrue(statistics.snapshot().isEmpty());
+    }
+    
+    private static UnitOfWork<Void> namedUnit(final String name)
+    {
+        return new AbstractUnitOfWork<Void>()
+        {
+            public Void execute() throws Exception
+            {
+                return null;
+            }
+            
+            @Override
+            public String getName()
+            {
+                return name;
+            }
+        };
+    }
+    
+    private UnitTestEntityParent parentNamed(final String name)
+    {
+        return repo.executeUnitOfWork(new AbstractUnitOfWork<UnitTestEntityParent>()
+        {
+            public UnitTestEntityParent execute() throws Exception
+            {
+                return parentWithName(name);
+            }
+        });
+    }
+    
     private static String threadLocalName(String name)
     {
         return name + "_" + Thread.currentThread().getId();
@@ -218,6 +751,105 @@ public class TestDefaultHibernateRepository
         }
     }
     
+    private static class SomeRepo3 extends DefaultHibernateRepository
+    {
+        public SomeRepo3(HibernateConfiguration hibernateCfg)
+        {
+            super(hibernateCfg);
+        }
+    }
+    
+    private static class SomeRepo4 extends DefaultHibernateRepository
+    {
+        public SomeRepo4(HibernateConfiguration hibernateCfg)
+        {
+            super(hibernateCfg);
+        }
+    }
+    
+    /**
+     * Tests that {@link PooledConnectionProvider} is not used if the properties configure a connection pool.
+     */
+    @Test
+    public void testConnectionPoolConfiguredByProperties()
+    {
+        SomeRepo4 c3p0Repo = new SomeRepo4(new UnitTestHibernateConfiguration()
+        {
+            @Override
+            public String getDbConnectionUrl()
+            {
+                return "jdbc:h2:mem:c3p0";
+            }
+            
+            @Override
+            public Map<String, String> getProperties()
+            {
+                return Collections.singletonMap(Environment.C3P0_MAX_SIZE, "5");
+            }
+        });
+        
+        try
+        {
+            assertNull(c3p0Repo.getConnectionPool());
+            assertEquals(Integer.valueOf(42), c3p0Repo.executeUnitOfWork(new AbstractUnitOfWork<Integer>()
+            {
+                public Integer execute() throws Exception
+                {
+                    return 42;
+                }
+            }));
+        }
+        finally
+        {
+            c3p0Repo.close();
+        }
+    }
+    
+    /**
+     * Tests that {@link DefaultHibernateRepository#close()} waits for units of work that have been submitted asynchronously.
+     */
+    @Test
+    public void testCloseWaitsForSubmittedUnits() throws InterruptedException, ExecutionException
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SomeRepo3 closing = new SomeRepo3(new UnitTestHibernateConfiguration()
+        {
+            @Override
+            public String getDbConnectionUrl()
+            {
+                return "jdbc:h2:mem:close";
+            }
+        });
+        CompletableFuture<Integer> running = closing.submit(new AbstractUnitOfWork<Integer>()
+        {
+            public Integer execute() throws Exception
+            {
+                started.countDown();
+                release.await();
+                return closing.currentSession().createCriteria(UnitTestEntityParent.class).list().size();
+            }
+        });
+        CompletableFuture<Integer> queued = closing.submit(new AbstractUnitOfWork<Integer>()
+        {
+            public Integer execute() throws Exception
+            {
+                return closing.currentSession().createCriteria(UnitTestEntityParent.class).list().size();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        
+        Thread closer = new Thread(closing::close);
+        closer.start();
+        Thread.sleep(100);
+        release.countDown();
+        closer.join(TimeUnit.SECONDS.toMillis(10));
+        
+        assertTrue(closing.isClosed());
+        assertNotNull(running.get());
+        assertNotNull(queued.get());
+    }
+    
     /**
      * Assert that we fail fast if an unfortunate user attempts to create multiple repository instances of the same type.
      */
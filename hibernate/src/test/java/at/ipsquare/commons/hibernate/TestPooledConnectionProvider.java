@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2013 Matthias Langer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ipsquare.commons.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.cfg.Environment;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link PooledConnectionProvider}.
+ * 
+ * @author Matthias Langer
+ */
+public class TestPooledConnectionProvider
+{
+    /**
+     * Tests {@link PooledConnectionProvider#getConnection()} and {@link PooledConnectionProvider#closeConnection(Connection)}.
+     */
+    @Test
+    public void testAcquireAndRelease() throws SQLException
+    {
+        PooledConnectionProvider pool = newPool(ConnectionPoolSettings.DEFAULTS.withMaxSize(2).withAcquireTimeout(50, TimeUnit.MILLISECONDS));
+        try
+        {
+            assertEquals(1, pool.idleCount());
+            assertEquals(0, pool.activeCount());
+            
+            Connection c1 = pool.getConnection();
+            Connection c2 = pool.getConnection();
+            assertNotSame(c1, c2);
+            assertEquals(2, pool.activeCount());
+            assertEquals(0, pool.idleCount());
+            
+            try
+            {
+                pool.getConnection();
+                fail("Exception expected!");
+            }
+            catch(SQLTimeoutException e)
+            {
+                // OK!
+            }
+            
+            pool.closeConnection(c1);
+            assertEquals(1, pool.activeCount());
+            assertEquals(1, pool.idleCount());
+            assertSame(c1, pool.getConnection());
+            
+            pool.closeConnection(c1);
+            pool.closeConnection(c2);
+            assertEquals(0, pool.activeCount());
+            assertEquals(2, pool.idleCount());
+            assertEquals(0, pool.waiterCount());
+            assertEquals(4, pool.acquireWaitTimes().getCount());
+            assertTrue(pool.acquireWaitTimes().getMax() >= 50000000L);
+        }
+        finally
+        {
+            pool.stop();
+        }
+        
+        assertEquals(0, pool.idleCount());
+        try
+        {
+            pool.getConnection();
+            fail("Exception expected!");
+        }
+        catch(SQLException e)
+        {
+            // OK!
+        }
+    }
+    
+    /**
+     * Tests the statement cache enabled by {@link ConnectionPoolSettings#withStatementCacheSize(int)}.
+     */
+    @Test
+    public void testStatementCache() throws SQLException
+    {
+        PooledConnectionProvider pool = newPool(ConnectionPoolSettings.DEFAULTS.withStatementCacheSize(1));
+        try
+        {
+            Connection c = pool.getConnection();
+            PreparedStatement ps1 = c.prepareStatement("select 1");
+            PreparedStatement ps2 = c.prepareStatement("select 1");
+            assertFalse(ps1.toString().equals(ps2.toString()));
+            ps2.close();
+            
+            ps1.close();
+            assertTrue(ps1.isClosed());
+            PreparedStatement ps3 = c.prepareStatement("select 1");
+            assertEquals(ps1.toString(), ps3.toString());
+            assertTrue(ps3.executeQuery().next());
+            assertSame(c, ps3.getConnection());
+            ps3.setMaxRows(1);
+            ps3.setQueryTimeout(10);
+            ps3.close();
+            
+            PreparedStatement ps3Again = c.prepareStatement("select 1");
+            assertEquals(ps1.toString(), ps3Again.toString());
+            assertEquals(0, ps3Again.getMaxRows());
+            assertEquals(0, ps3Again.getQueryTimeout());
+            ps3Again.close();
+            
+            PreparedStatement ps4 = c.prepareStatement("select 2");
+            ps4.close();
+            PreparedStatement ps5 = c.prepareStatement("select 1");
+            assertFalse(ps1.toString().equals(ps5.toString()));
+            ps5.close();
+            
+            pool.closeConnection(c);
+        }
+        finally
+        {
+            pool.stop();
+        }
+    }
+    
+    /**
+     * Makes sure that {@link PooledConnectionProvider#closeConnection(Connection)} rolls back pending work.
+     */
+    @Test
+    public void testPendingTransactionRolledBack() throws SQLException
+    {
+        PooledConnectionProvider pool = newPool(ConnectionPoolSettings.DEFAULTS.withMinSize(1).withMaxSize(2));
+        try
+        {
+            Connection c1 = pool.getConnection();
+            c1.setAutoCommit(false);
+            c1.createStatement().execute("create table pending(id int)");
+            c1.commit();
+            c1.createStatement().execute("insert into pending values (1)");
+            pool.closeConnection(c1);
+            
+            Connection c2 = pool.getConnection();
+            assertSame(c1, c2);
+            c2.setAutoCommit(false);
+            c2.commit();
+            
+            Connection other = pool.getConnection();
+            assertNotSame(c2, other);
+            ResultSet rs = other.createStatement().executeQuery("select count(*) from pending");
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+            rs.close();
+            other.createStatement().execute("drop table pending");
+            
+            pool.closeConnection(other);
+            pool.closeConnection(c2);
+        }
+        finally
+        {
+            pool.stop();
+        }
+    }
+    
+    private static PooledConnectionProvider newPool(ConnectionPoolSettings settings)
+    {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Environment.URL, "jdbc:h2:mem:pool");
+        props.put(Environment.USER, "sa");
+        props.put(Environment.PASS, "");
+        props.put(ConnectionPoolSettings.MIN_SIZE_KEY, String.valueOf(settings.getMinSize()));
+        props.put(ConnectionPoolSettings.MAX_SIZE_KEY, String.valueOf(settings.getMaxSize()));
+        props.put(ConnectionPoolSettings.ACQUIRE_TIMEOUT_KEY, String.valueOf(settings.getAcquireTimeoutMillis()));
+        props.put(ConnectionPoolSettings.IDLE_TIMEOUT_KEY, String.valueOf(settings.getIdleTimeoutMillis()));
+        props.put(ConnectionPoolSettings.STATEMENT_CACHE_SIZE_KEY, String.valueOf(settings.getStatementCacheSize()));
+        
+        PooledConnectionProvider pool = new PooledConnectionProvider();
+        pool.configure(props);
+        return pool;
+    }
+}
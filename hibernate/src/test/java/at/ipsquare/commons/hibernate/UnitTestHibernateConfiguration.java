@@ -17,6 +17,8 @@ package at.ipsquare.commons.hibernate;
 
 import java.sql.Driver;
 
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
+
 import com.google.inject.Singleton;
 
 @Singleton
@@ -48,6 +50,18 @@ public class UnitTestHibernateConfiguration extends AbstractHibernateConfigurati
         return HibernateHbm2dllAuto.CREATE_DROP;
     }
     
+    @Override
+    public PerformanceLogSampler getUnitOfWorkSampler()
+    {
+        return PerformanceLogSampler.ALWAYS;
+    }
+    
+    @Override
+    public ConnectionPoolSettings getConnectionPoolSettings()
+    {
+        return ConnectionPoolSettings.DEFAULTS;
+    }
+    
     public Class<?>[] getDomainClasses()
     {
         return new Class<?>[] {
@@ -16,11 +16,15 @@
 package at.ipsquare.commons.servlet;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -28,12 +32,15 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
 
 import at.ipsquare.commons.core.interfaces.AbstractUnitOfWork;
 import at.ipsquare.commons.core.interfaces.UnitOfWork;
 import at.ipsquare.commons.core.util.Classes;
 import at.ipsquare.commons.hibernate.HibernateRepository;
 import at.ipsquare.commons.hibernate.HibernateRepositoryProvider;
+import at.ipsquare.commons.hibernate.ReadOnlyUnitOfWork;
+import at.ipsquare.commons.hibernate.RetrySettings;
 
 /**
  * This class implements a {@link Filter} that wraps entire web requests in {@link UnitOfWork} instances using the configured {@link HibernateRepository} instances.
@@ -42,6 +49,14 @@ import at.ipsquare.commons.hibernate.HibernateRepositoryProvider;
  * This servlet filter is an implementation of the session-per-request pattern. By default, you also get one transaction per request, but nobody hinders
  * you from doing more fine grained transaction management if you need it.
  * 
+ * <p/>
+ * Requests with HTTP methods listed in the {@link InitParameterNames#READ_ONLY_REQUEST_METHODS} init parameter are executed as
+ * {@link ReadOnlyUnitOfWork}s; make sure that requests using these methods never write to the database.
+ * 
+ * <p/>
+ * Requests are never retried, regardless of {@link at.ipsquare.commons.hibernate.HibernateConfiguration#getRetrySettings()},
+ * since parts of the response might already have been written when a unit of work fails.
+ * 
  * @since 2.0.0
  * @author Matthias Langer
  */
@@ -49,6 +64,7 @@ public final class HibernateUnitOfWorkFilter implements Filter
 {
     private Map<String, HibernateRepository> repoMap;
     private RequestMatcher requestMatcher;
+    private Set<String> readOnlyRequestMethods;
     
     @Override
     public void destroy()
@@ -60,12 +76,23 @@ public final class HibernateUnitOfWorkFilter implements Filter
     public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException
     {
         if(requestMatcher.matches(req))
-            recurseThroughRepos((repoMap != null ? repoMap.entrySet().iterator() : null), req, res, chain);
+            recurseThroughRepos((repoMap != null ? repoMap.entrySet().iterator() : null), req, res, chain, isReadOnly(req));
         else
             chain.doFilter(req, res);
     }
     
-    private static void  recurseThroughRepos(final Iterator<Map.Entry<String, HibernateRepository>> iter, final ServletRequest req, final ServletResponse res, final FilterChain chain) throws IOException, ServletException
+    private boolean isReadOnly(ServletRequest req)
+    {
+        if(readOnlyRequestMethods.isEmpty() || !(req instanceof HttpServletRequest))
+            return false;
+        
+        String method = ((HttpServletRequest) req).getMethod();
+        return method != null && readOnlyRequestMethods.contains(method.toUpperCase(Locale.ENGLISH));
+    }
+    
+    private static void  recurseThroughRepos(
+            final Iterator<Map.Entry<String, HibernateRepository>> iter, final ServletRequest req, final ServletResponse res, final FilterChain chain, final boolean readOnly)
+        throws IOException, ServletException
     {
         if(iter == null || !iter.hasNext())
         {
@@ -77,12 +104,32 @@ public final class HibernateUnitOfWorkFilter implements Filter
         final String name = entry.getKey();
         HibernateRepository repo = entry.getValue();
         
+        if(readOnly)
+        {
+            repo.executeUnitOfWork(new ReadOnlyRequestUnitOfWork()
+            {
+                @Override
+                public Void execute() throws Exception
+                {
+                    recurseThroughRepos(iter, req, res, chain, true);
+                    return null;
+                }
+                
+                @Override
+                public String getName()
+                {
+                    return name;
+                }
+            }, RetrySettings.DEFAULTS);
+            return;
+        }
+        
         repo.executeUnitOfWork(new AbstractUnitOfWork<Void>()
         {
             @Override
             public Void execute() throws Exception
             {
-                recurseThroughRepos(iter, req, res, chain);
+                recurseThroughRepos(iter, req, res, chain, false);
                 return null;
             }
             
@@ -91,7 +138,12 @@ public final class HibernateUnitOfWorkFilter implements Filter
             {
                 return name;
             }
-        });
+        }, RetrySettings.DEFAULTS);
+    }
+    
+    private static abstract class ReadOnlyRequestUnitOfWork extends AbstractUnitOfWork<Void> implements ReadOnlyUnitOfWork<Void>
+    {
+        
     }
 
     @Override
@@ -99,6 +151,7 @@ public final class HibernateUnitOfWorkFilter implements Filter
     {
         String includePattern = null;
         String excludePattern = null;
+        Set<String> newReadOnlyRequestMethods = new HashSet<String>();
         
         Map<String, HibernateRepository> newRepoMap = new LinkedHashMap<String, HibernateRepository>();
         Enumeration<?> paramNames = cfg.getInitParameterNames();
@@ -116,6 +169,8 @@ public final class HibernateUnitOfWorkFilter implements Filter
                         includePattern = value;
                     else if(InitParameterNames.EXCLUDE_PATH_PATTERN.equals(name))
                         excludePattern = value;
+                    else if(InitParameterNames.READ_ONLY_REQUEST_METHODS.equals(name))
+                        newReadOnlyRequestMethods.addAll(parseRequestMethods(value));
                     else if(value != null)
                     {
                       HibernateRepository repo = loadHibernateRepository(value);
@@ -132,6 +187,21 @@ public final class HibernateUnitOfWorkFilter implements Filter
         
         checkForIdenticalRepos(newRepoMap);
         repoMap = newRepoMap;
+        readOnlyRequestMethods = Collections.unmodifiableSet(newReadOnlyRequestMethods);
+    }
+    
+    private static Set<String> parseRequestMethods(String value)
+    {
+        Set<String> methods = new HashSet<String>();
+        if(value != null)
+        {
+            for(String method : value.split(","))
+            {
+                if(!method.trim().isEmpty())
+                    methods.add(method.trim().toUpperCase(Locale.ENGLISH));
+            }
+        }
+        return methods;
     }
     
     private static void checkForIdenticalRepos(Map<String, HibernateRepository> repoMap)
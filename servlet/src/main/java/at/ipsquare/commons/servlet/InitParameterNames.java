@@ -33,6 +33,14 @@ public final class InitParameterNames
      */
     public static final String EXCLUDE_PATH_PATTERN = "excludePathPattern";
     
+    /**
+     * Initialization parameter name for a comma separated list of HTTP methods, like <code>GET, HEAD</code>, whose requests
+     * are executed as {@link at.ipsquare.commons.hibernate.ReadOnlyUnitOfWork}s by {@link HibernateUnitOfWorkFilter}.
+     * 
+     * @since 3.0.0
+     */
+    public static final String READ_ONLY_REQUEST_METHODS = "readOnlyRequestMethods";
+    
     private InitParameterNames()
     {
         
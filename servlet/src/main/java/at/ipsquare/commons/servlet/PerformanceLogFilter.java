@@ -16,6 +16,8 @@
 package at.ipsquare.commons.servlet;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -25,12 +27,12 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import at.ipsquare.commons.core.util.Classes;
 import at.ipsquare.commons.core.util.PerformanceLogFormatter;
+import at.ipsquare.commons.core.util.PerformanceLogSampler;
 import at.ipsquare.commons.core.util.PerformanceLogger;
+import at.ipsquare.commons.core.util.SharedInstances;
 
 /**
  * This filter logs the execution time of incoming web requests using a {@link PerformanceLogger}.
@@ -40,7 +42,6 @@ import at.ipsquare.commons.core.util.PerformanceLogger;
  */
 public class PerformanceLogFilter implements Filter
 {
-    private static final Logger log = LoggerFactory.getLogger(PerformanceLogFilter.class);
     private static final PerformanceLogFilterMessageFormatter DEFAULT_LOG_FILTER_MESSAGE_FORMATTER = new DefaultPerformanceLogFilterMessageFormatter();
     
     private enum DefaultLogFormatter implements PerformanceLogFormatter
@@ -50,12 +51,63 @@ public class PerformanceLogFilter implements Filter
         @Override
         public String format(StackTraceElement from, StackTraceElement to, long millis, String message)
         {
-            return new StringBuilder()
-              .append(millis)
+            StringBuilder sb = new StringBuilder();
+            appendTo(sb, millis, message);
+            return sb.toString();
+        }
+        
+        @Override
+        public void formatTo(Appendable out, StackTraceElement from, StackTraceElement to, long millis, String message) throws IOException
+        {
+            if(out instanceof StringBuilder)
+            {
+                appendTo((StringBuilder) out, millis, message);
+                return;
+            }
+            
+            out.append(String.valueOf(millis))
+               .append("ms <<")
+               .append(message)
+               .append(">>");
+        }
+        
+        private static void appendTo(StringBuilder sb, long millis, String message)
+        {
+            sb.append(millis)
               .append("ms <<")
               .append(message)
-              .append(">>")
-              .toString();
+              .append(">>");
+        }
+    }
+    
+    /**
+     * Obtains the actual formatter only when a message is formatted, so that requests that are not logged do not create formatters.
+     */
+    private static final class SuppliedLogFormatter implements PerformanceLogFormatter
+    {
+        private final Supplier<? extends PerformanceLogFormatter> formatters;
+        
+        SuppliedLogFormatter(Supplier<? extends PerformanceLogFormatter> formatters)
+        {
+            this.formatters = formatters;
+        }
+        
+        @Override
+        public String format(StackTraceElement from, StackTraceElement to, long millis, String message)
+        {
+            return formatters.get().format(from, to, millis, message);
+        }
+        
+        @Override
+        public void formatTo(Appendable out, StackTraceElement from, StackTraceElement to, long millis, String message) throws IOException
+        {
+            formatters.get().formatTo(out, from, to, millis, message);
+        }
+        
+        @Override
+        public void formatNanosTo(Appendable out, StackTraceElement from, StackTraceElement to, long nanos, String message) throws IOException
+        {
+            formatters.get().formatNanosTo(out, from, to, nanos, message);
         }
     }
     
@@ -80,11 +132,26 @@ public class PerformanceLogFilter implements Filter
      */
     public final static String INIT_PARAM_PERFORMANCE_LOG_FILTER_MESSAGE_FORMATTER = "performanceLogFilterMessageFormatter";
     
+    /**
+     * Init parameter name for the fraction of requests that should be timed, between 0 and 1 (see {@link PerformanceLogSampler}).
+     * 
+     * @since 3.0.0
+     */
+    public final static String INIT_PARAM_SAMPLING_RATE = "samplingRate";
+    
+    /**
+     * Init parameter name for the maximum number of requests per second that should be timed (see {@link PerformanceLogSampler}).
+     * 
+     * @since 3.0.0
+     */
+    public final static String INIT_PARAM_SAMPLING_MAX_PER_SECOND = "samplingMaxPerSecond";
+    
     private long threshold;
     private RequestMatcher requestMatcher;
     private String prefix;
-    private Class<? extends PerformanceLogFormatter> logFormatterClass;
-    private Class<? extends PerformanceLogFilterMessageFormatter> logFilterMessageFormatterClass;
+    private PerformanceLogFormatter logFormatter;
+    private Supplier<? extends PerformanceLogFilterMessageFormatter> logFilterMessageFormatters;
+    private PerformanceLogSampler sampler;
     
     @Override
     public void init(FilterConfig filterConfig) throws ServletException
@@ -105,72 +172,70 @@ public class PerformanceLogFilter implements Filter
         
         requestMatcher = PathPatternRequestMatcher.fromFilterConfig(filterConfig);
         prefix = StringUtils.defaultString(filterConfig.getInitParameter(INIT_PARAM_PREFIX));
-        logFormatterClass = logFormatterClassFromConfig(filterConfig);
-        logFilterMessageFormatterClass = logFilterMessageFormatterClassFromConfig(filterConfig);
+        logFormatter = new SuppliedLogFormatter(sharedInstancesFromConfig(
+                filterConfig, INIT_PARAM_PERFORMANCE_LOG_FORMATTER, PerformanceLogFormatter.class, DefaultLogFormatter.INSTANCE));
+        logFilterMessageFormatters = sharedInstancesFromConfig(
+                filterConfig, INIT_PARAM_PERFORMANCE_LOG_FILTER_MESSAGE_FORMATTER, PerformanceLogFilterMessageFormatter.class, DEFAULT_LOG_FILTER_MESSAGE_FORMATTER);
+        sampler = samplerFromConfig(filterConfig);
     }
     
-    private Class<? extends PerformanceLogFilterMessageFormatter> logFilterMessageFormatterClassFromConfig(FilterConfig filterConfig)
+    private static PerformanceLogSampler samplerFromConfig(FilterConfig filterConfig)
     {
-        return typeFromConfig(filterConfig, INIT_PARAM_PERFORMANCE_LOG_FILTER_MESSAGE_FORMATTER, PerformanceLogFilterMessageFormatter.class);
-    }
-    
-    private static Class<? extends PerformanceLogFormatter> logFormatterClassFromConfig(FilterConfig filterConfig)
-    {
-        return typeFromConfig(filterConfig, INIT_PARAM_PERFORMANCE_LOG_FORMATTER, PerformanceLogFormatter.class);
-    }
-
-    private static <T> Class<? extends T> typeFromConfig(FilterConfig filterConfig, String parameterName, Class<T> type)
-    {
-        String className = filterConfig.getInitParameter(parameterName);
-        if(StringUtils.isEmpty(className))
+        String rateString = filterConfig.getInitParameter(INIT_PARAM_SAMPLING_RATE);
+        String maxPerSecondString = filterConfig.getInitParameter(INIT_PARAM_SAMPLING_MAX_PER_SECOND);
+        if(StringUtils.isEmpty(rateString) && StringUtils.isEmpty(maxPerSecondString))
             return null;
         
         try
         {
-            return Classes.forName(className, type);
-        }
-        catch(ClassCastException e)
-        {
-            throw new ServletConfigurationError(e.getMessage());
+            double rate = StringUtils.isEmpty(rateString) ? 1 : Double.parseDouble(rateString);
+            long maxPerSecond = StringUtils.isEmpty(maxPerSecondString) ? 0 : Long.parseLong(maxPerSecondString);
+            return PerformanceLogSampler.of(rate, maxPerSecond);
         }
-        catch(ClassNotFoundException e)
+        catch(IllegalArgumentException e)
         {
-            throw new ServletConfigurationError("Cannot load formatter class '" + className + "'.");
+            throw new ServletConfigurationError(
+                    "Not a legal value for " + INIT_PARAM_SAMPLING_RATE + " or " + INIT_PARAM_SAMPLING_MAX_PER_SECOND 
+                    + ": '" + rateString + "', '" + maxPerSecondString + "'", e);
         }
     }
     
-    private PerformanceLogFormatter performanceLogFormatter()
+    private static <T> Supplier<? extends T> sharedInstancesFromConfig(FilterConfig filterConfig, String parameterName, Class<T> type, T defaultInstance)
     {
-        if(logFormatterClass == null)
-            return DefaultLogFormatter.INSTANCE;
+        Class<? extends T> clazz = typeFromConfig(filterConfig, parameterName, type);
+        if(clazz == null)
+            return () -> defaultInstance;
         
         try
         {
-            return logFormatterClass.newInstance();
+            return SharedInstances.supplierFor(clazz);
         }
-        catch(Exception e)
+        catch(ReflectiveOperationException e)
         {
-            log.error("Could not create an instance of " + logFormatterClass.getName() + ".", e);
-            return DefaultLogFormatter.INSTANCE;
+            throw new ServletConfigurationError("Could not create an instance of " + clazz.getName() + ".", e);
         }
     }
-    
-    private PerformanceLogFilterMessageFormatter filterMessageFormatter()
+
+    private static <T> Class<? extends T> typeFromConfig(FilterConfig filterConfig, String parameterName, Class<T> type)
     {
-        if(logFilterMessageFormatterClass == null)
-            return DEFAULT_LOG_FILTER_MESSAGE_FORMATTER;
+        String className = filterConfig.getInitParameter(parameterName);
+        if(StringUtils.isEmpty(className))
+            return null;
         
         try
         {
-            return logFilterMessageFormatterClass.newInstance();
+            return Classes.forName(className, type);
         }
-        catch(Exception e)
+        catch(ClassCastException e)
+        {
+            throw new ServletConfigurationError(e.getMessage());
+        }
+        catch(ClassNotFoundException e)
         {
-            log.error("Could not create an instance of " + logFilterMessageFormatterClass.getName() + ".", e);
-            return DEFAULT_LOG_FILTER_MESSAGE_FORMATTER;
+            throw new ServletConfigurationError("Cannot load formatter class '" + className + "'.");
         }
     }
-
+    
     @Override
     public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException
     {
@@ -179,7 +244,7 @@ public class PerformanceLogFilter implements Filter
         else
         {
             Throwable th = null;
-            PerformanceLogger plog = new PerformanceLogger(threshold, performanceLogFormatter());
+            PerformanceLogger plog = new PerformanceLogger(threshold, TimeUnit.MILLISECONDS, logFormatter, sampler);
             try
             {
                 chain.doFilter(req, res);
@@ -190,7 +255,8 @@ public class PerformanceLogFilter implements Filter
             }
             finally
             {
-                plog.logElapsed(toLogString(req, res, th));
+                if(plog.isSampled())
+                    plog.logElapsed(toLogString(req, res, th));
             }
             
             if(th != null)
@@ -214,7 +280,8 @@ public class PerformanceLogFilter implements Filter
     
     private String toLogString(ServletRequest req, ServletResponse res, Throwable th)
     {
-        return prefix + filterMessageFormatter().format(req, res, th);
+        String msg = logFilterMessageFormatters.get().format(req, res, th);
+        return (prefix.isEmpty() ? msg : prefix.concat(msg));
     }
     
     @Override
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Filter;
@@ -32,13 +33,18 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.testng.annotations.Test;
 
 import at.ipsquare.commons.core.interfaces.ExecutionError;
 import at.ipsquare.commons.core.interfaces.UnitOfWork;
+import at.ipsquare.commons.hibernate.BatchResult;
+import at.ipsquare.commons.hibernate.BatchSettings;
 import at.ipsquare.commons.hibernate.HibernateRepository;
 import at.ipsquare.commons.hibernate.HibernateRepositoryProvider;
+import at.ipsquare.commons.hibernate.ReadOnlyUnitOfWork;
+import at.ipsquare.commons.hibernate.RetrySettings;
 
 
 /**
@@ -62,6 +68,7 @@ public class TestHibernateUnitOfWorkFilter
     {
         static final AtomicInteger unitsProcessedOk = new AtomicInteger();
         static final AtomicInteger unitsProcessedError = new AtomicInteger();
+        static final AtomicInteger unitsReadOnly = new AtomicInteger();
         
         @Override
         public Session currentSession()
@@ -72,7 +79,16 @@ public class TestHibernateUnitOfWorkFilter
         @Override
         public <T> T executeUnitOfWork(UnitOfWork<T> work)
         {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public <T> T executeUnitOfWork(UnitOfWork<T> work, RetrySettings settings)
+        {
+            assertEquals(1, settings.getMaxAttempts());
             boolean ok = false;
+            if(work instanceof ReadOnlyUnitOfWork)
+                unitsReadOnly.incrementAndGet();
             try
             {
                 work.execute();
@@ -89,6 +105,30 @@ public class TestHibernateUnitOfWorkFilter
             }
         }
         
+        @Override
+        public <T> BatchResult<T> executeUnitsOfWork(Iterable<? extends UnitOfWork<? extends T>> units, BatchSettings settings)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public <T> CompletableFuture<T> submit(UnitOfWork<T> work)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public <T> T executeStatelessUnitOfWork(UnitOfWork<T> work)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public StatelessSession currentStatelessSession()
+        {
+            return null;
+        }
+        
         @Override
         public void close()
         {
@@ -184,6 +224,32 @@ public class TestHibernateUnitOfWorkFilter
         assertEquals(6, TestHibernateRepository.unitsProcessedError.get());
     }
     
+    /**
+     * Tests {@link HibernateUnitOfWorkFilter#doFilter(ServletRequest, ServletResponse, FilterChain)} with {@link InitParameterNames#READ_ONLY_REQUEST_METHODS}.
+     */
+    @Test(dependsOnMethods = "testDoFilter")
+    public void testReadOnlyRequestMethods() throws ServletException, IOException
+    {
+        Map<String, String> props = validTestFilterConfigProperties();
+        props.put(InitParameterNames.READ_ONLY_REQUEST_METHODS, "get, Head");
+        HibernateUnitOfWorkFilter filter = new HibernateUnitOfWorkFilter();
+        filter.init(new UnitTestFilterConfig(props));
+        try
+        {
+            int readOnly = TestHibernateRepository.unitsReadOnly.get();
+            filter.doFilter(requestFromPath("GET", "/foo"), null, new TestFilterChainOk());
+            assertEquals(readOnly + 2, TestHibernateRepository.unitsReadOnly.get());
+            filter.doFilter(requestFromPath("HEAD", "/foo"), null, new TestFilterChainOk());
+            assertEquals(readOnly + 4, TestHibernateRepository.unitsReadOnly.get());
+            filter.doFilter(requestFromPath("POST", "/foo"), null, new TestFilterChainOk());
+            assertEquals(readOnly + 4, TestHibernateRepository.unitsReadOnly.get());
+        }
+        finally
+        {
+            filter.destroy();
+        }
+    }
+    
     private static FilterConfig validTestFilterConfig()
     {
         return new UnitTestFilterConfig(validTestFilterConfigProperties());
@@ -251,7 +317,12 @@ public class TestHibernateUnitOfWorkFilter
     
     private static ServletRequest requestFromPath(String path)
     {
-        MockHttpServletRequest req = new MockHttpServletRequest();
+        return requestFromPath("GET", path);
+    }
+    
+    private static ServletRequest requestFromPath(String method, String path)
+    {
+        MockHttpServletRequest req = new MockHttpServletRequest(method, null);
         req.setPathInfo(path);
         req.setServletPath("");
         return req;
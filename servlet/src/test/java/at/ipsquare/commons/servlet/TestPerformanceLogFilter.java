@@ -16,6 +16,7 @@
 package at.ipsquare.commons.servlet;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -24,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
@@ -96,6 +98,49 @@ public class TestPerformanceLogFilter
         }
     }
     
+    public static class CountingLogMessageFormatter implements PerformanceLogFormatter
+    {
+        static final AtomicInteger instances = new AtomicInteger();
+        
+        public CountingLogMessageFormatter()
+        {
+            instances.incrementAndGet();
+        }
+        
+        @Override
+        public String format(StackTraceElement from, StackTraceElement to, long millis, String message)
+        {
+            return message;
+        }
+    }
+    
+    @Immutable
+    public static class CountingLogFilterMessageFormatter implements PerformanceLogFilterMessageFormatter
+    {
+        static final AtomicInteger calls = new AtomicInteger();
+        
+        @Override
+        public String format(ServletRequest req, ServletResponse res, Throwable th)
+        {
+            calls.incrementAndGet();
+            return "counted";
+        }
+    }
+    
+    public static class BrokenLogMessageFormatter implements PerformanceLogFormatter
+    {
+        public BrokenLogMessageFormatter()
+        {
+            throw new IllegalStateException("Broken on purpose.");
+        }
+        
+        @Override
+        public String format(StackTraceElement from, StackTraceElement to, long millis, String message)
+        {
+            return message;
+        }
+    }
+    
     private static class SleepyChain extends UnitTestFilterChain
     {
         final long millis;
@@ -144,6 +189,7 @@ public class TestPerformanceLogFilter
         String prefix;
         String performanceLogFormatter;
         String performanceLogFilterMessageFormatter;
+        String samplingRate;
         
         FilterConfigBuilder whithThreshold(Long threshold)
         {
@@ -187,6 +233,12 @@ public class TestPerformanceLogFilter
             return this;
         }
         
+        FilterConfigBuilder withSamplingRate(String samplingRate)
+        {
+            this.samplingRate = samplingRate;
+            return this;
+        }
+        
         FilterConfig toFilterConfig()
         {
             Map<String, String> props = Maps.newHashMapWithExpectedSize(4);
@@ -202,6 +254,8 @@ public class TestPerformanceLogFilter
                 props.put(PerformanceLogFilter.INIT_PARAM_PERFORMANCE_LOG_FORMATTER, performanceLogFormatter);
             if(performanceLogFilterMessageFormatter != null)
                 props.put(PerformanceLogFilter.INIT_PARAM_PERFORMANCE_LOG_FILTER_MESSAGE_FORMATTER, performanceLogFilterMessageFormatter);
+            if(samplingRate != null)
+                props.put(PerformanceLogFilter.INIT_PARAM_SAMPLING_RATE, samplingRate);
             return new UnitTestFilterConfig(props);
         }
     }
@@ -224,7 +278,8 @@ public class TestPerformanceLogFilter
         
         final String[] NOT_IN_LOG = new String[] {
                 "/missing1.do",
-                "/skip/this.do"
+                "/skip/this.do",
+                "/not/sampled"
         };
         
         final long THRESHOLD = 10;
@@ -268,6 +323,15 @@ public class TestPerformanceLogFilter
         filter.init(new FilterConfigBuilder().withPerformanceLogFilterMessageFormatter(LogFilterMessageFormatter.class.getName()).toFilterConfig());
         filter.doFilter(req("/i/cant", null, "care=less"), res(), chain);
         
+        filter = new PerformanceLogFilter();
+        filter.init(new FilterConfigBuilder().withThreshold(0L).withSamplingRate("0")
+                .withPerformanceLogFormatter(CountingLogMessageFormatter.class.getName())
+                .withPerformanceLogFilterMessageFormatter(CountingLogFilterMessageFormatter.class.getName()).toFilterConfig());
+        int formatterInstances = CountingLogMessageFormatter.instances.get();
+        filter.doFilter(req(NOT_IN_LOG[2], null, null), res(), chain);
+        assertThat(CountingLogMessageFormatter.instances.get(), equalTo(formatterInstances));
+        assertThat(CountingLogFilterMessageFormatter.calls.get(), equalTo(0));
+        
         String logString = TestAppender.stream.toString("UTF-8");
         for(String inLog : IN_LOG)
             assertThat(logString, containsString(inLog));
@@ -287,6 +351,26 @@ public class TestPerformanceLogFilter
         {
             // OK!
         }
+        
+        try
+        {
+            new PerformanceLogFilter().init(new FilterConfigBuilder().withPerformanceLogFormatter(BrokenLogMessageFormatter.class.getName()).toFilterConfig());
+            fail();
+        }
+        catch(ServletConfigurationError e)
+        {
+            // OK!
+        }
+        
+        try
+        {
+            new PerformanceLogFilter().init(new FilterConfigBuilder().withSamplingRate("2").toFilterConfig());
+            fail();
+        }
+        catch(ServletConfigurationError e)
+        {
+            // OK!
+        }
     }
     
     private static HttpServletRequest req(String servletPath, String pathInfo, String queryString)